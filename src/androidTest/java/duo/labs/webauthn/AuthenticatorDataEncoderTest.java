@@ -0,0 +1,76 @@
+package duo.labs.webauthn;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.security.KeyPairGenerator;
+import java.security.spec.ECGenParameterSpec;
+import java.util.Arrays;
+
+import duo.labs.webauthn.util.AuthenticatorDataEncoder;
+import duo.labs.webauthn.util.CredentialSafe;
+
+import static org.junit.Assert.*;
+
+public class AuthenticatorDataEncoderTest {
+    private final byte[] rpIdHash = new byte[32];
+    private final byte[] clientDataHash = new byte[32];
+
+    public AuthenticatorDataEncoderTest() {
+        Arrays.fill(rpIdHash, (byte) 0x11);
+        Arrays.fill(clientDataHash, (byte) 0x22);
+    }
+
+    // the two-buffer construction getAssertion used before AuthenticatorDataEncoder
+    private byte[] legacyToSign(int counter) {
+        ByteBuffer authData = ByteBuffer.allocate(37);
+        authData.put(rpIdHash);
+        authData.put((byte) 0x01);
+        authData.putInt(counter);
+        byte[] authenticatorData = authData.array();
+
+        ByteBuffer byteBuffer = ByteBuffer.allocate(authenticatorData.length + clientDataHash.length);
+        byteBuffer.put(authenticatorData);
+        byteBuffer.put(clientDataHash);
+        return byteBuffer.array();
+    }
+
+    @Test
+    public void encoderMatchesLegacyLayout() throws Exception {
+        AuthenticatorDataEncoder encoder = AuthenticatorDataEncoder.forCurrentThread()
+                .encode(rpIdHash, false, 42, null, null, clientDataHash);
+        assertArrayEquals(legacyToSign(42), Arrays.copyOf(encoder.buffer(), encoder.length()));
+        assertEquals(37, encoder.authenticatorDataLength());
+    }
+
+    @Test
+    public void attestedCredentialData() throws Exception {
+        // longer than 255 bytes, so both bytes of L are used, and together with the key longer
+        // than the encoder's initial buffer
+        byte[] credentialId = new byte[300];
+        Arrays.fill(credentialId, (byte) 0x33);
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+        generator.initialize(new ECGenParameterSpec("secp256r1"));
+        byte[] cosePublicKey = CredentialSafe.coseEncodePublicKey(generator.generateKeyPair().getPublic());
+
+        AuthenticatorDataEncoder encoder = AuthenticatorDataEncoder.forCurrentThread()
+                .encode(rpIdHash, true, 7, credentialId, cosePublicKey, clientDataHash);
+
+        int authenticatorDataLength = 37 + 16 + 2 + credentialId.length + cosePublicKey.length;
+        ByteBuffer expected = ByteBuffer.allocate(authenticatorDataLength + clientDataHash.length);
+        expected.put(rpIdHash);
+        expected.put((byte) (AuthenticatorDataEncoder.FLAG_USER_PRESENT
+                | AuthenticatorDataEncoder.FLAG_USER_VERIFIED
+                | AuthenticatorDataEncoder.FLAG_ATTESTED_CREDENTIAL_DATA));
+        expected.putInt(7);
+        expected.put(new byte[16]); // AAGUID
+        expected.putShort((short) credentialId.length);
+        expected.put(credentialId);
+        expected.put(cosePublicKey);
+        expected.put(clientDataHash);
+
+        assertEquals(authenticatorDataLength, encoder.authenticatorDataLength());
+        assertArrayEquals(expected.array(), Arrays.copyOf(encoder.buffer(), encoder.length()));
+        assertArrayEquals(Arrays.copyOf(expected.array(), authenticatorDataLength), encoder.toAuthenticatorData());
+    }
+}
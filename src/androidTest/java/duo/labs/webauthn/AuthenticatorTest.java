@@ -11,7 +11,10 @@ import org.junit.Test;
 import java.io.ByteArrayInputStream;
 import java.nio.ByteBuffer;
 import java.security.KeyPair;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 import co.nstant.in.cbor.CborDecoder;
 import co.nstant.in.cbor.CborException;
@@ -19,16 +22,23 @@ import co.nstant.in.cbor.model.Map;
 import co.nstant.in.cbor.model.UnicodeString;
 import duo.labs.webauthn.exceptions.ConstraintError;
 import duo.labs.webauthn.exceptions.InvalidStateError;
+import duo.labs.webauthn.exceptions.NotAllowedError;
 import duo.labs.webauthn.models.AttestationObject;
 import duo.labs.webauthn.models.AuthenticatorGetAssertionOptions;
 import duo.labs.webauthn.models.AuthenticatorGetAssertionResult;
 import duo.labs.webauthn.models.AuthenticatorMakeCredentialOptions;
+import duo.labs.webauthn.models.CredentialSelectionItem;
 import duo.labs.webauthn.models.PublicKeyCredentialDescriptor;
 import duo.labs.webauthn.models.PublicKeyCredentialSource;
 import duo.labs.webauthn.exceptions.VirgilException;
 import duo.labs.webauthn.exceptions.WebAuthnException;
+import duo.labs.webauthn.util.AsyncCredentialSelector;
+import duo.labs.webauthn.util.CeremonyObserver;
+import duo.labs.webauthn.util.CredentialItemSelector;
 import duo.labs.webauthn.util.CredentialSafe;
 import duo.labs.webauthn.util.CredentialSelector;
+import duo.labs.webauthn.util.LatencyHistogramObserver;
+import duo.labs.webauthn.util.RememberedCredentials;
 import duo.labs.webauthn.util.WebAuthnCryptography;
 
 import static org.junit.Assert.*;
@@ -135,8 +145,8 @@ public class AuthenticatorTest {
         resultBuf.put(getAssertionResult.authenticatorData);
         resultBuf.put(getAssertionOptions.clientDataHash);
         byte[] signedData = resultBuf.array();
-        List<PublicKeyCredentialSource> sources = this.credentialSafe.getKeysForEntity(makeCredentialOptions.rpEntity.id);
-        PublicKeyCredentialSource source = sources.get(sources.size() - 1);
+        assertArrayEquals(credentialId, getAssertionResult.selectedCredentialId);
+        PublicKeyCredentialSource source = this.credentialSafe.getCredentialSourceById(getAssertionResult.selectedCredentialId);
         KeyPair keyPair = this.credentialSafe.getKeyPairByAlias(source.keyPairAlias);
         assertTrue(this.cryptography.verifySignature(keyPair.getPublic(), signedData, getAssertionResult.signature));
     }
@@ -152,6 +162,8 @@ public class AuthenticatorTest {
         AuthenticatorMakeCredentialOptions makeCredentialOptions = AuthenticatorMakeCredentialOptions.fromJSON(MAKE_CREDENTIAL_JSON);
         makeCredentialOptions.requireUserVerification = true;
         makeCredentialOptions.requireUserPresence = false;
+        LatencyHistogramObserver observer = new LatencyHistogramObserver();
+        authenticator.setCeremonyObserver(observer);
 
         try {
             AttestationObject attObj = authenticator.makeCredential(makeCredentialOptions);
@@ -159,6 +171,10 @@ public class AuthenticatorTest {
         } catch (ConstraintError e) {
             // success! any other exception is a failure
         }
+        // the observer sees the options check fail
+        LatencyHistogramObserver.Histogram optionsCheck = observer.getHistogram(CeremonyObserver.Ceremony.MAKE_CREDENTIAL, CeremonyObserver.Step.OPTIONS_CHECK);
+        assertEquals(1, optionsCheck.getFailureCount());
+        assertEquals(Long.valueOf(1), optionsCheck.getFailureCounts().get("ConstraintError"));
     }
 
     /**
@@ -184,6 +200,75 @@ public class AuthenticatorTest {
         }
     }
 
+    /**
+     * With key generation skipped for excluded requests, an excluded request must still fail with
+     * InvalidStateError and must not leave a new credential behind.
+     * @throws VirgilException
+     * @throws WebAuthnException
+     */
+    @Test
+    public void testExcludeCredentialsWithoutKeyGeneration() throws VirgilException, WebAuthnException {
+        AuthenticatorMakeCredentialOptions makeCredentialOptions = AuthenticatorMakeCredentialOptions.fromJSON(MAKE_CREDENTIAL_JSON);
+        AttestationObject firstAttestationObject = authenticator.makeCredential(makeCredentialOptions);
+        int credentialCount = this.credentialSafe.getKeysForEntity(makeCredentialOptions.rpEntity.id).size();
+
+        authenticator.setSkipKeyGenerationWhenExcluded(true);
+        makeCredentialOptions.excludeCredentialDescriptorList.add(new PublicKeyCredentialDescriptor("public-key", firstAttestationObject.getCredentialId(), null));
+        try {
+            authenticator.makeCredential(makeCredentialOptions);
+            Assert.fail("makeCredential should have failed due to a matching credential ID in the exclude list");
+        } catch (InvalidStateError e) {
+            // good! the matching credential descriptor caused the authenticator to reject the request
+        }
+        assertEquals(credentialCount, this.credentialSafe.getKeysForEntity(makeCredentialOptions.rpEntity.id).size());
+    }
+
+    /**
+     * Ensure every step of both ceremonies is reported to the ceremony observer, including the
+     * exception a failed step ended with.
+     * @throws VirgilException
+     * @throws WebAuthnException
+     */
+    @Test
+    public void testCeremonyObserver() throws VirgilException, WebAuthnException {
+        LatencyHistogramObserver observer = new LatencyHistogramObserver();
+        authenticator.setCeremonyObserver(observer);
+
+        AuthenticatorMakeCredentialOptions makeCredentialOptions = AuthenticatorMakeCredentialOptions.fromJSON(MAKE_CREDENTIAL_JSON);
+        AttestationObject attObj = authenticator.makeCredential(makeCredentialOptions);
+        AuthenticatorGetAssertionOptions getAssertionOptions = AuthenticatorGetAssertionOptions.fromJSON(GET_ASSERTION_JSON);
+        getAssertionOptions.allowCredentialDescriptorList.add(new PublicKeyCredentialDescriptor("public-key", attObj.getCredentialId(), null));
+        authenticator.getAssertion(getAssertionOptions, new CredentialItemSelector() {
+            @Override
+            public CredentialSelectionItem selectFrom(List<CredentialSelectionItem> credentialList) {
+                return credentialList.get(0);
+            }
+        });
+
+        for (CeremonyObserver.Step step : new CeremonyObserver.Step[]{CeremonyObserver.Step.CEREMONY, CeremonyObserver.Step.OPTIONS_CHECK,
+                CeremonyObserver.Step.EXCLUDE_CHECK, CeremonyObserver.Step.KEY_GENERATION, CeremonyObserver.Step.AUTHENTICATOR_DATA, CeremonyObserver.Step.SIGNATURE}) {
+            assertEquals(step.toString(), 1, observer.getHistogram(CeremonyObserver.Ceremony.MAKE_CREDENTIAL, step).getCount());
+        }
+        for (CeremonyObserver.Step step : new CeremonyObserver.Step[]{CeremonyObserver.Step.CEREMONY, CeremonyObserver.Step.OPTIONS_CHECK,
+                CeremonyObserver.Step.CREDENTIAL_LOOKUP, CeremonyObserver.Step.COUNTER_INCREMENT, CeremonyObserver.Step.AUTHENTICATOR_DATA, CeremonyObserver.Step.SIGNATURE}) {
+            assertEquals(step.toString(), 1, observer.getHistogram(CeremonyObserver.Ceremony.GET_ASSERTION, step).getCount());
+        }
+        assertEquals(0, observer.getHistogram(CeremonyObserver.Ceremony.GET_ASSERTION, CeremonyObserver.Step.USER_CONSENT).getCount());
+
+        // an assertion for an unknown RP fails in the credential lookup
+        getAssertionOptions.rpId = "unknown.example";
+        try {
+            authenticator.getAssertion(getAssertionOptions, (CredentialItemSelector) null);
+            Assert.fail("getAssertion should have failed without any credentials");
+        } catch (NotAllowedError e) {
+            // expected
+        }
+        LatencyHistogramObserver.Histogram lookup = observer.getHistogram(CeremonyObserver.Ceremony.GET_ASSERTION, CeremonyObserver.Step.CREDENTIAL_LOOKUP);
+        assertEquals(2, lookup.getCount());
+        assertEquals(1, lookup.getFailureCount());
+        assertEquals(Long.valueOf(1), lookup.getFailureCounts().get("NoCredentialsError"));
+        assertEquals(1, observer.getHistogram(CeremonyObserver.Ceremony.GET_ASSERTION, CeremonyObserver.Step.CEREMONY).getFailureCount());
+    }
 
     /**
      * Make sure that we can pass an empty allowed credentials list.
@@ -204,4 +289,149 @@ public class AuthenticatorTest {
             }
         });
     }
-}
\ No newline at end of file
+
+    /**
+     * Make sure the credential chosen from the selection items is the one used for the assertion.
+     *
+     * @throws VirgilException
+     * @throws WebAuthnException
+     */
+    @Test
+    public void testSelectionLoadsChosenCredential() throws VirgilException, WebAuthnException {
+        credentialSafe.generateCredential("selection.example", new byte[]{1}, "first");
+        final PublicKeyCredentialSource second = credentialSafe.generateCredential("selection.example", new byte[]{2}, "second");
+
+        AuthenticatorGetAssertionOptions getAssertionOptions = AuthenticatorGetAssertionOptions.fromJSON(GET_ASSERTION_JSON);
+        getAssertionOptions.allowCredentialDescriptorList.clear();
+        getAssertionOptions.rpId = "selection.example";
+        AuthenticatorGetAssertionResult result = authenticator.getAssertion(getAssertionOptions, new CredentialItemSelector() {
+            @Override
+            public CredentialSelectionItem selectFrom(List<CredentialSelectionItem> credentialList) {
+                for (CredentialSelectionItem item : credentialList) {
+                    if (Arrays.equals(item.id, second.id)) {
+                        assertEquals("second", item.userDisplayName);
+                        return item;
+                    }
+                }
+                return null;
+            }
+        });
+        assertArrayEquals(second.id, result.selectedCredentialId);
+        assertArrayEquals(second.userHandle, result.selectedCredentialUserHandle);
+    }
+
+    /**
+     * Make sure a CredentialSelector written for full credentials still chooses the credential
+     * used for the assertion.
+     *
+     * @throws VirgilException
+     * @throws WebAuthnException
+     */
+    @Test
+    public void testDeprecatedSelectorChoosesFromFullCredentials() throws VirgilException, WebAuthnException {
+        credentialSafe.generateCredential("legacy-selection.example", new byte[]{1}, "first");
+        final PublicKeyCredentialSource second = credentialSafe.generateCredential("legacy-selection.example", new byte[]{2}, "second");
+
+        AuthenticatorGetAssertionOptions getAssertionOptions = AuthenticatorGetAssertionOptions.fromJSON(GET_ASSERTION_JSON);
+        getAssertionOptions.allowCredentialDescriptorList.clear();
+        getAssertionOptions.rpId = "legacy-selection.example";
+        AuthenticatorGetAssertionResult result = authenticator.getAssertion(getAssertionOptions, new CredentialSelector() {
+            @Override
+            public PublicKeyCredentialSource selectFrom(List<PublicKeyCredentialSource> credentialList) {
+                assertEquals(2, credentialList.size());
+                for (PublicKeyCredentialSource credential : credentialList) {
+                    if (Arrays.equals(credential.userHandle, second.userHandle)) {
+                        return credential;
+                    }
+                }
+                return null;
+            }
+        });
+        assertArrayEquals(second.id, result.selectedCredentialId);
+    }
+
+    /**
+     * Make sure getAssertionAsyncSelecting waits for an AsyncCredentialSelector without blocking, and
+     * picks the credential by identity even when display names are shared.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testAsyncSelection() throws Exception {
+        credentialSafe.generateCredential("async-selection.example", new byte[]{1}, "same name");
+        final PublicKeyCredentialSource second = credentialSafe.generateCredential("async-selection.example", new byte[]{2}, "same name");
+
+        AuthenticatorGetAssertionOptions getAssertionOptions = AuthenticatorGetAssertionOptions.fromJSON(GET_ASSERTION_JSON);
+        getAssertionOptions.allowCredentialDescriptorList.clear();
+        getAssertionOptions.rpId = "async-selection.example";
+        final CompletableFuture<CredentialSelectionItem> selection = new CompletableFuture<>();
+        final List<List<CredentialSelectionItem>> offered = new ArrayList<>();
+        CompletableFuture<AuthenticatorGetAssertionResult> result = authenticator.getAssertionAsyncSelecting(getAssertionOptions, new AsyncCredentialSelector() {
+            @Override
+            public CompletableFuture<CredentialSelectionItem> selectFromAsync(List<CredentialSelectionItem> credentialList) {
+                offered.add(credentialList);
+                return selection;
+            }
+        }, null, null);
+        assertFalse(result.isDone());
+
+        // select from another thread, as a click handler would
+        Thread chooser = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (CredentialSelectionItem item : offered.get(0)) {
+                    if (Arrays.equals(item.id, second.id)) {
+                        selection.complete(item);
+                    }
+                }
+            }
+        });
+        chooser.start();
+        chooser.join();
+        assertArrayEquals(second.userHandle, result.get().selectedCredentialUserHandle);
+    }
+
+    /**
+     * Make sure a remembered credential is used without asking the selector, and that the
+     * selector is asked again once it's forgotten.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testRememberedCredentialSkipsSelection() throws Exception {
+        final PublicKeyCredentialSource first = credentialSafe.generateCredential("remembered.example", new byte[]{1}, "first");
+        // lastUsed has millisecond resolution
+        Thread.sleep(5);
+        credentialSafe.generateCredential("remembered.example", new byte[]{2}, "second");
+
+        AuthenticatorGetAssertionOptions getAssertionOptions = AuthenticatorGetAssertionOptions.fromJSON(GET_ASSERTION_JSON);
+        getAssertionOptions.allowCredentialDescriptorList.clear();
+        getAssertionOptions.rpId = "remembered.example";
+        final int[] selections = {0};
+        CredentialItemSelector selector = new CredentialItemSelector() {
+            @Override
+            public CredentialSelectionItem selectFrom(List<CredentialSelectionItem> credentialList) {
+                selections[0]++;
+                // the newest credential is offered first
+                assertEquals("second", credentialList.get(0).userDisplayName);
+                return credentialList.get(0);
+            }
+        };
+
+        RememberedCredentials remembered = new RememberedCredentials(InstrumentationRegistry.getContext());
+        remembered.remember("remembered.example", first.id);
+        authenticator.setRememberedCredentialPolicy(remembered);
+        try {
+            AuthenticatorGetAssertionResult result = authenticator.getAssertion(getAssertionOptions, selector);
+            assertArrayEquals(first.id, result.selectedCredentialId);
+            assertEquals(0, selections[0]);
+
+            remembered.forget("remembered.example");
+            authenticator.getAssertion(getAssertionOptions, selector);
+            assertEquals(1, selections[0]);
+        } finally {
+            remembered.forget("remembered.example");
+            authenticator.setRememberedCredentialPolicy(null);
+        }
+    }
+}
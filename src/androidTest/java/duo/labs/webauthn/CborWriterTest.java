@@ -0,0 +1,190 @@
+package duo.labs.webauthn;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.math.BigInteger;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PublicKey;
+import java.security.interfaces.ECPublicKey;
+import java.security.spec.ECGenParameterSpec;
+import java.security.spec.ECPoint;
+import java.security.spec.ECPublicKeySpec;
+import java.util.Arrays;
+
+import co.nstant.in.cbor.CborBuilder;
+import co.nstant.in.cbor.CborEncoder;
+import co.nstant.in.cbor.CborException;
+import duo.labs.webauthn.exceptions.VirgilException;
+import duo.labs.webauthn.models.NoneAttestationObject;
+import duo.labs.webauthn.models.PackedSelfAttestationObject;
+import duo.labs.webauthn.util.CborWriter;
+import duo.labs.webauthn.util.CredentialSafe;
+
+import static org.junit.Assert.*;
+
+public class CborWriterTest {
+
+    static byte[] hex(String hex) {
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+        }
+        return bytes;
+    }
+
+    private static byte[] filled(int length, int value) {
+        byte[] bytes = new byte[length];
+        Arrays.fill(bytes, (byte) value);
+        return bytes;
+    }
+
+    /**
+     * Integer encodings from RFC 7049 Appendix A.
+     */
+    @Test
+    public void integerGoldenVectors() {
+        long[] values = {0, 1, 23, 24, 100, 1000, 1000000, 1000000000000L, -1, -10, -100, -1000};
+        String[] expected = {"00", "01", "17", "1818", "1864", "1903e8", "1a000f4240", "1b000000e8d4a51000",
+                "20", "29", "3863", "3903e7"};
+        for (int i = 0; i < values.length; i++) {
+            assertArrayEquals("encoding " + values[i], hex(expected[i]), new CborWriter().writeInteger(values[i]).toByteArray());
+        }
+    }
+
+    /**
+     * String, array, map and simple value encodings from RFC 7049 Appendix A.
+     */
+    @Test
+    public void itemGoldenVectors() {
+        assertArrayEquals(hex("40"), new CborWriter().writeByteString(new byte[0]).toByteArray());
+        assertArrayEquals(hex("4401020304"), new CborWriter().writeByteString(hex("01020304")).toByteArray());
+        assertArrayEquals(hex("60"), new CborWriter().writeTextString("").toByteArray());
+        assertArrayEquals(hex("6449455446"), new CborWriter().writeTextString("IETF").toByteArray());
+        assertArrayEquals(hex("62c3bc"), new CborWriter().writeTextString("\u00fc").toByteArray());
+        assertArrayEquals(hex("80"), new CborWriter().writeArrayHeader(0).toByteArray());
+        assertArrayEquals(hex("a0"), new CborWriter().writeMapHeader(0).toByteArray());
+        assertArrayEquals(hex("f4"), new CborWriter().writeBoolean(false).toByteArray());
+        assertArrayEquals(hex("f5"), new CborWriter().writeBoolean(true).toByteArray());
+    }
+
+    @Test
+    public void coseKeyGoldenVector() throws Exception {
+        // P-256 generator point
+        BigInteger x = new BigInteger("6b17d1f2e12c4247f8bce6e563a440f277037d812deb33a0f4a13945d898c296", 16);
+        BigInteger y = new BigInteger("4fe342e2fe1a7f9b8ee7eb4a7c0f9e162bce33576b315ececbb6406837bf51f5", 16);
+        byte[] expected = hex("a5010203262001215820"
+                + "6b17d1f2e12c4247f8bce6e563a440f277037d812deb33a0f4a13945d898c296"
+                + "225820"
+                + "4fe342e2fe1a7f9b8ee7eb4a7c0f9e162bce33576b315ececbb6406837bf51f5");
+
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+        generator.initialize(new ECGenParameterSpec("secp256r1"));
+        ECPublicKey template = (ECPublicKey) generator.generateKeyPair().getPublic();
+        PublicKey publicKey = KeyFactory.getInstance("EC").generatePublic(
+                new ECPublicKeySpec(new ECPoint(x, y), template.getParams()));
+
+        assertArrayEquals(expected, CredentialSafe.coseEncodePublicKey(publicKey));
+    }
+
+    @Test
+    public void noneAttestationGoldenVector() throws VirgilException {
+        byte[] authData = filled(37, 0xab);
+        byte[] expected = hex("a3"
+                + "63666d74" + "646e6f6e65"              // "fmt": "none"
+                + "6761747453746d74" + "a0"              // "attStmt": {}
+                + "68617574684461746158" + "25"          // "authData": h'...'
+                + repeat("ab", 37));
+        assertArrayEquals(expected, new NoneAttestationObject(authData).asCBOR());
+    }
+
+    @Test
+    public void packedAttestationGoldenVector() throws VirgilException {
+        byte[] authData = filled(37, 0xab);
+        byte[] signature = filled(70, 0xcd);
+        byte[] expected = hex("a3"
+                + "63666d74" + "667061636b6564"           // "fmt": "packed"
+                + "6761747453746d74" + "a2"               // "attStmt": {
+                + "63616c67" + "26"                       //   "alg": -7,
+                + "63736967" + "5846" + repeat("cd", 70)  //   "sig": h'...' }
+                + "68617574684461746158" + "25"           // "authData": h'...'
+                + repeat("ab", 37));
+        assertArrayEquals(expected, new PackedSelfAttestationObject(authData, signature).asCBOR());
+    }
+
+    /**
+     * The writer must produce the same bytes as the general-purpose library it replaces.
+     */
+    @Test
+    public void matchesLibraryEncoding() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+        generator.initialize(new ECGenParameterSpec("secp256r1"));
+        for (int i = 0; i < 32; i++) {
+            KeyPair keyPair = generator.generateKeyPair();
+            byte[] authData = filled(141 + i, i);
+            byte[] signature = filled(70 + (i % 3), 0xff - i);
+            ECPublicKey ecPublicKey = (ECPublicKey) keyPair.getPublic();
+
+            ByteArrayOutputStream cose = new ByteArrayOutputStream();
+            new CborEncoder(cose).encode(new CborBuilder()
+                    .addMap()
+                    .put(1, 2)
+                    .put(3, -7)
+                    .put(-1, 1)
+                    .put(-2, unsigned32(ecPublicKey.getW().getAffineX()))
+                    .put(-3, unsigned32(ecPublicKey.getW().getAffineY()))
+                    .end()
+                    .build());
+            assertArrayEquals(cose.toByteArray(), CredentialSafe.coseEncodePublicKey(keyPair.getPublic()));
+
+            assertArrayEquals(libraryNone(authData), new NoneAttestationObject(authData).asCBOR());
+            assertArrayEquals(libraryPacked(authData, signature), new PackedSelfAttestationObject(authData, signature).asCBOR());
+        }
+    }
+
+    static byte[] libraryNone(byte[] authData) throws CborException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        new CborEncoder(baos).encode(new CborBuilder()
+                .addMap()
+                .put("authData", authData)
+                .put("fmt", "none")
+                .putMap("attStmt")
+                .end()
+                .end()
+                .build());
+        return baos.toByteArray();
+    }
+
+    static byte[] libraryPacked(byte[] authData, byte[] signature) throws CborException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        new CborEncoder(baos).encode(new CborBuilder()
+                .addMap()
+                .put("authData", authData)
+                .put("fmt", "packed")
+                .putMap("attStmt")
+                .put("alg", (long) -7)
+                .put("sig", signature)
+                .end()
+                .end()
+                .build());
+        return baos.toByteArray();
+    }
+
+    static byte[] unsigned32(BigInteger value) {
+        byte[] bytes = value.toByteArray();
+        byte[] fixed = new byte[32];
+        int length = Math.min(bytes.length, 32);
+        System.arraycopy(bytes, bytes.length - length, fixed, 32 - length, length);
+        return fixed;
+    }
+
+    private static String repeat(String hex, int count) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            builder.append(hex);
+        }
+        return builder.toString();
+    }
+}
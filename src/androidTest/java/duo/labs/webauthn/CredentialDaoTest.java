@@ -0,0 +1,212 @@
+package duo.labs.webauthn;
+
+import android.arch.paging.PagedList;
+import android.arch.persistence.room.InvalidationTracker;
+import android.arch.persistence.room.Room;
+import android.support.test.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import duo.labs.webauthn.models.CredentialListItem;
+import duo.labs.webauthn.models.CredentialSelectionItem;
+import duo.labs.webauthn.models.PublicKeyCredentialSource;
+import duo.labs.webauthn.util.database.CredentialDao;
+import duo.labs.webauthn.util.database.CredentialDatabase;
+
+import static org.junit.Assert.*;
+
+public class CredentialDaoTest {
+    // run paging work on the test thread, so loads have finished when the calls return
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private CredentialDatabase db;
+    private CredentialDao dao;
+
+    @Before
+    public void setUp() {
+        this.db = Room.inMemoryDatabaseBuilder(InstrumentationRegistry.getContext(), CredentialDatabase.class)
+                .allowMainThreadQueries()
+                .build();
+        this.dao = db.credentialDao();
+    }
+
+    @After
+    public void tearDown() {
+        this.db.close();
+    }
+
+    @Test
+    public void pagedListIsOrderedByRpAndDisplayName() {
+        String[] rpIds = {"c.example", "a.example", "b.example"};
+        List<String> expected = new ArrayList<>();
+        Random random = new Random(0);
+        List<PublicKeyCredentialSource> credentials = new ArrayList<>();
+        for (String rpId : rpIds) {
+            for (int i = 0; i < 40; i++) {
+                String name = String.format("user%02d", i);
+                credentials.add(new PublicKeyCredentialSource(rpId, new byte[]{(byte) i}, name));
+            }
+        }
+        Collections.shuffle(credentials, random);
+        for (PublicKeyCredentialSource credential : credentials) {
+            dao.insert(credential);
+            expected.add(credential.rpId + " " + credential.userDisplayName);
+        }
+        Collections.sort(expected);
+
+        PagedList.Config config = new PagedList.Config.Builder()
+                .setPageSize(20)
+                .setEnablePlaceholders(true)
+                .build();
+        PagedList<CredentialListItem> list = new PagedList.Builder<>(dao.getListItemsPaged().create(), config)
+                .setFetchExecutor(DIRECT)
+                .setNotifyExecutor(DIRECT)
+                .build();
+        assertEquals(expected.size(), list.size());
+        // only the first pages are loaded up front; the rest are placeholders until scrolled to
+        assertNull(list.get(list.size() - 1));
+
+        for (int i = 0; i < list.size(); i++) {
+            list.loadAround(i);
+            CredentialListItem item = list.get(i);
+            assertNotNull(item);
+            assertEquals(expected.get(i), item.rpId + " " + item.userDisplayName);
+        }
+    }
+
+    @Test
+    public void deleteByUid() {
+        PublicKeyCredentialSource kept = new PublicKeyCredentialSource("a.example", null, "kept");
+        PublicKeyCredentialSource deleted = new PublicKeyCredentialSource("a.example", null, "deleted");
+        dao.insert(kept);
+        dao.insert(deleted);
+        deleted = dao.getById(deleted.id);
+
+        dao.deleteByUid(deleted.roomUid);
+        assertNull(dao.getById(deleted.id));
+        assertNotNull(dao.getById(kept.id));
+    }
+
+    @Test
+    public void counterAndDeleteUseTheirOwnRows() {
+        PublicKeyCredentialSource credential = new PublicKeyCredentialSource("a.example", null, "user");
+        long before = System.currentTimeMillis();
+        dao.insert(credential);
+        assertTrue(credential.roomUid > 0);
+        assertEquals(1, dao.getUseCounter(credential.roomUid));
+        // creation counts as a use
+        assertTrue(dao.getLastUsed(credential.roomUid) >= before);
+
+        before = System.currentTimeMillis();
+        assertEquals(2, dao.incrementUseCounter(credential));
+        assertEquals(2, dao.getUseCounter(credential.roomUid));
+        assertTrue(dao.getLastUsed(credential.roomUid) >= before);
+
+        dao.delete(credential);
+        assertNull(dao.getById(credential.id));
+        assertEquals(0, dao.getUseCounter(credential.roomUid));
+    }
+
+    @Test
+    public void credentialsForAnRpAreMostRecentlyUsedFirst() throws Exception {
+        PublicKeyCredentialSource first = new PublicKeyCredentialSource("a.example", null, "first");
+        PublicKeyCredentialSource second = new PublicKeyCredentialSource("a.example", null, "second");
+        PublicKeyCredentialSource third = new PublicKeyCredentialSource("a.example", null, "third");
+        dao.insert(new PublicKeyCredentialSource("b.example", null, "other"));
+        // lastUsed has millisecond resolution
+        for (PublicKeyCredentialSource credential : new PublicKeyCredentialSource[]{first, second, third}) {
+            dao.insert(credential);
+            Thread.sleep(5);
+        }
+        dao.incrementUseCounter(first);
+
+        List<String> expected = Arrays.asList("first", "third", "second");
+        List<String> names = new ArrayList<>();
+        for (CredentialSelectionItem item : dao.getSelectionItemsByRpId("a.example")) {
+            names.add(item.userDisplayName);
+        }
+        assertEquals(expected, names);
+
+        names.clear();
+        for (PublicKeyCredentialSource credential : dao.getAllByRpId("a.example")) {
+            names.add(credential.userDisplayName);
+        }
+        assertEquals(expected, names);
+
+        names.clear();
+        for (CredentialSelectionItem item : dao.getSelectionItemsByRpIdAndIds("a.example", Arrays.asList(second.id, first.id))) {
+            names.add(item.userDisplayName);
+        }
+        assertEquals(Arrays.asList("first", "second"), names);
+    }
+
+    @Test
+    public void counterUpdatesDontNotifyMetadataObservers() throws Exception {
+        // Each notification lists the tables that changed. "credentials" is what getAllLive and
+        // the paged list re-query on; the counters table is watched too, so we know when the
+        // notifications for the increments have been delivered.
+        final BlockingQueue<Set<String>> notifications = new LinkedBlockingQueue<>();
+        InvalidationTracker.Observer observer = new InvalidationTracker.Observer("credentials", "credential_counters") {
+            @Override
+            public void onInvalidated(Set<String> tables) {
+                notifications.add(new HashSet<>(tables));
+            }
+        };
+        db.getInvalidationTracker().addObserver(observer);
+        try {
+            PublicKeyCredentialSource credential = new PublicKeyCredentialSource("a.example", null, "user");
+            dao.insert(credential);
+            assertEquals(1, awaitNotification(notifications, "credentials"));
+
+            for (int i = 0; i < 20; i++) {
+                dao.incrementUseCounter(credential);
+            }
+            assertEquals(0, awaitNotification(notifications, "credential_counters"));
+
+            credential.userDisplayName = "renamed";
+            dao.update(credential);
+            assertEquals(1, awaitNotification(notifications, "credentials"));
+        } finally {
+            db.getInvalidationTracker().removeObserver(observer);
+        }
+    }
+
+    /**
+     * Wait for a notification that includes the given table.
+     *
+     * @return How many of the notifications received meanwhile, including that one, included
+     * the credentials table
+     */
+    private static int awaitNotification(BlockingQueue<Set<String>> notifications, String table) throws InterruptedException {
+        int metadataEmissions = 0;
+        while (true) {
+            Set<String> tables = notifications.poll(5, TimeUnit.SECONDS);
+            assertNotNull("no notification for " + table, tables);
+            if (tables.contains("credentials")) {
+                metadataEmissions++;
+            }
+            if (tables.contains(table)) {
+                return metadataEmissions;
+            }
+        }
+    }
+}
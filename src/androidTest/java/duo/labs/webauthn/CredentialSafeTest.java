@@ -1,16 +1,30 @@
 package duo.labs.webauthn;
 
+import android.arch.persistence.room.Room;
 import android.content.Context;
+import android.os.Looper;
+import android.support.annotation.NonNull;
 import android.support.test.InstrumentationRegistry;
 
 import org.junit.Before;
 import org.junit.Test;
 
 import java.security.KeyPair;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
 
 import duo.labs.webauthn.exceptions.VirgilException;
 import duo.labs.webauthn.models.PublicKeyCredentialSource;
 import duo.labs.webauthn.util.CredentialSafe;
+import duo.labs.webauthn.util.KeyPairPool;
+import duo.labs.webauthn.util.SoftwareKeyBackend;
+import duo.labs.webauthn.util.database.CredentialDatabase;
 
 import static org.junit.Assert.*;
 
@@ -37,4 +51,262 @@ public class CredentialSafeTest {
         assertTrue(keyPair.getPrivate() != null);
         assertTrue(keyPair.getPublic() != null);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void cosePublicKeyStoredAtCreation() throws VirgilException {
+        PublicKeyCredentialSource cs = this.credentialSafe.generateCredential("myentity", null, "myname");
+        KeyPair keyPair = this.credentialSafe.getKeyPairByAlias(cs.keyPairAlias);
+        byte[] expected = CredentialSafe.coseEncodePublicKey(keyPair.getPublic());
+
+        assertArrayEquals(expected, cs.cosePublicKey);
+        PublicKeyCredentialSource stored = this.credentialSafe.getCredentialSourceById(cs.id);
+        assertArrayEquals(expected, this.credentialSafe.getCosePublicKey(stored));
+    }
+
+    @Test
+    public void keyPropertiesStoredAtCreation() throws VirgilException {
+        PublicKeyCredentialSource cs = this.credentialSafe.generateCredential("myentity", null, "myname");
+        PublicKeyCredentialSource stored = this.credentialSafe.getCredentialSourceById(cs.id);
+        assertEquals(Boolean.TRUE, stored.userVerificationRequired);
+        assertEquals(Boolean.FALSE, stored.strongBoxBacked);
+        assertEquals("secp256r1", stored.keyCurve);
+        assertEquals(-7, stored.keyAlgorithm);
+        assertTrue(this.credentialSafe.keyRequiresVerification(stored));
+    }
+
+    @Test
+    public void userVerificationRequiredBackfilledOnce() throws VirgilException {
+        PublicKeyCredentialSource cs = this.credentialSafe.generateCredential("myentity", null, "myname");
+        // simulate a credential created before the flag was recorded
+        cs.userVerificationRequired = null;
+        CredentialDatabase.getDatabase(InstrumentationRegistry.getContext()).credentialDao().update(cs);
+
+        PublicKeyCredentialSource legacy = this.credentialSafe.getCredentialSourceById(cs.id);
+        assertNull(legacy.userVerificationRequired);
+        assertTrue(this.credentialSafe.keyRequiresVerification(legacy));
+        assertEquals(Boolean.TRUE, this.credentialSafe.getCredentialSourceById(cs.id).userVerificationRequired);
+    }
+
+    @Test
+    public void keyCache() throws VirgilException {
+        PublicKeyCredentialSource cs = this.credentialSafe.generateCredential("myentity", null, "myname");
+        this.credentialSafe.clearKeyCache();
+        long hits = this.credentialSafe.getKeyCacheHitCount();
+        long misses = this.credentialSafe.getKeyCacheMissCount();
+
+        KeyPair first = this.credentialSafe.getKeyPairByAlias(cs.keyPairAlias);
+        KeyPair second = this.credentialSafe.getKeyPairByAlias(cs.keyPairAlias);
+        assertSame(first.getPrivate(), second.getPrivate());
+        assertEquals(misses + 1, this.credentialSafe.getKeyCacheMissCount());
+        assertEquals(hits + 1, this.credentialSafe.getKeyCacheHitCount());
+
+        // each check is one more lookup of the cached key
+        boolean requiresVerification = this.credentialSafe.keyRequiresVerification(cs.keyPairAlias);
+        assertEquals(requiresVerification, this.credentialSafe.keyRequiresVerification(cs.keyPairAlias));
+        assertEquals(misses + 1, this.credentialSafe.getKeyCacheMissCount());
+        assertEquals(hits + 3, this.credentialSafe.getKeyCacheHitCount());
+
+        this.credentialSafe.deleteCredential(cs);
+        try {
+            this.credentialSafe.getKeyPairByAlias(cs.keyPairAlias);
+            fail("deleted key should not be served from the cache");
+        } catch (VirgilException | RuntimeException e) {
+            // expected: the key is gone from both the cache and the key store
+        }
+    }
+
+    @Test
+    public void getKeysForEntityWithAllowList() throws VirgilException {
+        PublicKeyCredentialSource allowed = this.credentialSafe.generateCredential("allowlist-entity", null, "allowed");
+        this.credentialSafe.generateCredential("allowlist-entity", null, "not-allowed");
+        PublicKeyCredentialSource otherRp = this.credentialSafe.generateCredential("other-entity", null, "other");
+
+        // enough unknown IDs to need more than one query, with the real ones near the end
+        Random random = new Random(0);
+        List<byte[]> ids = new ArrayList<>();
+        for (int i = 0; i < 2500; i++) {
+            byte[] id = new byte[32];
+            random.nextBytes(id);
+            ids.add(id);
+        }
+        ids.add(allowed.id);
+        ids.add(allowed.id.clone());
+        ids.add(otherRp.id);
+
+        List<PublicKeyCredentialSource> credentials = this.credentialSafe.getKeysForEntity("allowlist-entity", ids);
+        assertEquals(1, credentials.size());
+        assertArrayEquals(allowed.id, credentials.get(0).id);
+    }
+
+    @Test
+    public void incrementCredentialUseCounterConcurrently() throws Exception {
+        final PublicKeyCredentialSource cs = this.credentialSafe.generateCredential("myentity", null, "myname");
+        final int threads = 8;
+        final int incrementsPerThread = 50;
+        final int initialCounter = cs.keyUseCounter;
+
+        final List<List<Integer>> observed = new ArrayList<>();
+        List<Thread> workers = new ArrayList<>();
+        final CountDownLatch start = new CountDownLatch(1);
+        for (int t = 0; t < threads; t++) {
+            final List<Integer> values = new ArrayList<>();
+            observed.add(values);
+            Thread worker = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 0; i < incrementsPerThread; i++) {
+                        // each thread uses its own copy of the row, as concurrent assertions would
+                        PublicKeyCredentialSource copy = credentialSafe.getCredentialSourceById(cs.id);
+                        values.add(credentialSafe.incrementCredentialUseCounter(copy));
+                    }
+                }
+            });
+            workers.add(worker);
+            worker.start();
+        }
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+
+        Set<Integer> seen = new HashSet<>();
+        for (List<Integer> values : observed) {
+            assertEquals(incrementsPerThread, values.size());
+            for (int i = 0; i < values.size(); i++) {
+                assertTrue("counter must never repeat", seen.add(values.get(i)));
+                if (i > 0) {
+                    assertTrue("counter must increase", values.get(i) > values.get(i - 1));
+                }
+            }
+        }
+        int expectedFinal = initialCounter + threads * incrementsPerThread;
+        assertEquals(expectedFinal, Collections.max(seen).intValue());
+        assertEquals(expectedFinal, CredentialDatabase.getDatabase(InstrumentationRegistry.getContext()).credentialDao().getUseCounter(cs.roomUid));
+    }
+
+    @Test
+    public void asyncVariants() throws Exception {
+        PublicKeyCredentialSource cs = this.credentialSafe.generateCredentialAsync("async-entity", null, "myname").get();
+        assertEquals("async-entity", cs.rpId);
+
+        PublicKeyCredentialSource stored = this.credentialSafe.getCredentialSourceByIdAsync(cs.id).get();
+        assertArrayEquals(cs.id, stored.id);
+        assertEquals(1, this.credentialSafe.getKeysForEntityAsync("async-entity").get().size());
+        assertEquals(1, this.credentialSafe.getKeysForEntityAsync("async-entity", Collections.singletonList(cs.id)).get().size());
+        assertEquals(cs.keyUseCounter + 1, this.credentialSafe.incrementCredentialUseCounterAsync(stored).get().intValue());
+    }
+
+    @Test
+    public void asyncVariantsFromMainThread() throws Exception {
+        final PublicKeyCredentialSource cs = this.credentialSafe.generateCredential("myentity", null, "myname");
+        final List<CompletableFuture<PublicKeyCredentialSource>> lookup = new ArrayList<>();
+        final List<Boolean> ranOnMainThread = new ArrayList<>();
+        final CountDownLatch ran = new CountDownLatch(1);
+        // the database refuses queries on the main thread, so these must not run there
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                lookup.add(credentialSafe.getCredentialSourceByIdAsync(cs.id));
+                credentialSafe.runOffMainThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        ranOnMainThread.add(Looper.getMainLooper().isCurrentThread());
+                        ran.countDown();
+                    }
+                });
+            }
+        });
+
+        assertArrayEquals(cs.id, lookup.get(0).get().id);
+        ran.await();
+        assertEquals(Collections.singletonList(false), ranOnMainThread);
+    }
+
+    @Test
+    public void warmUpPrefetchesRecentlyUsedRps() throws Exception {
+        CredentialDatabase db = Room.inMemoryDatabaseBuilder(InstrumentationRegistry.getContext(), CredentialDatabase.class).build();
+        try {
+            SoftwareKeyBackend keyBackend = new SoftwareKeyBackend();
+            CredentialSafe writer = new CredentialSafe(db, keyBackend, false);
+            for (String rpId : new String[]{"a.example", "b.example", "c.example"}) {
+                writer.generateCredential(rpId, null, "user");
+                // lastUsed has millisecond resolution
+                Thread.sleep(5);
+            }
+
+            CredentialSafe safe = new CredentialSafe(db, keyBackend, false);
+            CredentialSafe.StartupTimings timings = safe.warmUp(2).get();
+            assertEquals(2, timings.prefetchedRpCount);
+            assertTrue(timings.getTotalNanos() > 0);
+            // warm-up only runs once
+            assertSame(safe.whenReady(), safe.warmUp(3));
+
+            // the keys of the two most recently used RPs are cached
+            assertEquals(2, safe.getKeyCacheMissCount());
+            safe.getKeyPairByAlias(safe.getKeysForEntity("c.example").get(0).keyPairAlias);
+            safe.getKeyPairByAlias(safe.getKeysForEntity("b.example").get(0).keyPairAlias);
+            assertEquals(2, safe.getKeyCacheHitCount());
+            safe.getKeyPairByAlias(safe.getKeysForEntity("a.example").get(0).keyPairAlias);
+            assertEquals(3, safe.getKeyCacheMissCount());
+        } finally {
+            db.close();
+        }
+    }
+
+    @Test
+    public void warmUpBackfillsKeyPropertiesOfOlderCredentials() throws Exception {
+        CredentialDatabase db = Room.inMemoryDatabaseBuilder(InstrumentationRegistry.getContext(), CredentialDatabase.class).build();
+        try {
+            SoftwareKeyBackend keyBackend = new SoftwareKeyBackend();
+            CredentialSafe writer = new CredentialSafe(db, keyBackend, false);
+            PublicKeyCredentialSource cs = writer.generateCredential("myentity", null, "myname");
+            // as a credential migrated from before version 6 would be
+            PublicKeyCredentialSource stored = db.credentialDao().getById(cs.id);
+            stored.userVerificationRequired = null;
+            stored.strongBoxBacked = null;
+            db.credentialDao().update(stored);
+
+            CredentialSafe safe = new CredentialSafe(db, keyBackend, false);
+            CredentialSafe.StartupTimings timings = safe.warmUp(0).get();
+            assertEquals(1, timings.backfilledCount);
+            stored = db.credentialDao().getById(cs.id);
+            assertEquals(Boolean.FALSE, stored.userVerificationRequired);
+            assertNull(stored.strongBoxBacked);
+            assertTrue(db.credentialDao().getAllWithoutUserVerificationRequired().isEmpty());
+        } finally {
+            db.close();
+        }
+    }
+
+    @Test
+    public void unusablePooledKeyIsDeleted() throws Exception {
+        final String broken = KeyPairPool.ALIAS_PREFIX + "broken";
+        SoftwareKeyBackend keyBackend = new SoftwareKeyBackend() {
+            @Override
+            public KeyPair load(@NonNull String alias) throws VirgilException {
+                if (alias.equals(broken)) {
+                    throw new VirgilException("couldn't get key by alias");
+                }
+                return super.load(alias);
+            }
+        };
+        keyBackend.generate(broken);
+        CredentialDatabase db = Room.inMemoryDatabaseBuilder(InstrumentationRegistry.getContext(), CredentialDatabase.class).build();
+        try {
+            CredentialSafe safe = new CredentialSafe(db, keyBackend, false);
+            safe.enableKeyPairPool(1, KeyPairPool.RefillPolicy.MANUAL);
+
+            PublicKeyCredentialSource cs = safe.generateCredential("myentity", null, "myname");
+            assertFalse(broken.equals(cs.keyPairAlias));
+            assertFalse(keyBackend.aliases().contains(broken));
+            safe.disableKeyPairPool().get();
+        } finally {
+            db.close();
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package duo.labs.webauthn;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import duo.labs.webauthn.models.CredentialSelectionItem;
+import duo.labs.webauthn.util.CredentialSearchIndex;
+
+import static org.junit.Assert.*;
+
+public class CredentialSearchIndexTest {
+    private static List<CredentialSelectionItem> items(String... names) {
+        List<CredentialSelectionItem> items = new ArrayList<>();
+        for (int i = 0; i < names.length; i++) {
+            CredentialSelectionItem item = new CredentialSelectionItem();
+            item.roomUid = i + 1;
+            item.userDisplayName = names[i];
+            items.add(item);
+        }
+        return items;
+    }
+
+    private static List<Integer> uids(List<CredentialSelectionItem> items) {
+        List<Integer> uids = new ArrayList<>();
+        for (CredentialSelectionItem item : items) {
+            uids.add(item.roomUid);
+        }
+        return uids;
+    }
+
+    @Test
+    public void matchesNameAndWordPrefixes() {
+        CredentialSearchIndex index = new CredentialSearchIndex(items("Alice Smith", "bob", "Smithers", "alice jones", null));
+        // results are in order of the matching name
+        assertEquals(Arrays.asList(4, 1), uids(index.search("ali", 10)));
+        assertEquals(Arrays.asList(4, 1), uids(index.search("  ALICE", 10)));
+        // "Smith" matches the second word of one name and the start of another
+        assertEquals(Arrays.asList(1, 3), uids(index.search("smith", 10)));
+        assertEquals(Arrays.asList(1), uids(index.search("alice s", 10)));
+        assertEquals(Arrays.asList(), uids(index.search("carol", 10)));
+        assertEquals(Arrays.asList(), uids(index.search("zzz", 10)));
+    }
+
+    @Test
+    public void matchesEachCredentialOnce() {
+        // both words start with "an", and the names are the same
+        CredentialSearchIndex index = new CredentialSearchIndex(items("Anna Andrews", "Anna Andrews"));
+        assertEquals(Arrays.asList(1, 2), uids(index.search("an", 10)));
+    }
+
+    @Test
+    public void limitsResults() {
+        CredentialSearchIndex index = new CredentialSearchIndex(items("a1", "a2", "a3", "b"));
+        assertEquals(2, index.search("a", 2).size());
+        assertEquals(Arrays.asList(1, 2, 3), uids(index.search("", 3)));
+        assertEquals(4, index.size());
+    }
+}
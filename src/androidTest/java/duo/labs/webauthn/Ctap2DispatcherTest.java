@@ -0,0 +1,234 @@
+package duo.labs.webauthn;
+
+import android.arch.persistence.room.Room;
+import android.support.test.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.security.KeyPair;
+import java.util.Arrays;
+import java.util.List;
+
+import duo.labs.webauthn.models.CredentialSelectionItem;
+import duo.labs.webauthn.models.PublicKeyCredentialSource;
+import duo.labs.webauthn.util.CborWriter;
+import duo.labs.webauthn.util.CredentialItemSelector;
+import duo.labs.webauthn.util.CredentialSafe;
+import duo.labs.webauthn.util.SoftwareKeyBackend;
+import duo.labs.webauthn.util.WebAuthnCryptography;
+import duo.labs.webauthn.util.database.CredentialDatabase;
+
+import static org.junit.Assert.*;
+
+/**
+ * Byte-for-byte checks of the CTAP2 requests and responses handled by Ctap2Dispatcher, against an
+ * in-memory database and software keys.
+ */
+public class Ctap2DispatcherTest {
+    public static final String RP_ID = "webauthn.io";
+    public static final byte[] CLIENT_DATA_HASH = fill(32, 0x2C);
+    public static final byte[] USER_ID = fill(10, 0x55);
+    private static final long ES256 = -7;
+    private static final long RS256 = -257;
+
+    private CredentialDatabase db;
+    private CredentialSafe credentialSafe;
+    private Ctap2Dispatcher dispatcher;
+
+    @Before
+    public void setUp() {
+        this.db = Room.inMemoryDatabaseBuilder(InstrumentationRegistry.getContext(), CredentialDatabase.class)
+                .allowMainThreadQueries()
+                .build();
+        this.credentialSafe = new CredentialSafe(db, new SoftwareKeyBackend(), false);
+        this.dispatcher = new Ctap2Dispatcher(new Authenticator(credentialSafe), new CredentialItemSelector() {
+            @Override
+            public CredentialSelectionItem selectFrom(List<CredentialSelectionItem> credentialList) {
+                return credentialList.get(0);
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        this.db.close();
+    }
+
+    private static byte[] fill(int length, int value) {
+        byte[] bytes = new byte[length];
+        Arrays.fill(bytes, (byte) value);
+        return bytes;
+    }
+
+    private static byte[] hex(String hex) {
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+        }
+        return bytes;
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] part : parts) {
+            out.write(part, 0, part.length);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * @param clientDataHash The clientDataHash parameter
+     * @param alg            The single algorithm offered in pubKeyCredParams
+     * @param excludeId      A credential ID to put in the excludeList, or null
+     * @return an authenticatorMakeCredential request
+     */
+    public static byte[] makeCredentialRequest(byte[] clientDataHash, long alg, byte[] excludeId) {
+        CborWriter writer = new CborWriter()
+                .writeRaw(new byte[]{Ctap2Dispatcher.CMD_MAKE_CREDENTIAL})
+                .writeMapHeader(excludeId == null ? 4 : 5)
+                .writeInteger(1).writeByteString(clientDataHash)
+                .writeInteger(2).writeMapHeader(2)
+                .writeTextString("id").writeTextString(RP_ID)
+                .writeTextString("name").writeTextString(RP_ID)
+                .writeInteger(3).writeMapHeader(3)
+                .writeTextString("id").writeByteString(USER_ID)
+                .writeTextString("name").writeTextString("testuser")
+                .writeTextString("displayName").writeTextString("Test User")
+                .writeInteger(4).writeArrayHeader(1).writeMapHeader(2)
+                .writeTextString("alg").writeInteger(alg)
+                .writeTextString("type").writeTextString("public-key");
+        if (excludeId != null) {
+            writer.writeInteger(5).writeArrayHeader(1).writeMapHeader(2)
+                    .writeTextString("id").writeByteString(excludeId)
+                    .writeTextString("type").writeTextString("public-key");
+        }
+        return writer.toByteArray();
+    }
+
+    /**
+     * @param rpId    The rpId parameter
+     * @param allowId A credential ID to put in the allowList, or null
+     * @return an authenticatorGetAssertion request
+     */
+    public static byte[] getAssertionRequest(String rpId, byte[] allowId) {
+        CborWriter writer = new CborWriter()
+                .writeRaw(new byte[]{Ctap2Dispatcher.CMD_GET_ASSERTION})
+                .writeMapHeader(allowId == null ? 2 : 3)
+                .writeInteger(1).writeTextString(rpId)
+                .writeInteger(2).writeByteString(CLIENT_DATA_HASH);
+        if (allowId != null) {
+            writer.writeInteger(3).writeArrayHeader(1).writeMapHeader(2)
+                    .writeTextString("id").writeByteString(allowId)
+                    .writeTextString("type").writeTextString("public-key");
+        }
+        return writer.toByteArray();
+    }
+
+    /**
+     * @return the credential ID in a successful makeCredential response
+     */
+    private static byte[] credentialId(byte[] response) {
+        // status, map, 0x01 "none", 0x02 and the authData header take 11 bytes; the credential ID
+        // starts at offset 55 of authData
+        return Arrays.copyOfRange(response, 11 + 55, 11 + 55 + 32);
+    }
+
+    @Test
+    public void getInfo() {
+        byte[] expected = hex("00" + "a3"
+                + "01" + "81" + "68" + "4649444f5f325f30"
+                + "03" + "50" + "00000000000000000000000000000000"
+                + "04" + "a3" + "62726b" + "f5" + "627570" + "f5" + "64706c6174" + "f4");
+        assertArrayEquals(expected, dispatcher.process(new byte[]{Ctap2Dispatcher.CMD_GET_INFO}));
+    }
+
+    @Test
+    public void malformedRequests() {
+        assertArrayEquals(new byte[]{Ctap2Dispatcher.CTAP1_ERR_INVALID_LENGTH}, dispatcher.process(new byte[0]));
+        assertArrayEquals(new byte[]{Ctap2Dispatcher.CTAP1_ERR_INVALID_COMMAND}, dispatcher.process(hex("03")));
+        // a byte string that is shorter than its header says
+        assertArrayEquals(new byte[]{Ctap2Dispatcher.CTAP2_ERR_INVALID_CBOR}, dispatcher.process(hex("01582000")));
+        // parameters must be a map
+        assertArrayEquals(new byte[]{Ctap2Dispatcher.CTAP2_ERR_CBOR_UNEXPECTED_TYPE}, dispatcher.process(hex("0180")));
+        assertArrayEquals(new byte[]{Ctap2Dispatcher.CTAP2_ERR_MISSING_PARAMETER}, dispatcher.process(hex("01a0")));
+        assertArrayEquals(new byte[]{Ctap2Dispatcher.CTAP1_ERR_INVALID_PARAMETER},
+                dispatcher.process(makeCredentialRequest(new byte[16], ES256, null)));
+        // an empty pinAuth asks whether a PIN is set
+        assertArrayEquals(new byte[]{Ctap2Dispatcher.CTAP2_ERR_PIN_NOT_SET}, dispatcher.process(hex("02a10640")));
+    }
+
+    @Test
+    public void makeCredential() throws Exception {
+        byte[] response = dispatcher.process(makeCredentialRequest(CLIENT_DATA_HASH, ES256, null));
+        assertEquals(Ctap2Dispatcher.CTAP2_OK, response[0]);
+
+        byte[] credentialId = credentialId(response);
+        PublicKeyCredentialSource credential = credentialSafe.getCredentialSourceById(credentialId);
+        assertNotNull(credential);
+        assertArrayEquals(USER_ID, credential.userHandle);
+
+        byte[] authData = concat(
+                WebAuthnCryptography.sha256(RP_ID),
+                hex("41"),          // flags: UP | AT
+                hex("00000000"),    // signCount
+                new byte[16],       // AAGUID
+                hex("0020"),
+                credentialId,
+                credential.cosePublicKey);
+        byte[] expected = concat(hex("00" + "a3" + "01" + "646e6f6e65" + "02" + "588d"), authData, hex("03" + "a0"));
+        assertArrayEquals(expected, response);
+    }
+
+    @Test
+    public void makeCredentialErrors() {
+        assertArrayEquals(new byte[]{Ctap2Dispatcher.CTAP2_ERR_UNSUPPORTED_ALGORITHM},
+                dispatcher.process(makeCredentialRequest(CLIENT_DATA_HASH, RS256, null)));
+
+        byte[] credentialId = credentialId(dispatcher.process(makeCredentialRequest(CLIENT_DATA_HASH, ES256, null)));
+        assertArrayEquals(new byte[]{Ctap2Dispatcher.CTAP2_ERR_CREDENTIAL_EXCLUDED},
+                dispatcher.process(makeCredentialRequest(CLIENT_DATA_HASH, ES256, credentialId)));
+    }
+
+    @Test
+    public void getAssertion() throws Exception {
+        byte[] credentialId = credentialId(dispatcher.process(makeCredentialRequest(CLIENT_DATA_HASH, ES256, null)));
+        byte[] response = dispatcher.process(getAssertionRequest(RP_ID, credentialId));
+        assertEquals(Ctap2Dispatcher.CTAP2_OK, response[0]);
+
+        // new credentials start with a counter of 1, so the first assertion signs with 2
+        byte[] authData = concat(WebAuthnCryptography.sha256(RP_ID), hex("01"), hex("00000002"));
+        // the signature follows its 0x03 key and two-byte header at offset 97
+        int signatureLength = response[99] & 0xff;
+        byte[] signature = Arrays.copyOfRange(response, 100, 100 + signatureLength);
+        byte[] expected = concat(
+                hex("00" + "a4" + "01" + "a2" + "626964" + "5820"), credentialId,
+                hex("6474797065" + "6a7075626c69632d6b6579"),
+                hex("02" + "5825"), authData,
+                hex("03" + "58"), new byte[]{(byte) signatureLength}, signature,
+                hex("04" + "a1" + "626964" + "4a"), USER_ID);
+        assertArrayEquals(expected, response);
+
+        KeyPair keyPair = credentialSafe.getKeyPairByAlias(credentialSafe.getCredentialSourceById(credentialId).keyPairAlias);
+        WebAuthnCryptography cryptography = new WebAuthnCryptography(credentialSafe);
+        assertTrue(cryptography.verifySignature(keyPair.getPublic(), concat(authData, CLIENT_DATA_HASH), signature));
+    }
+
+    @Test
+    public void getAssertionErrors() {
+        assertArrayEquals(new byte[]{Ctap2Dispatcher.CTAP2_ERR_NO_CREDENTIALS},
+                dispatcher.process(getAssertionRequest("unknown.example", null)));
+
+        // {1: RP_ID, 2: CLIENT_DATA_HASH, 5: {"up": false}}
+        byte[] silent = new CborWriter()
+                .writeRaw(new byte[]{Ctap2Dispatcher.CMD_GET_ASSERTION})
+                .writeMapHeader(3)
+                .writeInteger(1).writeTextString(RP_ID)
+                .writeInteger(2).writeByteString(CLIENT_DATA_HASH)
+                .writeInteger(5).writeMapHeader(1).writeTextString("up").writeBoolean(false)
+                .toByteArray();
+        assertArrayEquals(new byte[]{Ctap2Dispatcher.CTAP2_ERR_UNSUPPORTED_OPTION}, dispatcher.process(silent));
+    }
+}
@@ -0,0 +1,92 @@
+package duo.labs.webauthn;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import duo.labs.webauthn.util.KeyPairPool;
+import duo.labs.webauthn.util.SoftwareKeyBackend;
+
+import static org.junit.Assert.*;
+
+public class KeyPairPoolTest {
+    private SoftwareKeyBackend keyBackend;
+
+    @Before
+    public void setUp() {
+        this.keyBackend = new SoftwareKeyBackend();
+    }
+
+    @Test
+    public void claimFromFilledPool() throws Exception {
+        KeyPairPool pool = new KeyPairPool(keyBackend, 3, KeyPairPool.RefillPolicy.MANUAL);
+        pool.refill().get();
+        assertEquals(3, pool.getAvailableCount());
+        assertEquals(3, pool.getGeneratedCount());
+
+        String alias = pool.claim();
+        assertNotNull(alias);
+        assertTrue(alias.startsWith(KeyPairPool.ALIAS_PREFIX));
+        assertTrue(keyBackend.aliases().contains(alias));
+        assertEquals(2, pool.getAvailableCount());
+        assertEquals(1, pool.getHitCount());
+        assertEquals(0, pool.getMissCount());
+    }
+
+    @Test
+    public void missWhenEmpty() {
+        KeyPairPool pool = new KeyPairPool(keyBackend, 2, KeyPairPool.RefillPolicy.MANUAL);
+        assertNull(pool.claim());
+        assertEquals(1, pool.getMissCount());
+        assertEquals(0, pool.getGeneratedCount());
+    }
+
+    @Test
+    public void refillWhenIdle() throws Exception {
+        KeyPairPool pool = new KeyPairPool(keyBackend, 2, KeyPairPool.RefillPolicy.WHEN_IDLE);
+        pool.setIdleDelayMillis(1000);
+        pool.refill().get();
+        pool.claim();
+        // the claim doesn't trigger key generation right away
+        assertEquals(1, pool.getAvailableCount());
+        assertEquals(2, pool.getGeneratedCount());
+
+        long deadline = System.currentTimeMillis() + 10000;
+        while (pool.getAvailableCount() < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        assertEquals(2, pool.getAvailableCount());
+        assertEquals(3, pool.getGeneratedCount());
+    }
+
+    @Test
+    public void shutdownDrainsAndStopsRefilling() throws Exception {
+        KeyPairPool pool = new KeyPairPool(keyBackend, 2, KeyPairPool.RefillPolicy.WHEN_IDLE);
+        pool.setIdleDelayMillis(0);
+        pool.refill().get();
+        pool.shutdown().get();
+        assertEquals(0, pool.getAvailableCount());
+        assertTrue(keyBackend.aliases().isEmpty());
+
+        // claims and refills after shutdown don't generate keys
+        assertNull(pool.claim());
+        pool.refill().get();
+        assertEquals(0, pool.getAvailableCount());
+        assertEquals(2, pool.getGeneratedCount());
+    }
+
+    @Test
+    public void adoptAndDrain() throws Exception {
+        keyBackend.generate(KeyPairPool.ALIAS_PREFIX + "a");
+        keyBackend.generate(KeyPairPool.ALIAS_PREFIX + "b");
+        KeyPairPool pool = new KeyPairPool(keyBackend, 2, KeyPairPool.RefillPolicy.MANUAL);
+        pool.adopt(Arrays.asList(KeyPairPool.ALIAS_PREFIX + "a", KeyPairPool.ALIAS_PREFIX + "b"));
+        pool.refill().get();
+        assertEquals(0, pool.getGeneratedCount());
+
+        pool.drain().get();
+        assertEquals(0, pool.getAvailableCount());
+        assertTrue(keyBackend.aliases().isEmpty());
+    }
+}
@@ -0,0 +1,55 @@
+package duo.labs.webauthn;
+
+import org.junit.Test;
+
+import duo.labs.webauthn.util.PrecisNameValidator;
+import rocks.xmpp.precis.PrecisProfiles;
+
+import static org.junit.Assert.*;
+
+public class PrecisNameValidatorTest {
+    // U+0000 is a control character and the space is not an identifier character, so neither may
+    // appear in a PRECIS username
+    private static final String[] VALID_NAMES = {"webauthn.io", "testuser", "\u0391\u03b8\u03b7\u03bd\u03ac", "\u5c71\u7530\u592a\u90ce"};
+    private static final String[] INVALID_NAMES = {"", "user\u0000name", "two words"};
+
+    @Test
+    public void cachedAndUncachedAgree() {
+        PrecisNameValidator cached = new PrecisNameValidator(PrecisProfiles.USERNAME_CASE_PRESERVED, 8);
+        PrecisNameValidator uncached = new PrecisNameValidator(PrecisProfiles.USERNAME_CASE_PRESERVED, 0);
+        for (int round = 0; round < 2; round++) {
+            for (String name : VALID_NAMES) {
+                assertTrue(name, cached.isValid(name));
+                assertTrue(name, uncached.isValid(name));
+            }
+            for (String name : INVALID_NAMES) {
+                assertFalse(name, cached.isValid(name));
+                assertFalse(name, uncached.isValid(name));
+            }
+        }
+        assertFalse(cached.isValid(null));
+
+        // valid names are served from the cache the second time around, invalid ones never are
+        assertEquals(VALID_NAMES.length, cached.getCacheHitCount());
+        assertEquals(VALID_NAMES.length + 2 * INVALID_NAMES.length, cached.getCacheMissCount());
+        assertEquals(0, uncached.getCacheHitCount());
+    }
+
+    @Test
+    public void setCacheSize() {
+        PrecisNameValidator validator = new PrecisNameValidator(PrecisProfiles.USERNAME_CASE_PRESERVED, 4);
+        assertEquals(4, validator.getCacheSize());
+        validator.isValid("testuser");
+
+        validator.setCacheSize(0);
+        assertEquals(0, validator.getCacheSize());
+        assertTrue(validator.isValid("testuser"));
+        assertEquals(0, validator.getCacheHitCount());
+
+        validator.setCacheSize(16);
+        assertEquals(16, validator.getCacheSize());
+        validator.isValid("testuser");
+        assertTrue(validator.isValid("testuser"));
+        assertEquals(1, validator.getCacheHitCount());
+    }
+}
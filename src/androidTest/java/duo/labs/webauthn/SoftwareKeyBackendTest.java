@@ -0,0 +1,90 @@
+package duo.labs.webauthn;
+
+import android.arch.persistence.room.Room;
+import android.content.Context;
+import android.support.test.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.security.KeyPair;
+import java.util.List;
+
+import duo.labs.webauthn.exceptions.VirgilException;
+import duo.labs.webauthn.exceptions.WebAuthnException;
+import duo.labs.webauthn.models.AttestationObject;
+import duo.labs.webauthn.models.AuthenticatorGetAssertionOptions;
+import duo.labs.webauthn.models.AuthenticatorGetAssertionResult;
+import duo.labs.webauthn.models.AuthenticatorMakeCredentialOptions;
+import duo.labs.webauthn.models.CredentialSelectionItem;
+import duo.labs.webauthn.models.PublicKeyCredentialDescriptor;
+import duo.labs.webauthn.models.PublicKeyCredentialSource;
+import duo.labs.webauthn.util.CredentialItemSelector;
+import duo.labs.webauthn.util.CredentialSafe;
+import duo.labs.webauthn.util.SoftwareKeyBackend;
+import duo.labs.webauthn.util.database.CredentialDatabase;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs the whole makeCredential / getAssertion pipeline against an in-memory database and
+ * software keys, so nothing is left behind in the device key store.
+ */
+public class SoftwareKeyBackendTest {
+    private CredentialDatabase db;
+    private SoftwareKeyBackend keyBackend;
+    private CredentialSafe credentialSafe;
+    private Authenticator authenticator;
+
+    @Before
+    public void setUp() {
+        Context ctx = InstrumentationRegistry.getContext();
+        this.db = Room.inMemoryDatabaseBuilder(ctx, CredentialDatabase.class)
+                .allowMainThreadQueries()
+                .build();
+        this.keyBackend = new SoftwareKeyBackend();
+        this.credentialSafe = new CredentialSafe(db, keyBackend, false);
+        this.authenticator = new Authenticator(credentialSafe);
+    }
+
+    @After
+    public void tearDown() {
+        this.db.close();
+    }
+
+    @Test
+    public void makeCredentialAndGetAssertion() throws VirgilException, WebAuthnException {
+        AuthenticatorMakeCredentialOptions makeCredentialOptions = AuthenticatorMakeCredentialOptions.fromJSON(AuthenticatorTest.MAKE_CREDENTIAL_JSON);
+        AttestationObject attObj = authenticator.makeCredential(makeCredentialOptions);
+
+        AuthenticatorGetAssertionOptions getAssertionOptions = AuthenticatorGetAssertionOptions.fromJSON(AuthenticatorTest.GET_ASSERTION_JSON);
+        getAssertionOptions.allowCredentialDescriptorList.add(new PublicKeyCredentialDescriptor("public-key", attObj.getCredentialId(), null));
+        AuthenticatorGetAssertionResult result = authenticator.getAssertion(getAssertionOptions, new CredentialItemSelector() {
+            @Override
+            public CredentialSelectionItem selectFrom(List<CredentialSelectionItem> credentialList) {
+                return credentialList.get(0);
+            }
+        });
+        assertArrayEquals(attObj.getCredentialId(), result.selectedCredentialId);
+
+        ByteBuffer signedData = ByteBuffer.allocate(result.authenticatorData.length + getAssertionOptions.clientDataHash.length);
+        signedData.put(result.authenticatorData);
+        signedData.put(getAssertionOptions.clientDataHash);
+        PublicKeyCredentialSource source = credentialSafe.getCredentialSourceById(attObj.getCredentialId());
+        KeyPair keyPair = keyBackend.load(source.keyPairAlias);
+        assertTrue(authenticator.cryptoProvider.verifySignature(keyPair.getPublic(), signedData.array(), result.signature));
+    }
+
+    @Test
+    public void deleteCredentialDeletesKey() throws VirgilException {
+        PublicKeyCredentialSource cs = credentialSafe.generateCredential("myentity", null, "myname");
+        assertTrue(keyBackend.aliases().contains(cs.keyPairAlias));
+        assertFalse(credentialSafe.keyRequiresVerification(cs.keyPairAlias));
+
+        credentialSafe.deleteCredential(cs);
+        assertNull(credentialSafe.getCredentialSourceById(cs.id));
+        assertFalse(keyBackend.aliases().contains(cs.keyPairAlias));
+    }
+}
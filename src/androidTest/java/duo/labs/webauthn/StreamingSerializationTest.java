@@ -0,0 +1,129 @@
+package duo.labs.webauthn;
+
+import android.util.Base64;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.StringWriter;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+import duo.labs.webauthn.models.AttestationObject;
+import duo.labs.webauthn.models.AuthenticatorGetAssertionResult;
+import duo.labs.webauthn.models.NoneAttestationObject;
+import duo.labs.webauthn.models.PackedSelfAttestationObject;
+import duo.labs.webauthn.util.Base64ByteArrayAdapter;
+import duo.labs.webauthn.util.Base64CharWriter;
+
+import static org.junit.Assert.*;
+
+public class StreamingSerializationTest {
+    private static byte[] randomBytes(Random random, int length) {
+        byte[] bytes = new byte[length];
+        random.nextBytes(bytes);
+        return bytes;
+    }
+
+    @Test
+    public void base64CharWriterMatchesBase64() throws Exception {
+        Random random = new Random(0);
+        for (int length = 0; length < 1200; length += 1 + length / 8) {
+            byte[] data = randomBytes(random, length);
+            String expected = Base64.encodeToString(data, Base64.NO_WRAP);
+            assertEquals(expected.length(), Base64CharWriter.encodedLength(length));
+
+            // in one write, byte by byte, and in uneven chunks
+            StringWriter whole = new StringWriter();
+            Base64CharWriter writer = new Base64CharWriter(whole);
+            writer.write(data);
+            writer.finish();
+            assertEquals(expected, whole.toString());
+
+            StringWriter bytes = new StringWriter();
+            writer = new Base64CharWriter(bytes);
+            for (byte b : data) {
+                writer.write(b);
+            }
+            writer.finish();
+            assertEquals(expected, bytes.toString());
+
+            StringWriter chunks = new StringWriter();
+            writer = new Base64CharWriter(chunks);
+            for (int offset = 0; offset < length; offset += 7) {
+                writer.write(data, offset, Math.min(7, length - offset));
+            }
+            writer.finish();
+            assertEquals(expected, chunks.toString());
+        }
+    }
+
+    @Test
+    public void writeJsonMatchesGson() throws Exception {
+        Gson gson = new GsonBuilder()
+                .registerTypeAdapter(byte[].class, new Base64ByteArrayAdapter())
+                .disableHtmlEscaping()
+                .create();
+        Random random = new Random(1);
+        AuthenticatorGetAssertionResult[] results = {
+                new AuthenticatorGetAssertionResult(randomBytes(random, 32), randomBytes(random, 37), randomBytes(random, 71), randomBytes(random, 10)),
+                new AuthenticatorGetAssertionResult(randomBytes(random, 32), randomBytes(random, 37), randomBytes(random, 72), null),
+        };
+
+        for (AuthenticatorGetAssertionResult result : results) {
+            String expected = gson.toJson(result);
+            assertEquals(expected, result.toJson());
+            assertEquals(expected.length(), result.jsonSize());
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            result.writeJson(out);
+            assertEquals(expected, new String(out.toByteArray(), StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    public void writeCBORMatchesAsCBOR() throws Exception {
+        Random random = new Random(2);
+        byte[] authData = randomBytes(random, 164);
+        AttestationObject[] attestationObjects = {
+                new NoneAttestationObject(authData),
+                new PackedSelfAttestationObject(authData, randomBytes(random, 71)),
+        };
+
+        for (AttestationObject attestationObject : attestationObjects) {
+            byte[] expected = attestationObject.asCBOR();
+            assertEquals(expected.length, attestationObject.cborSize());
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            attestationObject.writeCBOR(out);
+            assertArrayEquals(expected, out.toByteArray());
+
+            ByteBuffer buffer = ByteBuffer.allocate(expected.length + 4);
+            buffer.position(2);
+            attestationObject.writeCBOR(buffer);
+            assertEquals(expected.length + 2, buffer.position());
+            assertArrayEquals(expected, Arrays.copyOfRange(buffer.array(), 2, 2 + expected.length));
+
+            // a base64 stream produces the same text as encoding the CBOR afterwards
+            StringWriter base64 = new StringWriter();
+            Base64CharWriter writer = new Base64CharWriter(base64);
+            attestationObject.writeCBOR(writer);
+            writer.finish();
+            assertEquals(Base64.encodeToString(expected, Base64.NO_WRAP), base64.toString());
+
+            ByteBuffer small = ByteBuffer.allocate(expected.length - 1);
+            try {
+                attestationObject.writeCBOR(small);
+                fail("writeCBOR should not write into a buffer that is too small");
+            } catch (BufferOverflowException e) {
+                assertEquals(0, small.position());
+            }
+        }
+    }
+}
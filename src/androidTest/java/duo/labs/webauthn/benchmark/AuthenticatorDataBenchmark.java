@@ -0,0 +1,66 @@
+package duo.labs.webauthn.benchmark;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import duo.labs.webauthn.util.AuthenticatorDataEncoder;
+
+import static org.junit.Assert.*;
+
+/**
+ * Compares the previous two-buffer construction of `authenticatorData || clientDataHash` used
+ * during getAssertion with the single-pass AuthenticatorDataEncoder. AuthenticatorDataEncoderTest
+ * checks that both produce the same bytes.
+ */
+public class AuthenticatorDataBenchmark {
+    private static final int WARMUP = 1000;
+    private static final int ITERATIONS = 10000;
+
+    private final byte[] rpIdHash = new byte[32];
+    private final byte[] clientDataHash = new byte[32];
+
+    public AuthenticatorDataBenchmark() {
+        Arrays.fill(rpIdHash, (byte) 0x11);
+        Arrays.fill(clientDataHash, (byte) 0x22);
+    }
+
+    private byte[] legacyToSign(int counter) {
+        ByteBuffer authData = ByteBuffer.allocate(37);
+        authData.put(rpIdHash);
+        authData.put((byte) 0x01);
+        authData.putInt(counter);
+        byte[] authenticatorData = authData.array();
+
+        ByteBuffer byteBuffer = ByteBuffer.allocate(authenticatorData.length + clientDataHash.length);
+        byteBuffer.put(authenticatorData);
+        byteBuffer.put(clientDataHash);
+        return byteBuffer.array();
+    }
+
+    @Test
+    public void assertionAllocations() throws Exception {
+        MicroBenchmark.Result legacy = MicroBenchmark.measure("legacyAssertionToSign", WARMUP, ITERATIONS, new MicroBenchmark.Operation() {
+            int counter = 0;
+
+            @Override
+            public void run() {
+                legacyToSign(counter++);
+            }
+        });
+        MicroBenchmark.Result encoded = MicroBenchmark.measure("encoderAssertionToSign", WARMUP, ITERATIONS, new MicroBenchmark.Operation() {
+            int counter = 0;
+
+            @Override
+            public void run() throws Exception {
+                AuthenticatorDataEncoder.forCurrentThread().encode(rpIdHash, false, counter++, null, null, clientDataHash);
+            }
+        });
+        // allocation statistics are unavailable on some runtimes, in which case both are negative
+        if (legacy.bytesPerOp > 0) {
+            assertTrue("encoder should allocate less than the two-buffer construction",
+                    encoded.bytesPerOp < legacy.bytesPerOp);
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package duo.labs.webauthn.benchmark;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.security.KeyPairGenerator;
+import java.security.PublicKey;
+import java.security.interfaces.ECPublicKey;
+import java.security.spec.ECGenParameterSpec;
+import java.util.Arrays;
+
+import co.nstant.in.cbor.CborBuilder;
+import co.nstant.in.cbor.CborEncoder;
+import duo.labs.webauthn.models.NoneAttestationObject;
+import duo.labs.webauthn.util.CredentialSafe;
+
+/**
+ * Throughput of the purpose-built CborWriter encodings versus the co.nstant.in.cbor builder path
+ * they replaced.
+ */
+public class CborBenchmark {
+    private static final int WARMUP = 1000;
+    private static final int ITERATIONS = 10000;
+
+    @Test
+    public void attestationObject() throws Exception {
+        final byte[] authData = new byte[141];
+        Arrays.fill(authData, (byte) 0x5a);
+
+        MicroBenchmark.measure("libraryNoneAttestation", WARMUP, ITERATIONS, new MicroBenchmark.Operation() {
+            @Override
+            public void run() throws Exception {
+                ByteArrayOutputStream baos = new ByteArrayOutputStream();
+                new CborEncoder(baos).encode(new CborBuilder()
+                        .addMap()
+                        .put("authData", authData)
+                        .put("fmt", "none")
+                        .putMap("attStmt")
+                        .end()
+                        .end()
+                        .build());
+                baos.toByteArray();
+            }
+        });
+        MicroBenchmark.measure("writerNoneAttestation", WARMUP, ITERATIONS, new MicroBenchmark.Operation() {
+            @Override
+            public void run() throws Exception {
+                new NoneAttestationObject(authData).asCBOR();
+            }
+        });
+    }
+
+    @Test
+    public void coseEncodePublicKey() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+        generator.initialize(new ECGenParameterSpec("secp256r1"));
+        final PublicKey publicKey = generator.generateKeyPair().getPublic();
+        final ECPublicKey ecPublicKey = (ECPublicKey) publicKey;
+
+        MicroBenchmark.measure("libraryCoseKey", WARMUP, ITERATIONS, new MicroBenchmark.Operation() {
+            @Override
+            public void run() throws Exception {
+                ByteArrayOutputStream baos = new ByteArrayOutputStream();
+                new CborEncoder(baos).encode(new CborBuilder()
+                        .addMap()
+                        .put(1, 2)
+                        .put(3, -7)
+                        .put(-1, 1)
+                        .put(-2, unsigned32(ecPublicKey.getW().getAffineX().toByteArray()))
+                        .put(-3, unsigned32(ecPublicKey.getW().getAffineY().toByteArray()))
+                        .end()
+                        .build());
+                baos.toByteArray();
+            }
+        });
+        MicroBenchmark.measure("writerCoseKey", WARMUP, ITERATIONS, new MicroBenchmark.Operation() {
+            @Override
+            public void run() throws Exception {
+                CredentialSafe.coseEncodePublicKey(publicKey);
+            }
+        });
+    }
+
+    private static byte[] unsigned32(byte[] bytes) {
+        byte[] fixed = new byte[32];
+        int length = Math.min(bytes.length, 32);
+        System.arraycopy(bytes, bytes.length - length, fixed, 32 - length, length);
+        return fixed;
+    }
+}
@@ -0,0 +1,84 @@
+package duo.labs.webauthn.benchmark;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import duo.labs.webauthn.models.CredentialSelectionItem;
+import duo.labs.webauthn.util.CredentialSearchIndex;
+
+/**
+ * Cost of building a CredentialSearchIndex over 50,000 credentials, and of searching it as a user
+ * types a name one character at a time, compared with a linear scan of the display names.
+ * Results are written to the log by MicroBenchmark.
+ */
+public class CredentialSearchBenchmark {
+    private static final int CREDENTIALS = 50000;
+    private static final int RESULT_LIMIT = 500;
+    private static final String[] SYLLABLES = {"an", "be", "ca", "do", "el", "fi", "ga", "ho", "ja", "ki", "lu", "ma", "no", "pe", "ra", "so", "ta", "vi", "wo", "yu"};
+
+    private static String randomWord(Random random) {
+        StringBuilder word = new StringBuilder();
+        int syllables = 2 + random.nextInt(3);
+        for (int i = 0; i < syllables; i++) {
+            word.append(SYLLABLES[random.nextInt(SYLLABLES.length)]);
+        }
+        word.setCharAt(0, Character.toUpperCase(word.charAt(0)));
+        return word.toString();
+    }
+
+    // "Given Family" names, like the display names on a shared device
+    private static List<CredentialSelectionItem> credentials() {
+        Random random = new Random(0);
+        List<CredentialSelectionItem> credentials = new ArrayList<>(CREDENTIALS);
+        for (int i = 0; i < CREDENTIALS; i++) {
+            CredentialSelectionItem item = new CredentialSelectionItem();
+            item.roomUid = i + 1;
+            item.userDisplayName = randomWord(random) + " " + randomWord(random);
+            credentials.add(item);
+        }
+        return credentials;
+    }
+
+    @Test
+    public void build() throws Exception {
+        final List<CredentialSelectionItem> credentials = credentials();
+        MicroBenchmark.measure("searchIndexBuild[" + CREDENTIALS + "]", 2, 10, new MicroBenchmark.Operation() {
+            @Override
+            public void run() {
+                new CredentialSearchIndex(credentials);
+            }
+        });
+    }
+
+    @Test
+    public void search() throws Exception {
+        final List<CredentialSelectionItem> credentials = credentials();
+        final CredentialSearchIndex index = new CredentialSearchIndex(credentials);
+        final String name = credentials.get(CREDENTIALS / 2).userDisplayName;
+
+        for (int length = 1; length <= 6; length++) {
+            final String query = name.substring(0, length);
+            MicroBenchmark.measure("searchIndex[" + query.length() + " chars]", 1000, 10000, new MicroBenchmark.Operation() {
+                @Override
+                public void run() {
+                    index.search(query, RESULT_LIMIT);
+                }
+            });
+            MicroBenchmark.measure("linearScan[" + query.length() + " chars]", 10, 100, new MicroBenchmark.Operation() {
+                @Override
+                public void run() {
+                    String prefix = query.toLowerCase();
+                    List<CredentialSelectionItem> results = new ArrayList<>();
+                    for (CredentialSelectionItem item : credentials) {
+                        if (results.size() < RESULT_LIMIT && item.userDisplayName.toLowerCase().startsWith(prefix)) {
+                            results.add(item);
+                        }
+                    }
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package duo.labs.webauthn.benchmark;
+
+import android.arch.persistence.room.Room;
+import android.support.test.InstrumentationRegistry;
+import android.util.Base64;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+
+import duo.labs.webauthn.Authenticator;
+import duo.labs.webauthn.AuthenticatorTest;
+import duo.labs.webauthn.Ctap2Dispatcher;
+import duo.labs.webauthn.Ctap2DispatcherTest;
+import duo.labs.webauthn.models.AuthenticatorGetAssertionOptions;
+import duo.labs.webauthn.models.AuthenticatorMakeCredentialOptions;
+import duo.labs.webauthn.models.CredentialSelectionItem;
+import duo.labs.webauthn.util.CredentialItemSelector;
+import duo.labs.webauthn.util.CredentialSafe;
+import duo.labs.webauthn.util.SoftwareKeyBackend;
+import duo.labs.webauthn.util.database.CredentialDatabase;
+
+/**
+ * Throughput of CTAP2 requests through Ctap2Dispatcher versus the same operations through the
+ * JSON options and result encodings. Credentials live in an in-memory database with software
+ * keys. Results are written to the log by MicroBenchmark.
+ */
+public class Ctap2Benchmark {
+    private static final int WARMUP = 50;
+    private static final int ITERATIONS = 500;
+
+    private CredentialDatabase db;
+    private Authenticator authenticator;
+    private Ctap2Dispatcher dispatcher;
+    private CredentialItemSelector selector;
+
+    @Before
+    public void setUp() {
+        this.db = Room.inMemoryDatabaseBuilder(InstrumentationRegistry.getContext(), CredentialDatabase.class)
+                .allowMainThreadQueries()
+                .build();
+        this.authenticator = new Authenticator(new CredentialSafe(db, new SoftwareKeyBackend(), false));
+        this.selector = new CredentialItemSelector() {
+            @Override
+            public CredentialSelectionItem selectFrom(List<CredentialSelectionItem> credentialList) {
+                return credentialList.get(0);
+            }
+        };
+        this.dispatcher = new Ctap2Dispatcher(authenticator, selector);
+    }
+
+    @After
+    public void tearDown() {
+        this.db.close();
+    }
+
+    @Test
+    public void makeCredential() throws Exception {
+        final byte[] request = Ctap2DispatcherTest.makeCredentialRequest(Ctap2DispatcherTest.CLIENT_DATA_HASH, -7, null);
+
+        MicroBenchmark.measure("jsonMakeCredential", WARMUP, ITERATIONS, new MicroBenchmark.Operation() {
+            @Override
+            public void run() throws Exception {
+                AuthenticatorMakeCredentialOptions options = AuthenticatorMakeCredentialOptions.fromJSON(AuthenticatorTest.MAKE_CREDENTIAL_JSON);
+                authenticator.makeCredential(options).asCBOR();
+            }
+        });
+        MicroBenchmark.measure("ctap2MakeCredential", WARMUP, ITERATIONS, new MicroBenchmark.Operation() {
+            @Override
+            public void run() {
+                dispatcher.process(request);
+            }
+        });
+    }
+
+    @Test
+    public void getAssertion() throws Exception {
+        byte[] created = dispatcher.process(Ctap2DispatcherTest.makeCredentialRequest(Ctap2DispatcherTest.CLIENT_DATA_HASH, -7, null));
+        // the credential ID starts at offset 55 of the authData, which starts at offset 11
+        byte[] credentialId = new byte[32];
+        System.arraycopy(created, 11 + 55, credentialId, 0, credentialId.length);
+
+        final byte[] request = Ctap2DispatcherTest.getAssertionRequest(Ctap2DispatcherTest.RP_ID, credentialId);
+        final String json = "{"
+                + "\"allowCredentialDescriptorList\":[{\"id\":\"" + Base64.encodeToString(credentialId, Base64.NO_WRAP) + "\",\"type\":\"public-key\"}],"
+                + "\"clientDataHash\":\"" + Base64.encodeToString(Ctap2DispatcherTest.CLIENT_DATA_HASH, Base64.NO_WRAP) + "\","
+                + "\"requireUserPresence\":true,\"requireUserVerification\":false,"
+                + "\"rpId\":\"" + Ctap2DispatcherTest.RP_ID + "\"}";
+
+        MicroBenchmark.measure("jsonGetAssertion", WARMUP, ITERATIONS, new MicroBenchmark.Operation() {
+            @Override
+            public void run() throws Exception {
+                AuthenticatorGetAssertionOptions options = AuthenticatorGetAssertionOptions.fromJSON(json);
+                authenticator.getAssertion(options, selector).toJson();
+            }
+        });
+        MicroBenchmark.measure("ctap2GetAssertion", WARMUP, ITERATIONS, new MicroBenchmark.Operation() {
+            @Override
+            public void run() {
+                dispatcher.process(request);
+            }
+        });
+    }
+
+    @Test
+    public void getInfo() throws Exception {
+        final byte[] request = {Ctap2Dispatcher.CMD_GET_INFO};
+        MicroBenchmark.measure("ctap2GetInfo", WARMUP * 20, ITERATIONS * 20, new MicroBenchmark.Operation() {
+            @Override
+            public void run() {
+                dispatcher.process(request);
+            }
+        });
+    }
+}
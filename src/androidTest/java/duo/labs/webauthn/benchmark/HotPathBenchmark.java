@@ -0,0 +1,216 @@
+package duo.labs.webauthn.benchmark;
+
+import android.arch.persistence.room.Room;
+import android.support.test.InstrumentationRegistry;
+import android.util.Base64;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.StringWriter;
+import java.security.KeyPairGenerator;
+import java.security.PublicKey;
+import java.security.spec.ECGenParameterSpec;
+import java.util.Arrays;
+
+import duo.labs.webauthn.Authenticator;
+import duo.labs.webauthn.AuthenticatorTest;
+import duo.labs.webauthn.models.AttestationObject;
+import duo.labs.webauthn.models.AuthenticatorGetAssertionOptions;
+import duo.labs.webauthn.models.AuthenticatorGetAssertionResult;
+import duo.labs.webauthn.models.AuthenticatorMakeCredentialOptions;
+import duo.labs.webauthn.models.NoneAttestationObject;
+import duo.labs.webauthn.models.PackedSelfAttestationObject;
+import duo.labs.webauthn.models.PublicKeyCredentialSource;
+import duo.labs.webauthn.util.AuthenticatorDataEncoder;
+import duo.labs.webauthn.util.Base64CharWriter;
+import duo.labs.webauthn.util.CredentialSafe;
+import duo.labs.webauthn.util.SoftwareKeyBackend;
+import duo.labs.webauthn.util.database.CredentialDatabase;
+
+/**
+ * Time, allocations and garbage collections for each step on the makeCredential / getAssertion
+ * hot paths. Credentials live in an in-memory database with software keys, so the numbers don't
+ * depend on the device key store. Results are written to the log by MicroBenchmark.
+ */
+public class HotPathBenchmark {
+    private static final int WARMUP = 1000;
+    private static final int ITERATIONS = 10000;
+    // each assertion also signs and updates the database, so fewer iterations are enough
+    private static final int ASSERTION_ITERATIONS = 1000;
+
+    private CredentialDatabase db;
+    private CredentialSafe credentialSafe;
+    private Authenticator authenticator;
+
+    @Before
+    public void setUp() {
+        this.db = Room.inMemoryDatabaseBuilder(InstrumentationRegistry.getContext(), CredentialDatabase.class)
+                .allowMainThreadQueries()
+                .build();
+        this.credentialSafe = new CredentialSafe(db, new SoftwareKeyBackend(), false);
+        this.authenticator = new Authenticator(credentialSafe);
+    }
+
+    @After
+    public void tearDown() {
+        this.db.close();
+    }
+
+    @Test
+    public void parseOptions() throws Exception {
+        MicroBenchmark.measure("makeCredentialOptionsFromJSON", WARMUP, ITERATIONS, new MicroBenchmark.Operation() {
+            @Override
+            public void run() {
+                AuthenticatorMakeCredentialOptions.fromJSON(AuthenticatorTest.MAKE_CREDENTIAL_JSON);
+            }
+        });
+        MicroBenchmark.measure("getAssertionOptionsFromJSON", WARMUP, ITERATIONS, new MicroBenchmark.Operation() {
+            @Override
+            public void run() {
+                AuthenticatorGetAssertionOptions.fromJSON(AuthenticatorTest.GET_ASSERTION_JSON);
+            }
+        });
+    }
+
+    @Test
+    public void areWellFormed() throws Exception {
+        final AuthenticatorMakeCredentialOptions makeCredentialOptions = AuthenticatorMakeCredentialOptions.fromJSON(AuthenticatorTest.MAKE_CREDENTIAL_JSON);
+        final AuthenticatorGetAssertionOptions getAssertionOptions = AuthenticatorGetAssertionOptions.fromJSON(AuthenticatorTest.GET_ASSERTION_JSON);
+
+        MicroBenchmark.measure("makeCredentialOptionsAreWellFormed", WARMUP, ITERATIONS, new MicroBenchmark.Operation() {
+            @Override
+            public void run() {
+                makeCredentialOptions.areWellFormed();
+            }
+        });
+        MicroBenchmark.measure("getAssertionOptionsAreWellFormed", WARMUP, ITERATIONS, new MicroBenchmark.Operation() {
+            @Override
+            public void run() {
+                getAssertionOptions.areWellFormed();
+            }
+        });
+    }
+
+    @Test
+    public void coseEncodePublicKey() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+        generator.initialize(new ECGenParameterSpec("secp256r1"));
+        final PublicKey publicKey = generator.generateKeyPair().getPublic();
+
+        MicroBenchmark.measure("coseEncodePublicKey", WARMUP, ITERATIONS, new MicroBenchmark.Operation() {
+            @Override
+            public void run() throws Exception {
+                CredentialSafe.coseEncodePublicKey(publicKey);
+            }
+        });
+    }
+
+    @Test
+    public void asCBOR() throws Exception {
+        AuthenticatorMakeCredentialOptions options = AuthenticatorMakeCredentialOptions.fromJSON(AuthenticatorTest.MAKE_CREDENTIAL_JSON);
+        PublicKeyCredentialSource credential = credentialSafe.generateCredential(options.rpEntity.id, options.userEntity.id, options.userEntity.name);
+        byte[] authenticatorData = AuthenticatorDataEncoder.forCurrentThread()
+                .encode(new byte[32], false, 0, credential.id, credential.cosePublicKey, options.clientDataHash)
+                .toAuthenticatorData();
+        byte[] signature = new byte[72];
+        Arrays.fill(signature, (byte) 0x30);
+        final AttestationObject none = new NoneAttestationObject(authenticatorData);
+        final AttestationObject packed = new PackedSelfAttestationObject(authenticatorData, signature);
+
+        MicroBenchmark.measure("noneAttestationAsCBOR", WARMUP, ITERATIONS, new MicroBenchmark.Operation() {
+            @Override
+            public void run() throws Exception {
+                none.asCBOR();
+            }
+        });
+        MicroBenchmark.measure("packedAttestationAsCBOR", WARMUP, ITERATIONS, new MicroBenchmark.Operation() {
+            @Override
+            public void run() throws Exception {
+                packed.asCBOR();
+            }
+        });
+
+        // base64 for transport: encode the returned array, or stream the encoding into a writer
+        final StringWriter writer = new StringWriter(2 * none.cborSize());
+        MicroBenchmark.measure("noneAttestationAsCBORBase64", WARMUP, ITERATIONS, new MicroBenchmark.Operation() {
+            @Override
+            public void run() throws Exception {
+                Base64.encodeToString(none.asCBOR(), Base64.NO_WRAP);
+            }
+        });
+        MicroBenchmark.measure("noneAttestationWriteCBORBase64", WARMUP, ITERATIONS, new MicroBenchmark.Operation() {
+            @Override
+            public void run() throws Exception {
+                writer.getBuffer().setLength(0);
+                Base64CharWriter base64 = new Base64CharWriter(writer);
+                none.writeCBOR(base64);
+                base64.finish();
+            }
+        });
+    }
+
+    @Test
+    public void constructAuthenticatorData() throws Exception {
+        final byte[] rpIdHash = new byte[32];
+        final byte[] clientDataHash = new byte[32];
+        final byte[] credentialId = new byte[32];
+        Arrays.fill(rpIdHash, (byte) 0x11);
+        Arrays.fill(clientDataHash, (byte) 0x22);
+        Arrays.fill(credentialId, (byte) 0x33);
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+        generator.initialize(new ECGenParameterSpec("secp256r1"));
+        final byte[] cosePublicKey = CredentialSafe.coseEncodePublicKey(generator.generateKeyPair().getPublic());
+
+        MicroBenchmark.measure("attestedAuthenticatorData", WARMUP, ITERATIONS, new MicroBenchmark.Operation() {
+            @Override
+            public void run() throws Exception {
+                AuthenticatorDataEncoder.forCurrentThread().encode(rpIdHash, false, 0, credentialId, cosePublicKey, clientDataHash);
+            }
+        });
+        MicroBenchmark.measure("assertionAuthenticatorData", WARMUP, ITERATIONS, new MicroBenchmark.Operation() {
+            int counter = 0;
+
+            @Override
+            public void run() throws Exception {
+                AuthenticatorDataEncoder.forCurrentThread().encode(rpIdHash, false, counter++, null, null, clientDataHash);
+            }
+        });
+    }
+
+    @Test
+    public void getInternalAssertion() throws Exception {
+        final AuthenticatorGetAssertionOptions options = AuthenticatorGetAssertionOptions.fromJSON(AuthenticatorTest.GET_ASSERTION_JSON);
+        final PublicKeyCredentialSource credential = credentialSafe.generateCredential(options.rpId, null, "benchmark");
+
+        MicroBenchmark.measure("getInternalAssertion", WARMUP / 10, ASSERTION_ITERATIONS, new MicroBenchmark.Operation() {
+            @Override
+            public void run() throws Exception {
+                authenticator.getInternalAssertion(options, credential);
+            }
+        });
+    }
+
+    @Test
+    public void assertionJson() throws Exception {
+        AuthenticatorGetAssertionOptions options = AuthenticatorGetAssertionOptions.fromJSON(AuthenticatorTest.GET_ASSERTION_JSON);
+        PublicKeyCredentialSource credential = credentialSafe.generateCredential(options.rpId, new byte[10], "benchmark");
+        final AuthenticatorGetAssertionResult result = authenticator.getInternalAssertion(options, credential);
+        final StringWriter writer = new StringWriter(result.jsonSize());
+
+        MicroBenchmark.measure("assertionToJson", WARMUP, ITERATIONS, new MicroBenchmark.Operation() {
+            @Override
+            public void run() {
+                result.toJson();
+            }
+        });
+        MicroBenchmark.measure("assertionWriteJson", WARMUP, ITERATIONS, new MicroBenchmark.Operation() {
+            @Override
+            public void run() throws Exception {
+                writer.getBuffer().setLength(0);
+                result.writeJson(writer);
+            }
+        });
+    }
+}
@@ -0,0 +1,171 @@
+package duo.labs.webauthn.benchmark;
+
+import android.content.Context;
+import android.os.Debug;
+import android.support.test.InstrumentationRegistry;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.util.Locale;
+import java.util.Properties;
+
+import static org.junit.Assert.*;
+
+/**
+ * MicroBenchmark is a minimal on-device harness that reports time, bytes allocated and garbage
+ * collections per operation.
+ * <p>
+ * Allocations and garbage collections come from the ART runtime statistics (art.gc.*). They are
+ * process-wide, so allocations made by other threads while an operation runs are attributed to
+ * it too; the instrumentation process is otherwise idle during the benchmarks. ART accounts for
+ * allocations a thread-local buffer at a time, which averages out over the measured iterations.
+ * <p>
+ * Allocation budgets for some operations are checked in as BASELINE_ASSET. An operation that
+ * allocates more than its budget plus BASELINE_TOLERANCE, or BASELINE_SLACK_BYTES per operation if
+ * that is more, fails. Every result is also appended to RESULTS_FILE in the files directory, in
+ * the same format, for updating the baseline.
+ */
+public class MicroBenchmark {
+    private static final String TAG = "WebauthnBenchmark";
+    private static final String BYTES_ALLOCATED_STAT = "art.gc.bytes-allocated";
+    private static final String GC_COUNT_STAT = "art.gc.gc-count";
+    private static final String GC_TIME_STAT = "art.gc.gc-time";
+    public static final String BASELINE_ASSET = "benchmark-baseline.properties";
+    public static final String RESULTS_FILE = "benchmark-results.properties";
+    public static final double BASELINE_TOLERANCE = 0.1;
+    public static final double BASELINE_SLACK_BYTES = 16;
+
+    private static Properties baseline;
+
+    public interface Operation {
+        void run() throws Exception;
+    }
+
+    public static class Result {
+        public final String name;
+        public final int iterations;
+        public final double nanosPerOp;
+        // negative if the runtime doesn't report allocations
+        public final double bytesPerOp;
+        public final long gcCount;
+        public final long gcTimeMillis;
+
+        Result(String name, int iterations, long elapsedNanos, long bytes, long gcCount, long gcTimeMillis) {
+            this.name = name;
+            this.iterations = iterations;
+            this.nanosPerOp = (double) elapsedNanos / iterations;
+            this.bytesPerOp = bytes < 0 ? -1 : (double) bytes / iterations;
+            this.gcCount = gcCount;
+            this.gcTimeMillis = gcTimeMillis;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%s: %.1f ns/op, %.1f B/op, %d GCs (%d ms) (%d iterations)",
+                    name, nanosPerOp, bytesPerOp, gcCount, gcTimeMillis, iterations);
+        }
+    }
+
+    /**
+     * Run an operation repeatedly and measure its average cost, then check its allocations
+     * against the baseline.
+     *
+     * @param name       A human-readable name for the results, and its key in the baseline
+     * @param warmup     Number of untimed iterations to run first
+     * @param iterations Number of measured iterations
+     * @param operation  The operation under test
+     * @return the measured result, which is also written to the log
+     * @throws Exception if the operation fails
+     */
+    public static Result measure(String name, int warmup, int iterations, Operation operation) throws Exception {
+        for (int i = 0; i < warmup; i++) {
+            operation.run();
+        }
+
+        long gcCountBefore = runtimeStat(GC_COUNT_STAT);
+        long gcTimeBefore = runtimeStat(GC_TIME_STAT);
+        // read the allocation counter right next to the loop, since reading statistics allocates
+        long bytesBefore = runtimeStat(BYTES_ALLOCATED_STAT);
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            operation.run();
+        }
+        long elapsed = System.nanoTime() - start;
+        long bytesAfter = runtimeStat(BYTES_ALLOCATED_STAT);
+        long gcCount = runtimeStat(GC_COUNT_STAT) - gcCountBefore;
+        long gcTime = runtimeStat(GC_TIME_STAT) - gcTimeBefore;
+
+        long bytes = bytesBefore < 0 || bytesAfter < 0 ? -1 : bytesAfter - bytesBefore;
+        Result result = new Result(name, iterations, elapsed, bytes, gcCount, gcTime);
+        Log.i(TAG, result.toString());
+        if (result.bytesPerOp >= 0) {
+            record(result);
+            checkBaseline(result);
+        }
+        return result;
+    }
+
+    private static void checkBaseline(Result result) throws IOException {
+        String budget = loadBaseline().getProperty(result.name);
+        if (budget == null) {
+            Log.i(TAG, result.name + " has no baseline");
+            return;
+        }
+        double budgetBytes = Double.parseDouble(budget);
+        double limit = Math.max(budgetBytes * (1 + BASELINE_TOLERANCE), budgetBytes + BASELINE_SLACK_BYTES);
+        assertTrue(String.format(Locale.US, "%s allocated %.1f B/op, baseline is %.1f B/op",
+                result.name, result.bytesPerOp, budgetBytes), result.bytesPerOp <= limit);
+    }
+
+    private static synchronized Properties loadBaseline() throws IOException {
+        if (baseline == null) {
+            Properties properties = new Properties();
+            try {
+                InputStream in = InstrumentationRegistry.getContext().getAssets().open(BASELINE_ASSET);
+                try {
+                    properties.load(in);
+                } finally {
+                    in.close();
+                }
+            } catch (FileNotFoundException e) {
+                Log.w(TAG, "no benchmark baseline, results are only reported");
+            }
+            baseline = properties;
+        }
+        return baseline;
+    }
+
+    private static synchronized void record(Result result) {
+        Context ctx = InstrumentationRegistry.getContext();
+        try {
+            Writer writer = new FileWriter(new File(ctx.getFilesDir(), RESULTS_FILE), true);
+            try {
+                // names like "isValid[ascii,cache=0]" need escaping to be read back as keys
+                String key = result.name.replace("=", "\\=").replace(":", "\\:").replace(" ", "\\ ");
+                writer.write(String.format(Locale.US, "%s=%.1f%n", key, result.bytesPerOp));
+            } finally {
+                writer.close();
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "couldn't record benchmark result", e);
+        }
+    }
+
+    // runtime statistics are reported as strings, and are missing on runtimes that don't track them
+    private static long runtimeStat(String statName) {
+        String value = Debug.getRuntimeStat(statName);
+        if (value == null) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
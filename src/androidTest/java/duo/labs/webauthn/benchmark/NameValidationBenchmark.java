@@ -0,0 +1,64 @@
+package duo.labs.webauthn.benchmark;
+
+import org.junit.After;
+import org.junit.Test;
+
+import duo.labs.webauthn.AuthenticatorTest;
+import duo.labs.webauthn.models.AuthenticatorMakeCredentialOptions;
+import duo.labs.webauthn.util.PrecisNameValidator;
+import rocks.xmpp.precis.PrecisProfiles;
+
+/**
+ * Cost of PRECIS name validation with and without the validated name cache, for ASCII and
+ * non-Latin names, and its share of AuthenticatorMakeCredentialOptions.areWellFormed. Results are
+ * written to the log by MicroBenchmark.
+ */
+public class NameValidationBenchmark {
+    private static final int WARMUP = 1000;
+    private static final int ITERATIONS = 10000;
+
+    private static final String[][] NAMES = {
+            {"ascii", "webauthn.io"},
+            // Cyrillic "polzovatel" (user)
+            {"cyrillic", "\u043f\u043e\u043b\u044c\u0437\u043e\u0432\u0430\u0442\u0435\u043b\u044c"},
+            // Japanese "Yamada Taro" in kanji
+            {"cjk", "\u5c71\u7530\u592a\u90ce"},
+            // Greek "Athena", with a decomposed accent that normalization has to compose
+            {"greekDecomposed", "\u0391\u03b8\u03b7\u03bd\u03b1\u0301"},
+    };
+
+    @After
+    public void tearDown() {
+        AuthenticatorMakeCredentialOptions.getNameValidator().setCacheSize(PrecisNameValidator.DEFAULT_CACHE_SIZE);
+    }
+
+    @Test
+    public void isValid() throws Exception {
+        for (int cacheSize : new int[]{0, PrecisNameValidator.DEFAULT_CACHE_SIZE}) {
+            final PrecisNameValidator validator = new PrecisNameValidator(PrecisProfiles.USERNAME_CASE_PRESERVED, cacheSize);
+            for (String[] name : NAMES) {
+                final String value = name[1];
+                MicroBenchmark.measure("isValid[" + name[0] + ",cache=" + cacheSize + "]", WARMUP, ITERATIONS, new MicroBenchmark.Operation() {
+                    @Override
+                    public void run() {
+                        validator.isValid(value);
+                    }
+                });
+            }
+        }
+    }
+
+    @Test
+    public void areWellFormed() throws Exception {
+        final AuthenticatorMakeCredentialOptions options = AuthenticatorMakeCredentialOptions.fromJSON(AuthenticatorTest.MAKE_CREDENTIAL_JSON);
+        for (int cacheSize : new int[]{0, PrecisNameValidator.DEFAULT_CACHE_SIZE}) {
+            AuthenticatorMakeCredentialOptions.getNameValidator().setCacheSize(cacheSize);
+            MicroBenchmark.measure("makeCredentialOptionsAreWellFormed[cache=" + cacheSize + "]", WARMUP, ITERATIONS, new MicroBenchmark.Operation() {
+                @Override
+                public void run() {
+                    options.areWellFormed();
+                }
+            });
+        }
+    }
+}
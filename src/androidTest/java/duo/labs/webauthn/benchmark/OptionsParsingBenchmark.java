@@ -0,0 +1,107 @@
+package duo.labs.webauthn.benchmark;
+
+import android.util.Base64;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import duo.labs.webauthn.models.AuthenticatorGetAssertionOptions;
+import duo.labs.webauthn.models.AuthenticatorMakeCredentialOptions;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Parsing cost of makeCredential / getAssertion options with large exclude and allow lists, where
+ * descriptor decoding dominates. Results are written to the log by MicroBenchmark.
+ */
+public class OptionsParsingBenchmark {
+    private static final int WARMUP = 20;
+    private static final int ITERATIONS = 200;
+    private static final int[] LIST_SIZES = {16, 256, 2048};
+
+    private static List<byte[]> randomIds(int count) {
+        Random random = new Random(count);
+        List<byte[]> ids = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            byte[] id = new byte[64];
+            random.nextBytes(id);
+            ids.add(id);
+        }
+        return ids;
+    }
+
+    private static String descriptorList(List<byte[]> ids) {
+        StringBuilder json = new StringBuilder("[");
+        for (int i = 0; i < ids.size(); i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("{\"type\":\"public-key\",\"id\":\"")
+                    .append(Base64.encodeToString(ids.get(i), Base64.NO_WRAP))
+                    .append("\",\"transports\":[\"usb\",\"internal\"]}");
+        }
+        return json.append(']').toString();
+    }
+
+    private static String makeCredentialJson(List<byte[]> excludeIds) {
+        return "{\"clientDataHash\":\"LTCT/hWLtJenIgi0oUhkJz7dE8ng+pej+i6YI1QQu60=\","
+                + "\"credTypesAndPubKeyAlgs\":[[\"public-key\",-7]],"
+                + "\"excludeCredentials\":" + descriptorList(excludeIds) + ","
+                + "\"requireResidentKey\":true,\"requireUserPresence\":true,\"requireUserVerification\":false,"
+                + "\"rp\":{\"name\":\"webauthn.io\",\"id\":\"webauthn.io\"},"
+                + "\"user\":{\"name\":\"testuser\",\"displayName\":\"Test User\",\"id\":\"/QIAAAAAAAAAAA==\"}}";
+    }
+
+    private static String getAssertionJson(List<byte[]> allowIds) {
+        return "{\"allowCredentialDescriptorList\":" + descriptorList(allowIds) + ","
+                + "\"clientDataHash\":\"BWlg/oAqeIhMHkGAo10C3sf4U/sy0IohfKB0OlcfHHU=\","
+                + "\"requireUserPresence\":true,\"requireUserVerification\":false,\"rpId\":\"webauthn.io\"}";
+    }
+
+    @Test
+    public void largeListsDecodeCorrectly() {
+        List<byte[]> ids = randomIds(LIST_SIZES[LIST_SIZES.length - 1]);
+
+        AuthenticatorMakeCredentialOptions makeCredentialOptions = AuthenticatorMakeCredentialOptions.fromJSON(makeCredentialJson(ids));
+        assertEquals(ids.size(), makeCredentialOptions.excludeCredentialDescriptorList.size());
+        AuthenticatorGetAssertionOptions getAssertionOptions = AuthenticatorGetAssertionOptions.fromJSON(getAssertionJson(ids));
+        assertEquals(ids.size(), getAssertionOptions.allowCredentialDescriptorList.size());
+
+        for (int i = 0; i < ids.size(); i++) {
+            assertArrayEquals(ids.get(i), makeCredentialOptions.excludeCredentialDescriptorList.get(i).id);
+            assertArrayEquals(ids.get(i), getAssertionOptions.allowCredentialDescriptorList.get(i).id);
+            assertEquals("public-key", getAssertionOptions.allowCredentialDescriptorList.get(i).type);
+            assertEquals(2, getAssertionOptions.allowCredentialDescriptorList.get(i).transports.size());
+        }
+    }
+
+    @Test
+    public void largeExcludeList() throws Exception {
+        for (int size : LIST_SIZES) {
+            final String json = makeCredentialJson(randomIds(size));
+            MicroBenchmark.measure("makeCredentialOptionsFromJSON[exclude=" + size + "]", WARMUP, ITERATIONS, new MicroBenchmark.Operation() {
+                @Override
+                public void run() {
+                    AuthenticatorMakeCredentialOptions.fromJSON(json);
+                }
+            });
+        }
+    }
+
+    @Test
+    public void largeAllowList() throws Exception {
+        for (int size : LIST_SIZES) {
+            final String json = getAssertionJson(randomIds(size));
+            MicroBenchmark.measure("getAssertionOptionsFromJSON[allow=" + size + "]", WARMUP, ITERATIONS, new MicroBenchmark.Operation() {
+                @Override
+                public void run() {
+                    AuthenticatorGetAssertionOptions.fromJSON(json);
+                }
+            });
+        }
+    }
+}
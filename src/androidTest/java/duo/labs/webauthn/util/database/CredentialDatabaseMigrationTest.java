@@ -0,0 +1,87 @@
+package duo.labs.webauthn.util.database;
+
+import android.arch.persistence.db.SupportSQLiteDatabase;
+import android.arch.persistence.db.framework.FrameworkSQLiteOpenHelperFactory;
+import android.arch.persistence.room.testing.MigrationTestHelper;
+import android.database.Cursor;
+import android.support.test.InstrumentationRegistry;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+/**
+ * Migrates a version 3 database with credentials in it to the current version, checking the
+ * schema against the exported schemas in each step and the data at the end.
+ */
+public class CredentialDatabaseMigrationTest {
+    private static final String TEST_DB = "migration-test";
+    private static final byte[] FIRST_ID = {1, 2, 3};
+    private static final byte[] SECOND_ID = {4, 5, 6};
+
+    @Rule
+    public MigrationTestHelper helper = new MigrationTestHelper(InstrumentationRegistry.getInstrumentation(),
+            CredentialDatabase.class.getCanonicalName(), new FrameworkSQLiteOpenHelperFactory());
+
+    @Test
+    public void migrate3To9() throws IOException {
+        SupportSQLiteDatabase db = helper.createDatabase(TEST_DB, 3);
+        db.execSQL("INSERT INTO credentials (id, keyPairAlias, rpId, userHandle, userDisplayName, otherUI, keyUseCounter) VALUES (?, ?, ?, ?, ?, ?, ?)",
+                new Object[]{FIRST_ID, "alias-1", "a.example", new byte[]{9}, "first", null, 5});
+        db.execSQL("INSERT INTO credentials (id, keyPairAlias, rpId, userHandle, userDisplayName, otherUI, keyUseCounter) VALUES (?, ?, ?, ?, ?, ?, ?)",
+                new Object[]{SECOND_ID, "alias-2", "b.example", null, "second", null, 1});
+        db.close();
+
+        db = helper.runMigrationsAndValidate(TEST_DB, 9, true,
+                CredentialDatabase.MIGRATION_3_4, CredentialDatabase.MIGRATION_4_5, CredentialDatabase.MIGRATION_5_6,
+                CredentialDatabase.MIGRATION_6_7, CredentialDatabase.MIGRATION_7_8, CredentialDatabase.MIGRATION_8_9);
+
+        Cursor cursor = db.query("SELECT roomUid, id, keyPairAlias, rpId, userHandle, userDisplayName, cosePublicKey, keyCurve, keyAlgorithm FROM credentials ORDER BY roomUid");
+        try {
+            assertEquals(2, cursor.getCount());
+            assertTrue(cursor.moveToNext());
+            assertArrayEquals(FIRST_ID, cursor.getBlob(1));
+            assertEquals("alias-1", cursor.getString(2));
+            assertEquals("a.example", cursor.getString(3));
+            assertArrayEquals(new byte[]{9}, cursor.getBlob(4));
+            assertEquals("first", cursor.getString(5));
+            // filled in from the key store on first use
+            assertTrue(cursor.isNull(6));
+            // every key created before version 6 is ES256 on P-256
+            assertEquals("secp256r1", cursor.getString(7));
+            assertEquals(-7, cursor.getInt(8));
+            assertTrue(cursor.moveToNext());
+            assertArrayEquals(SECOND_ID, cursor.getBlob(1));
+            assertEquals("b.example", cursor.getString(3));
+            assertTrue(cursor.isNull(4));
+        } finally {
+            cursor.close();
+        }
+
+        // the counters moved to their own table in version 8 and took a copy of the rpId in 9
+        cursor = db.query("SELECT n.keyUseCounter, n.lastUsed, n.rpId FROM credential_counters n INNER JOIN credentials c ON c.roomUid = n.roomUid ORDER BY c.roomUid");
+        try {
+            assertEquals(2, cursor.getCount());
+            assertTrue(cursor.moveToNext());
+            assertEquals(5, cursor.getInt(0));
+            assertEquals(0, cursor.getLong(1));
+            assertEquals("a.example", cursor.getString(2));
+            assertTrue(cursor.moveToNext());
+            assertEquals(1, cursor.getInt(0));
+            assertEquals("b.example", cursor.getString(2));
+        } finally {
+            cursor.close();
+        }
+
+        // the credential ID is still unique
+        try {
+            db.execSQL("INSERT INTO credentials (id, keyAlgorithm) VALUES (?, -7)", new Object[]{FIRST_ID});
+            fail("duplicate credential ID was inserted");
+        } catch (RuntimeException e) {
+            // expected: SQLiteConstraintException
+        }
+    }
+}
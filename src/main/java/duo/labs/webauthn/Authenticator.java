@@ -7,19 +7,20 @@ import android.os.CancellationSignal;
 import android.util.Log;
 import android.util.Pair;
 
-import java.nio.ByteBuffer;
 import java.security.KeyPair;
 import java.security.PrivateKey;
 import java.security.Signature;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Set;
-import java.util.concurrent.Exchanger;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.BiConsumer;
 
 import duo.labs.webauthn.exceptions.ConstraintError;
 import duo.labs.webauthn.exceptions.InvalidStateError;
+import duo.labs.webauthn.exceptions.NoCredentialsError;
 import duo.labs.webauthn.exceptions.NotAllowedError;
 import duo.labs.webauthn.exceptions.NotSupportedError;
 import duo.labs.webauthn.exceptions.UnknownError;
@@ -29,13 +30,23 @@ import duo.labs.webauthn.models.AttestationObject;
 import duo.labs.webauthn.models.AuthenticatorGetAssertionOptions;
 import duo.labs.webauthn.models.AuthenticatorGetAssertionResult;
 import duo.labs.webauthn.models.AuthenticatorMakeCredentialOptions;
+import duo.labs.webauthn.models.CredentialSelectionItem;
 import duo.labs.webauthn.models.NoneAttestationObject;
 import duo.labs.webauthn.models.PublicKeyCredentialDescriptor;
 import duo.labs.webauthn.models.PublicKeyCredentialSource;
+import duo.labs.webauthn.util.AsyncCredentialSelector;
+import duo.labs.webauthn.util.AuthenticatorDataEncoder;
+import duo.labs.webauthn.util.BiometricExcludedCredentialCallback;
 import duo.labs.webauthn.util.BiometricGetAssertionCallback;
 import duo.labs.webauthn.util.BiometricMakeCredentialCallback;
-import duo.labs.webauthn.util.CredentialSelector;
+import duo.labs.webauthn.util.CeremonyObserver;
+import duo.labs.webauthn.util.CeremonyObserver.Ceremony;
+import duo.labs.webauthn.util.CeremonyObserver.Step;
+import duo.labs.webauthn.util.CredentialItemSelector;
 import duo.labs.webauthn.util.CredentialSafe;
+import duo.labs.webauthn.util.CredentialSelector;
+import duo.labs.webauthn.util.KeyPairPool;
+import duo.labs.webauthn.util.RememberedCredentialPolicy;
 import duo.labs.webauthn.util.WebAuthnCryptography;
 
 public class Authenticator {
@@ -46,6 +57,9 @@ public class Authenticator {
     private static final Pair<String, Long> ES256_COSE = new Pair<>("public-key", (long) -7);
     CredentialSafe credentialSafe;
     WebAuthnCryptography cryptoProvider;
+    private volatile boolean skipKeyGenerationWhenExcluded = false;
+    private volatile CeremonyObserver ceremonyObserver;
+    private volatile RememberedCredentialPolicy rememberedCredentialPolicy;
 
     /**
      * Construct a WebAuthn authenticator backed by a credential safe and cryptography provider.
@@ -55,10 +69,63 @@ public class Authenticator {
      * @param strongboxRequired      require that keys are stored in HSM
      */
     public Authenticator(Context ctx, boolean authenticationRequired, boolean strongboxRequired) throws VirgilException {
-        this.credentialSafe = new CredentialSafe(ctx, authenticationRequired, strongboxRequired);
+        this(new CredentialSafe(ctx, authenticationRequired, strongboxRequired));
+    }
+
+    /**
+     * Construct a WebAuthn authenticator on top of an existing credential safe, e.g. one backed
+     * by a SoftwareKeyBackend for tests and benchmarks.
+     *
+     * @param credentialSafe The credential safe holding this authenticator's credentials
+     */
+    public Authenticator(CredentialSafe credentialSafe) {
+        this.credentialSafe = credentialSafe;
         this.cryptoProvider = new WebAuthnCryptography(this.credentialSafe);
     }
 
+    /**
+     * Skip key generation for makeCredential requests whose excludeCredentialDescriptorList
+     * matches an existing credential. The user is still asked for consent before the request
+     * fails with InvalidStateError, but no key is generated and then thrown away. Off by default.
+     *
+     * @param skipKeyGenerationWhenExcluded whether to skip key generation for excluded requests
+     */
+    public void setSkipKeyGenerationWhenExcluded(boolean skipKeyGenerationWhenExcluded) {
+        this.skipKeyGenerationWhenExcluded = skipKeyGenerationWhenExcluded;
+    }
+
+    /**
+     * Report the duration and outcome of each ceremony step, e.g. to a LatencyHistogramObserver.
+     *
+     * @param ceremonyObserver The observer to notify, or null to stop reporting
+     */
+    public void setCeremonyObserver(CeremonyObserver ceremonyObserver) {
+        this.ceremonyObserver = ceremonyObserver;
+    }
+
+    /**
+     * Let getAssertion use a remembered credential, e.g. from RememberedCredentials, instead of
+     * asking the CredentialItemSelector when several credentials match a request. Off by default.
+     *
+     * @param rememberedCredentialPolicy The policy to consult, or null to always ask the selector
+     */
+    public void setRememberedCredentialPolicy(RememberedCredentialPolicy rememberedCredentialPolicy) {
+        this.rememberedCredentialPolicy = rememberedCredentialPolicy;
+    }
+
+    /**
+     * Keep a pool of pre-generated key pairs so makeCredential doesn't have to wait for key
+     * generation before prompting the user.
+     *
+     * @param size         The number of key pairs to keep available
+     * @param refillPolicy When the pool should generate replacement keys
+     * @return The pool, for adjusting its configuration and reading its hit/miss metrics
+     * @throws VirgilException
+     */
+    public KeyPairPool enableKeyPairPool(int size, KeyPairPool.RefillPolicy refillPolicy) throws VirgilException {
+        return this.credentialSafe.enableKeyPairPool(size, refillPolicy);
+    }
+
     /**
      * Perform the authenticatorMakeCredential operation as defined by the WebAuthn spec: https://www.w3.org/TR/webauthn/#op-make-cred
      * This will fail if the Authenticator is configured with authentication required
@@ -78,6 +145,8 @@ public class Authenticator {
 
     /**
      * Perform the authenticatorMakeCredential operation as defined by the WebAuthn spec: https://www.w3.org/TR/webauthn/#op-make-cred
+     * This blocks until the operation completes, so it should not be called from the main thread.
+     * See makeCredentialAsync.
      *
      * @param options The options / arguments to the authenticatorMakeCredential operation.
      * @param ctx     The Main/UI context to be used to display a biometric prompt (if required)
@@ -86,42 +155,91 @@ public class Authenticator {
      * @throws WebAuthnException
      */
     public AttestationObject makeCredential(AuthenticatorMakeCredentialOptions options, Context ctx, CancellationSignal cancellationSignal) throws WebAuthnException, VirgilException {
+        return await(makeCredentialAsync(options, ctx, cancellationSignal));
+    }
+
+    /**
+     * Perform the authenticatorMakeCredential operation as defined by the WebAuthn spec: https://www.w3.org/TR/webauthn/#op-make-cred
+     * If user verification is required, the returned future is completed from the biometric
+     * prompt callback rather than by blocking the calling thread. When called from the main
+     * thread, the database work runs on the credential database executor.
+     *
+     * @param options The options / arguments to the authenticatorMakeCredential operation.
+     * @param ctx     The Main/UI context to be used to display a biometric prompt (if required)
+     * @return a future for an AttestationObject containing the new credential and attestation
+     * information. It completes exceptionally with a WebAuthnException or VirgilException on failure.
+     */
+    public CompletableFuture<AttestationObject> makeCredentialAsync(final AuthenticatorMakeCredentialOptions options, final Context ctx, final CancellationSignal cancellationSignal) {
+        final CompletableFuture<AttestationObject> result = new CompletableFuture<>();
+        observeCeremony(result, Ceremony.MAKE_CREDENTIAL);
+        runOffMainThread(result, new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    makeCredential(options, ctx, cancellationSignal, result);
+                } catch (WebAuthnException | VirgilException e) {
+                    result.completeExceptionally(e);
+                } catch (RuntimeException e) {
+                    // e.g. a database error; the blocking wrappers would wait forever otherwise
+                    result.completeExceptionally(e);
+                }
+            }
+        });
+        return result;
+    }
+
+    private void makeCredential(AuthenticatorMakeCredentialOptions options, Context ctx, CancellationSignal cancellationSignal, final CompletableFuture<AttestationObject> result) throws WebAuthnException, VirgilException {
         // We use a flag here rather than explicitly invoking deny-behavior here because the
         // WebAuthn spec asks us to pretend everything is normal for a while (asking user consent)
         // in order to ensure privacy guarantees.
         boolean excludeFlag = false; // whether the excludeCredentialDescriptorList matched one of our credentials
 
         // 1. Check if all supplied parameters are syntactically well-formed and of the correct length.
+        long stepStart = System.nanoTime();
         if (!options.areWellFormed()) {
             Log.w(TAG, "Credential Options are not syntactically well-formed.");
-            throw new UnknownError();
+            throw failStep(Ceremony.MAKE_CREDENTIAL, Step.OPTIONS_CHECK, stepStart, new UnknownError());
         }
 
         // 2. Check if we support a compatible credential type
         if (!options.credTypesAndPubKeyAlgs.contains(ES256_COSE)) {
             Log.w(TAG, "only ES256 is supported");
-            throw new NotSupportedError();
+            throw failStep(Ceremony.MAKE_CREDENTIAL, Step.OPTIONS_CHECK, stepStart, new NotSupportedError());
+        }
+
+        // (5. Check requireUserVerification, done up front so the request fails without database work)
+        if (options.requireUserVerification && !this.credentialSafe.supportsUserVerification()) {
+            Log.w(TAG, "user verification required but not available");
+            throw failStep(Ceremony.MAKE_CREDENTIAL, Step.OPTIONS_CHECK, stepStart, new ConstraintError());
         }
+        endStep(Ceremony.MAKE_CREDENTIAL, Step.OPTIONS_CHECK, stepStart);
 
         // 3. Check excludeCredentialDescriptorList for existing credentials for this RP
-        if (options.excludeCredentialDescriptorList != null) {
+        // The whole list is resolved with a single lookup against this RP's credentials.
+        if (options.excludeCredentialDescriptorList != null && options.excludeCredentialDescriptorList.size() > 0) {
+            stepStart = System.nanoTime();
+            List<byte[]> excludedCredentialIds = new ArrayList<>(options.excludeCredentialDescriptorList.size());
             for (PublicKeyCredentialDescriptor descriptor : options.excludeCredentialDescriptorList) {
-                // if we already have a credential identified by this id
-                PublicKeyCredentialSource existingCredentialSource = this.credentialSafe.getCredentialSourceById(descriptor.id);
-                if (existingCredentialSource != null && existingCredentialSource.rpId.equals(options.rpEntity.id) && existingCredentialSource.type.equals(descriptor.type)) {
-                    excludeFlag = true;
+                if (PublicKeyCredentialSource.type.equals(descriptor.type)) {
+                    excludedCredentialIds.add(descriptor.id);
                 }
             }
+            excludeFlag = this.credentialSafe.hasKeysForEntity(options.rpEntity.id, excludedCredentialIds);
+            endStep(Ceremony.MAKE_CREDENTIAL, Step.EXCLUDE_CHECK, stepStart);
         }
 
-
         // 4. Check requireResidentKey
         // Our authenticator will store resident keys regardless, so we can disregard the value of this parameter
 
         // 5. Check requireUserVerification
-        if (options.requireUserVerification && !this.credentialSafe.supportsUserVerification()) {
-            Log.w(TAG, "user verification required but not available");
-            throw new ConstraintError();
+        // Already checked along with the options above.
+
+        // If we already know the request is excluded, we can skip generating a credential that
+        // would only be deleted again. We still go through step 6 so that the RP can't tell this
+        // apart from the user declining.
+        if (excludeFlag && this.skipKeyGenerationWhenExcluded) {
+            rejectExcludedCredential(options, ctx, cancellationSignal, result);
+            return;
         }
 
         // NOTE: We are switching the order of Steps 6 and 7/8 because Android needs to have the credential
@@ -129,7 +247,8 @@ public class Authenticator {
         //       We will delete the credential if the biometric prompt fails
 
         // 7. Generate a new credential
-        PublicKeyCredentialSource credentialSource;
+        final PublicKeyCredentialSource credentialSource;
+        stepStart = System.nanoTime();
         try {
             credentialSource = this.credentialSafe.generateCredential(
                     options.rpEntity.id,
@@ -138,23 +257,68 @@ public class Authenticator {
         } catch (VirgilException e) {
             // 8. If any error occurred, return an error code equivalent to "UnknownError"
             Log.w(TAG, "couldn't generate credential", e);
+            failStep(Ceremony.MAKE_CREDENTIAL, Step.KEY_GENERATION, stepStart, e);
             throw new UnknownError();
         }
+        endStep(Ceremony.MAKE_CREDENTIAL, Step.KEY_GENERATION, stepStart);
 
         // 6. Obtain user consent for creating a new credential
         // if we need to obtain user verification, create a biometric prompt for that
         // else just generate a new credential/attestation object
-        AttestationObject attestationObject = null;
         if (credentialSafe.supportsUserVerification()) {
             if (ctx == null) {
+                this.credentialSafe.deleteCredential(credentialSource);
                 throw new VirgilException("User Verification requires passing a context to makeCredential");
             }
 
-            // create an Exchanger to retrieve our attestationObject later
-            Exchanger<AttestationObject> exchanger = new Exchanger<>();
+            // the biometric callback completes this future with our attestationObject
+            CompletableFuture<AttestationObject> consent = new CompletableFuture<>();
+            final boolean excluded = excludeFlag;
+            consent.whenComplete(new BiConsumer<AttestationObject, Throwable>() {
+                @Override
+                public void accept(final AttestationObject attestationObject, final Throwable throwable) {
+                    // a declined prompt completes consent on the main thread, and cleaning up
+                    // needs the database
+                    runOffMainThread(result, new Runnable() {
+                        @Override
+                        public void run() {
+                            try {
+                                if (throwable != null) {
+                                    Log.w(TAG, "Biometric authentication failed.", throwable);
+                                    credentialSafe.deleteCredential(credentialSource);
+                                    result.completeExceptionally(throwable);
+                                    return;
+                                }
+                                completeMakeCredential(result, attestationObject, credentialSource, excluded);
+                            } catch (RuntimeException e) {
+                                result.completeExceptionally(throwable != null ? throwable : e);
+                            }
+                        }
+                    });
+                }
+            });
+
+            // build our biometric callback, reporting how long the user took to respond
+            final long consentStart = System.nanoTime();
+            final BiometricMakeCredentialCallback biometricMakeCredentialCallback = new BiometricMakeCredentialCallback(this, options, credentialSource, consent, credentialSafe.getExecutor()) {
+                @Override
+                public void onAuthenticationSucceeded(BiometricPrompt.AuthenticationResult authenticationResult) {
+                    endStep(Ceremony.MAKE_CREDENTIAL, Step.USER_CONSENT, consentStart);
+                    super.onAuthenticationSucceeded(authenticationResult);
+                }
+
+                @Override
+                public void onAuthenticationError(int errorCode, CharSequence errString) {
+                    failStep(Ceremony.MAKE_CREDENTIAL, Step.USER_CONSENT, consentStart, new NotAllowedError());
+                    super.onAuthenticationError(errorCode, errString);
+                }
 
-            // build our biometric callback
-            final BiometricMakeCredentialCallback biometricMakeCredentialCallback = new BiometricMakeCredentialCallback(this, options, credentialSource, exchanger);
+                @Override
+                public void onAuthenticationCancelled() {
+                    failStep(Ceremony.MAKE_CREDENTIAL, Step.USER_CONSENT, consentStart, new NotAllowedError());
+                    super.onAuthenticationCancelled();
+                }
+            };
             // build the biometric prompt
             BiometricPrompt bp = new BiometricPrompt.Builder(ctx)
                     .setTitle("Make Credential")
@@ -176,31 +340,77 @@ public class Authenticator {
                 cancellationSignal = new CancellationSignal();
             }
             bp.authenticate(cryptoObject, cancellationSignal, ctx.getMainExecutor(), biometricMakeCredentialCallback);
-
+        } else {
+            // MakeCredentialOptions steps 9 through 13
+            AttestationObject attestationObject;
             try {
-                attestationObject = exchanger.exchange(null); // pass null to biometric prompt thread
-            } catch (InterruptedException exception) {
-                throw new VirgilException("Could not retrieve attestationObject from BiometricPrompt: " + exception.toString());
+                attestationObject = makeInternalCredential(options, credentialSource);
+            } catch (WebAuthnException | VirgilException e) {
+                this.credentialSafe.deleteCredential(credentialSource);
+                throw e;
             }
+            completeMakeCredential(result, attestationObject, credentialSource, excludeFlag);
+        }
+    }
 
-            if (attestationObject == null) { // null is sent back on failure
-                this.credentialSafe.deleteCredential(credentialSource);
-                Log.w(TAG, "Biometric authentication failed.");
-                throw new NotAllowedError();
+    private void rejectExcludedCredential(AuthenticatorMakeCredentialOptions options, Context ctx, CancellationSignal cancellationSignal, CompletableFuture<AttestationObject> result) throws WebAuthnException, VirgilException {
+        // without user verification, consent is implied by the request itself
+        if (!credentialSafe.supportsUserVerification()) {
+            Log.w(TAG, "Credential is excluded by excludeCredentialDescriptorList");
+            throw new InvalidStateError();
+        }
+        if (ctx == null) {
+            throw new VirgilException("User Verification requires passing a context to makeCredential");
+        }
+
+        // there is no key to unlock, so the prompt only collects consent
+        final long consentStart = System.nanoTime();
+        final BiometricExcludedCredentialCallback biometricExcludedCredentialCallback = new BiometricExcludedCredentialCallback(result) {
+            @Override
+            public void onAuthenticationSucceeded(BiometricPrompt.AuthenticationResult authenticationResult) {
+                endStep(Ceremony.MAKE_CREDENTIAL, Step.USER_CONSENT, consentStart);
+                super.onAuthenticationSucceeded(authenticationResult);
             }
-        } else {
-            // MakeCredentialOptions steps 9 through 13
-            attestationObject = makeInternalCredential(options, credentialSource);
+
+            @Override
+            public void onAuthenticationError(int errorCode, CharSequence errString) {
+                failStep(Ceremony.MAKE_CREDENTIAL, Step.USER_CONSENT, consentStart, new NotAllowedError());
+                super.onAuthenticationError(errorCode, errString);
+            }
+
+            @Override
+            public void onAuthenticationCancelled() {
+                failStep(Ceremony.MAKE_CREDENTIAL, Step.USER_CONSENT, consentStart, new NotAllowedError());
+                super.onAuthenticationCancelled();
+            }
+        };
+        BiometricPrompt bp = new BiometricPrompt.Builder(ctx)
+                .setTitle("Make Credential")
+                .setSubtitle("Creating new credential for " + options.rpEntity.id)
+                .setDescription("Username: " + options.userEntity.name)
+                .setNegativeButton("Cancel", ctx.getMainExecutor(), new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        biometricExcludedCredentialCallback.onAuthenticationCancelled();
+                    }
+                }).build();
+
+        if (cancellationSignal == null) {
+            cancellationSignal = new CancellationSignal();
         }
+        bp.authenticate(cancellationSignal, ctx.getMainExecutor(), biometricExcludedCredentialCallback);
+    }
 
+    private void completeMakeCredential(CompletableFuture<AttestationObject> result, AttestationObject attestationObject, PublicKeyCredentialSource credentialSource, boolean excludeFlag) {
         // We finish up step 3 here by checking excludeFlag at the end (so we've still gotten
         // the user's consent to create a credential etc).
         if (excludeFlag) {
             this.credentialSafe.deleteCredential(credentialSource);
             Log.w(TAG, "Credential is excluded by excludeCredentialDescriptorList");
-            throw new InvalidStateError();
+            result.completeExceptionally(new InvalidStateError());
+            return;
         }
-        return attestationObject;
+        result.complete(attestationObject);
     }
 
     /**
@@ -236,14 +446,36 @@ public class Authenticator {
         // It is created and initialized to 0 during creation in step 7
 
         // 11. Generate attested credential data
-        byte[] attestedCredentialData = constructAttestedCredentialData(credentialSource);
+        // The public key was COSE-encoded when the credential was generated, so we only need the
+        // keystore here if we weren't handed an already-initialized signature object.
+        long stepStart = System.nanoTime();
+        AuthenticatorDataEncoder encoder;
+        try {
+            byte[] encodedPublicKey = this.credentialSafe.getCosePublicKey(credentialSource);
 
-        // 12. Create authenticatorData byte array
-        byte[] rpIdHash = this.cryptoProvider.sha256(options.rpEntity.id); // 32 bytes
-        byte[] authenticatorData = constructAuthenticatorData(rpIdHash, attestedCredentialData, 0); // 141 bytes
+            // 12. Create authenticatorData byte array
+            // The encoder writes authenticatorData and clientDataHash back to back so the data to be
+            // signed in step 13 does not need to be copied into a second buffer.
+            byte[] rpIdHash = this.cryptoProvider.sha256(options.rpEntity.id); // 32 bytes
+            encoder = constructAuthenticatorData(rpIdHash, credentialSource.id, encodedPublicKey, 0, options.clientDataHash); // 141 bytes + clientDataHash
+        } catch (VirgilException e) {
+            throw failStep(Ceremony.MAKE_CREDENTIAL, Step.AUTHENTICATOR_DATA, stepStart, e);
+        }
+        endStep(Ceremony.MAKE_CREDENTIAL, Step.AUTHENTICATOR_DATA, stepStart);
 
         // 13. Return attestation object
-        AttestationObject attestationObject = constructAttestationObject(authenticatorData, options.clientDataHash, credentialSource.keyPairAlias, signature);
+        stepStart = System.nanoTime();
+        AttestationObject attestationObject;
+        try {
+            PrivateKey privateKey = null;
+            if (signature == null) {
+                privateKey = this.credentialSafe.getKeyPairByAlias(credentialSource.keyPairAlias).getPrivate();
+            }
+            attestationObject = constructAttestationObject(encoder, privateKey, signature);
+        } catch (VirgilException e) {
+            throw failStep(Ceremony.MAKE_CREDENTIAL, Step.SIGNATURE, stepStart, e);
+        }
+        endStep(Ceremony.MAKE_CREDENTIAL, Step.SIGNATURE, stepStart);
         return attestationObject;
     }
 
@@ -251,12 +483,12 @@ public class Authenticator {
      * Perform the authenticatorGetAssertion operation as defined by the WebAuthn spec: https://www.w3.org/TR/webauthn/#op-get-assertion
      *
      * @param options            The options / arguments to the authenticatorGetAssertion operation.
-     * @param credentialSelector A CredentialSelector object that can, if needed, prompt the user to select a credential
+     * @param credentialSelector A CredentialItemSelector object that can, if needed, prompt the user to select a credential
      * @return a record class containing the output of the authenticatorGetAssertion operation.
      * @throws WebAuthnException
      * @throws VirgilException
      */
-    public AuthenticatorGetAssertionResult getAssertion(AuthenticatorGetAssertionOptions options, CredentialSelector credentialSelector) throws WebAuthnException, VirgilException {
+    public AuthenticatorGetAssertionResult getAssertion(AuthenticatorGetAssertionOptions options, CredentialItemSelector credentialSelector) throws WebAuthnException, VirgilException {
         return getAssertion(options, credentialSelector, null, null);
     }
 
@@ -264,73 +496,246 @@ public class Authenticator {
      * Perform the authenticatorGetAssertion operation as defined by the WebAuthn spec: https://www.w3.org/TR/webauthn/#op-get-assertion
      *
      * @param options            The options / arguments to the authenticatorGetAssertion operation.
-     * @param credentialSelector A CredentialSelector object that can, if needed, prompt the user to select a credential
+     * @param credentialSelector A CredentialItemSelector object that can, if needed, prompt the user to select a credential
      * @param ctx                The Main/UI context to be used to display a biometric prompt (if required)
      * @return a record class containing the output of the authenticatorGetAssertion operation.
      * @throws WebAuthnException
      * @throws VirgilException
      */
+    public AuthenticatorGetAssertionResult getAssertion(AuthenticatorGetAssertionOptions options, CredentialItemSelector credentialSelector, Context ctx, CancellationSignal cancellationSignal) throws WebAuthnException, VirgilException {
+        return await(getAssertionAsync(options, credentialSelector, ctx, cancellationSignal));
+    }
+
+    /**
+     * Perform the authenticatorGetAssertion operation as defined by the WebAuthn spec: https://www.w3.org/TR/webauthn/#op-get-assertion
+     * If user verification is required, the returned future is completed from the biometric
+     * prompt callback rather than by blocking the calling thread. When called from the main
+     * thread, the database work runs on the credential database executor.
+     * <p>
+     * selectFrom is called on the thread doing the ceremony's database work, which is a database
+     * executor thread when this is called from the main thread. A selector that waits for the
+     * user holds that thread meanwhile, so it should implement AsyncCredentialSelector and be
+     * passed to getAssertionAsyncSelecting instead.
+     *
+     * @param options            The options / arguments to the authenticatorGetAssertion operation.
+     * @param credentialSelector A CredentialItemSelector object that can, if needed, prompt the user to select a credential
+     * @param ctx                The Main/UI context to be used to display a biometric prompt (if required)
+     * @return a future for the output of the authenticatorGetAssertion operation. It completes
+     * exceptionally with a WebAuthnException or VirgilException on failure.
+     */
+    public CompletableFuture<AuthenticatorGetAssertionResult> getAssertionAsync(AuthenticatorGetAssertionOptions options, final CredentialItemSelector credentialSelector, Context ctx, CancellationSignal cancellationSignal) {
+        return getAssertionAsyncSelecting(options, new AsyncCredentialSelector() {
+            @Override
+            public CompletableFuture<CredentialSelectionItem> selectFromAsync(List<CredentialSelectionItem> credentialList) {
+                return CompletableFuture.completedFuture(credentialSelector.selectFrom(credentialList));
+            }
+        }, ctx, cancellationSignal);
+    }
+
+    /**
+     * @deprecated Use the CredentialItemSelector overload, which only loads the chosen credential
+     * in full.
+     */
+    @Deprecated
+    public AuthenticatorGetAssertionResult getAssertion(AuthenticatorGetAssertionOptions options, CredentialSelector credentialSelector) throws WebAuthnException, VirgilException {
+        return getAssertion(options, loadingFullCredentials(credentialSelector), null, null);
+    }
+
+    /**
+     * @deprecated Use the CredentialItemSelector overload, which only loads the chosen credential
+     * in full.
+     */
+    @Deprecated
     public AuthenticatorGetAssertionResult getAssertion(AuthenticatorGetAssertionOptions options, CredentialSelector credentialSelector, Context ctx, CancellationSignal cancellationSignal) throws WebAuthnException, VirgilException {
+        return getAssertion(options, loadingFullCredentials(credentialSelector), ctx, cancellationSignal);
+    }
+
+    /**
+     * @deprecated Use the CredentialItemSelector overload, which only loads the chosen credential
+     * in full.
+     */
+    @Deprecated
+    public CompletableFuture<AuthenticatorGetAssertionResult> getAssertionAsync(AuthenticatorGetAssertionOptions options, CredentialSelector credentialSelector, Context ctx, CancellationSignal cancellationSignal) {
+        return getAssertionAsync(options, loadingFullCredentials(credentialSelector), ctx, cancellationSignal);
+    }
+
+    // Lets a selector written for full credentials choose from selection items. Each matching
+    // credential is loaded, as getAssertion did before selection items existed; this runs on the
+    // thread doing the ceremony's database work.
+    private CredentialItemSelector loadingFullCredentials(final CredentialSelector credentialSelector) {
+        return new CredentialItemSelector() {
+            @Override
+            public CredentialSelectionItem selectFrom(List<CredentialSelectionItem> credentialList) {
+                List<PublicKeyCredentialSource> credentials = new ArrayList<>(credentialList.size());
+                for (CredentialSelectionItem item : credentialList) {
+                    PublicKeyCredentialSource credential = credentialSafe.getCredentialSource(item);
+                    if (credential != null) {
+                        credentials.add(credential);
+                    }
+                }
+                PublicKeyCredentialSource selected = credentialSelector.selectFrom(credentials);
+                if (selected == null) {
+                    return null;
+                }
+                for (CredentialSelectionItem item : credentialList) {
+                    if (item.roomUid == selected.roomUid) {
+                        return item;
+                    }
+                }
+                return null;
+            }
+        };
+    }
+
+    /**
+     * Perform the authenticatorGetAssertion operation as defined by the WebAuthn spec: https://www.w3.org/TR/webauthn/#op-get-assertion
+     * No thread is blocked while the user selects a credential: the operation carries on when
+     * the selector's future completes. It has its own name because SelectCredentialDialogFragment
+     * is both a CredentialItemSelector and an AsyncCredentialSelector.
+     *
+     * @param options            The options / arguments to the authenticatorGetAssertion operation.
+     * @param credentialSelector An AsyncCredentialSelector that can, if needed, prompt the user to select a credential
+     * @param ctx                The Main/UI context to be used to display a biometric prompt (if required)
+     * @return a future for the output of the authenticatorGetAssertion operation. It completes
+     * exceptionally with a WebAuthnException or VirgilException on failure.
+     */
+    public CompletableFuture<AuthenticatorGetAssertionResult> getAssertionAsyncSelecting(final AuthenticatorGetAssertionOptions options, final AsyncCredentialSelector credentialSelector, final Context ctx, final CancellationSignal cancellationSignal) {
+        final CompletableFuture<AuthenticatorGetAssertionResult> result = new CompletableFuture<>();
+        observeCeremony(result, Ceremony.GET_ASSERTION);
+        runOffMainThread(result, new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    getAssertion(options, credentialSelector, ctx, cancellationSignal, result);
+                } catch (WebAuthnException | VirgilException e) {
+                    result.completeExceptionally(e);
+                } catch (RuntimeException e) {
+                    // e.g. a database error; the blocking wrappers would wait forever otherwise
+                    result.completeExceptionally(e);
+                }
+            }
+        });
+        return result;
+    }
+
+    private void getAssertion(final AuthenticatorGetAssertionOptions options, AsyncCredentialSelector credentialSelector, final Context ctx, final CancellationSignal cancellationSignal, final CompletableFuture<AuthenticatorGetAssertionResult> result) throws WebAuthnException, VirgilException {
 
         // 1. Check if all supplied parameters are well-formed
+        long stepStart = System.nanoTime();
         if (!options.areWellFormed()) {
             Log.w(TAG, "GetAssertion Options are not syntactically well-formed.");
-            throw new UnknownError();
+            throw failStep(Ceremony.GET_ASSERTION, Step.OPTIONS_CHECK, stepStart, new UnknownError());
         }
+        endStep(Ceremony.GET_ASSERTION, Step.OPTIONS_CHECK, stepStart);
 
         // 2-3. Parse allowCredentialDescriptorList
-        // we do this slightly out of order, see below.
-
         // 4-5. Get keys that match this relying party ID
-        List<PublicKeyCredentialSource> credentials = this.credentialSafe.getKeysForEntity(options.rpId);
-
-        // 2-3. Parse allowCredentialDescriptorList
+        // If an allow list was given, only the listed credentials are loaded from the database.
+        stepStart = System.nanoTime();
+        // Only the columns needed for selection are loaded here; the chosen credential is loaded
+        // in full once it has been selected.
+        List<CredentialSelectionItem> credentials;
         if (options.allowCredentialDescriptorList != null && options.allowCredentialDescriptorList.size() > 0) {
-            List<PublicKeyCredentialSource> filteredCredentials = new ArrayList<>();
-            Set<ByteBuffer> allowedCredentialIds = new HashSet<>();
-            for (PublicKeyCredentialDescriptor descriptor: options.allowCredentialDescriptorList) {
-                allowedCredentialIds.add(ByteBuffer.wrap(descriptor.id));
+            List<byte[]> allowedCredentialIds = new ArrayList<>(options.allowCredentialDescriptorList.size());
+            for (PublicKeyCredentialDescriptor descriptor : options.allowCredentialDescriptorList) {
+                allowedCredentialIds.add(descriptor.id);
             }
-
-            for (PublicKeyCredentialSource credential : credentials) {
-                if (allowedCredentialIds.contains(ByteBuffer.wrap(credential.id))) {
-                    filteredCredentials.add(credential);
-                }
-            }
-
-            credentials = filteredCredentials;
+            credentials = this.credentialSafe.getSelectionItemsForEntity(options.rpId, allowedCredentialIds);
+        } else {
+            credentials = this.credentialSafe.getSelectionItemsForEntity(options.rpId);
         }
 
         // 6. Error if none exist
         if (credentials == null || credentials.size() == 0) {
             Log.i(TAG, "No credentials for this RpId exist");
-            throw new NotAllowedError();
+            throw failStep(Ceremony.GET_ASSERTION, Step.CREDENTIAL_LOOKUP, stepStart, new NoCredentialsError());
         }
+        endStep(Ceremony.GET_ASSERTION, Step.CREDENTIAL_LOOKUP, stepStart);
 
         // 7. Allow the user to pick a specific credential, get verification
-        PublicKeyCredentialSource selectedCredential;
         if (credentials.size() == 1) {
-            selectedCredential = credentials.get(0);
-        } else {
-            selectedCredential = credentialSelector.selectFrom(credentials);
-            if (selectedCredential == null) {
-                throw new VirgilException("User did not select credential");
+            continueAssertion(options, credentials.get(0), ctx, cancellationSignal, result);
+            return;
+        }
+        RememberedCredentialPolicy rememberedCredentialPolicy = this.rememberedCredentialPolicy;
+        if (rememberedCredentialPolicy != null) {
+            CredentialSelectionItem remembered = rememberedCredentialPolicy.findRemembered(options.rpId, credentials);
+            if (remembered != null) {
+                continueAssertion(options, remembered, ctx, cancellationSignal, result);
+                return;
+            }
+        }
+        final long selectionStart = System.nanoTime();
+        credentialSelector.selectFromAsync(credentials).whenComplete(new BiConsumer<CredentialSelectionItem, Throwable>() {
+            @Override
+            public void accept(final CredentialSelectionItem selectedItem, Throwable throwable) {
+                // whenComplete drops anything thrown here, so every failure completes the result
+                try {
+                    if (throwable != null) {
+                        result.completeExceptionally(failStep(Ceremony.GET_ASSERTION, Step.CREDENTIAL_SELECTION, selectionStart, throwable));
+                        return;
+                    }
+                    if (selectedItem == null) {
+                        result.completeExceptionally(failStep(Ceremony.GET_ASSERTION, Step.CREDENTIAL_SELECTION, selectionStart, new VirgilException("User did not select credential")));
+                        return;
+                    }
+                    endStep(Ceremony.GET_ASSERTION, Step.CREDENTIAL_SELECTION, selectionStart);
+                    // the selection may have been made on the main thread
+                    runOffMainThread(result, new Runnable() {
+                        @Override
+                        public void run() {
+                            try {
+                                continueAssertion(options, selectedItem, ctx, cancellationSignal, result);
+                            } catch (WebAuthnException | VirgilException e) {
+                                result.completeExceptionally(e);
+                            } catch (RuntimeException e) {
+                                result.completeExceptionally(e);
+                            }
+                        }
+                    });
+                } catch (RuntimeException e) {
+                    result.completeExceptionally(e);
+                }
             }
+        });
+    }
+
+    private void continueAssertion(AuthenticatorGetAssertionOptions options, CredentialSelectionItem selectedItem, Context ctx, CancellationSignal cancellationSignal, CompletableFuture<AuthenticatorGetAssertionResult> result) throws WebAuthnException, VirgilException {
+        PublicKeyCredentialSource selectedCredential = this.credentialSafe.getCredentialSource(selectedItem);
+        if (selectedCredential == null) {
+            Log.i(TAG, "Selected credential was deleted");
+            throw new NotAllowedError();
         }
 
         // get verification, if necessary
-        AuthenticatorGetAssertionResult result;
-        boolean keyNeedsUnlocking = credentialSafe.keyRequiresVerification(selectedCredential.keyPairAlias);
+        boolean keyNeedsUnlocking = credentialSafe.keyRequiresVerification(selectedCredential);
         if (options.requireUserVerification || keyNeedsUnlocking) {
             if (ctx == null) {
                 throw new VirgilException("User Verification requires passing a context to getAssertion");
             }
 
-            // create an Exchanger to retrieve our attestationObject later
-            Exchanger<AuthenticatorGetAssertionResult> exchanger = new Exchanger<>();
+            // build our biometric callback, which completes the result future and reports how long
+            // the user took to respond
+            final long consentStart = System.nanoTime();
+            final BiometricGetAssertionCallback biometricGetAssertionCallback = new BiometricGetAssertionCallback(this, options, selectedCredential, result, credentialSafe.getExecutor()) {
+                @Override
+                public void onAuthenticationSucceeded(BiometricPrompt.AuthenticationResult authenticationResult) {
+                    endStep(Ceremony.GET_ASSERTION, Step.USER_CONSENT, consentStart);
+                    super.onAuthenticationSucceeded(authenticationResult);
+                }
 
-            // build our biometric callback
-            final BiometricGetAssertionCallback biometricGetAssertionCallback = new BiometricGetAssertionCallback(this, options, selectedCredential, exchanger);
+                @Override
+                public void onAuthenticationError(int errorCode, CharSequence errString) {
+                    failStep(Ceremony.GET_ASSERTION, Step.USER_CONSENT, consentStart, new NotAllowedError());
+                    super.onAuthenticationError(errorCode, errString);
+                }
+
+                @Override
+                public void onAuthenticationCancelled() {
+                    failStep(Ceremony.GET_ASSERTION, Step.USER_CONSENT, consentStart, new NotAllowedError());
+                    super.onAuthenticationCancelled();
+                }
+            };
             // build the biometric prompt
             BiometricPrompt bp = new BiometricPrompt.Builder(ctx)
                     .setTitle("Get Assertion")
@@ -352,22 +757,10 @@ public class Authenticator {
                 cancellationSignal = new CancellationSignal();
             }
             bp.authenticate(cryptoObject, cancellationSignal, ctx.getMainExecutor(), biometricGetAssertionCallback);
-
-            try {
-                result = exchanger.exchange(null); // pass null to biometric prompt thread
-            } catch (InterruptedException exception) {
-                Log.w(TAG, "Could not retrieve attestationObject from BiometricPrompt", exception);
-                throw new VirgilException("Could not retrieve attestationObject from BiometricPrompt", exception);
-            }
-            if (result == null) { // failure condition
-                Log.w(TAG, "Biometric Authentication failed.");
-                throw new NotAllowedError();
-            }
         } else { // no biometric
             // steps 8-13
-            result = getInternalAssertion(options, selectedCredential);
+            result.complete(getInternalAssertion(options, selectedCredential));
         }
-        return result;
     }
 
     /**
@@ -397,29 +790,36 @@ public class Authenticator {
 
         byte[] authenticatorData;
         byte[] signatureBytes;
+        Step step = Step.COUNTER_INCREMENT;
+        long stepStart = System.nanoTime();
         try {
             // TODO 8. Process extensions
             // currently not supported
 
             // 9. Increment signature counter
             int authCounter = credentialSafe.incrementCredentialUseCounter(selectedCredential);
+            endStep(Ceremony.GET_ASSERTION, step, stepStart);
 
             // 10. Construct authenticatorData
+            step = Step.AUTHENTICATOR_DATA;
+            stepStart = System.nanoTime();
             byte[] rpIdHash = this.cryptoProvider.sha256(options.rpId); // 32 bytes
-            authenticatorData = constructAuthenticatorData(rpIdHash, null, authCounter);
+            AuthenticatorDataEncoder encoder = constructAuthenticatorData(rpIdHash, null, null, authCounter, options.clientDataHash);
+            authenticatorData = encoder.toAuthenticatorData();
+            endStep(Ceremony.GET_ASSERTION, step, stepStart);
 
             // 11. Sign the concatentation authenticatorData || hash
-            ByteBuffer byteBuffer = ByteBuffer.allocate(authenticatorData.length + options.clientDataHash.length);
-            byteBuffer.put(authenticatorData);
-            byteBuffer.put(options.clientDataHash);
-            byte[] toSign = byteBuffer.array();
+            step = Step.SIGNATURE;
+            stepStart = System.nanoTime();
             KeyPair keyPair = this.credentialSafe.getKeyPairByAlias(selectedCredential.keyPairAlias);
-            signatureBytes = this.cryptoProvider.performSignature(keyPair.getPrivate(), toSign, signature);
+            signatureBytes = this.cryptoProvider.performSignature(keyPair.getPrivate(), encoder.buffer(), 0, encoder.length(), signature);
+            endStep(Ceremony.GET_ASSERTION, step, stepStart);
             Log.d(TAG, "Performed signature using credential keyPairAlias: " + selectedCredential.keyPairAlias);
 
             // 12. Throw UnknownError if any error occurs while generating the assertion signature
         } catch (Exception e) {
             Log.w(TAG, "Exception occurred while generating assertion", e);
+            failStep(Ceremony.GET_ASSERTION, step, stepStart, e);
             throw new UnknownError();
         }
 
@@ -433,63 +833,27 @@ public class Authenticator {
         return result;
     }
 
-    /**
-     * Construct an attestedCredentialData object per the WebAuthn spec: https://www.w3.org/TR/webauthn/#sec-attested-credential-data
-     *
-     * @param credentialSource the PublicKeyCredentialSource associated with this credential
-     * @return a byte array following the attestedCredentialData format from the WebAuthn spec
-     * @throws VirgilException
-     */
-    private byte[] constructAttestedCredentialData(PublicKeyCredentialSource credentialSource) throws VirgilException {
-        // | AAGUID | L | credentialId | credentialPublicKey |
-        // |   16   | 2 |      32      |          n          |
-        // total size: 50+n
-        KeyPair keyPair = this.credentialSafe.getKeyPairByAlias(credentialSource.keyPairAlias);
-        byte[] encodedPublicKey = this.credentialSafe.coseEncodePublicKey(keyPair.getPublic());
-
-        ByteBuffer credentialData = ByteBuffer.allocate(16 + 2 + credentialSource.id.length + encodedPublicKey.length);
-
-        // AAGUID will be 16 bytes of zeroes
-        credentialData.position(16);
-        credentialData.putShort((short) credentialSource.id.length); // L
-        credentialData.put(credentialSource.id); // credentialId
-        credentialData.put(encodedPublicKey);
-        return credentialData.array();
-    }
-
     /**
      * Construct an authenticatorData object per the WebAuthn spec: https://www.w3.org/TR/webauthn/#sec-authenticator-data
+     * followed by the client data hash, ready to be signed.
+     * If a credential ID is given, attestedCredentialData is included as well: https://www.w3.org/TR/webauthn/#sec-attested-credential-data
      *
-     * @param rpIdHash               the SHA-256 hash of the rpId
-     * @param attestedCredentialData byte array containing the attested credential data
-     * @return a byte array that matches the authenticatorData format
+     * @param rpIdHash            the SHA-256 hash of the rpId
+     * @param credentialId        the credential ID to include in the attested credential data, or null
+     * @param credentialPublicKey the COSE-encoded public key to include in the attested credential data, or null
+     * @param authCounter         the signature counter for this credential
+     * @param clientDataHash      byte array containing the sha256 hash of the client data object
+     * @return the calling thread's encoder, holding `authenticatorData || clientDataHash`
      * @throws VirgilException
      */
-    private byte[] constructAuthenticatorData(byte[] rpIdHash, byte[] attestedCredentialData, int authCounter) throws VirgilException {
-        if (rpIdHash.length != 32) {
-            throw new VirgilException("rpIdHash must be a 32-byte SHA-256 hash");
-        }
-
-        byte flags = 0x00;
-        flags |= 0x01; // user present
-        if (this.credentialSafe.supportsUserVerification()) {
-            flags |= (0x01 << 2); // user verified
-        }
-        if (attestedCredentialData != null) {
-            flags |= (0x01 << 6); // attested credential data included
-        }
-
-        // 32-byte hash + 1-byte flags + 4 bytes signCount = 37 bytes
-        ByteBuffer authData = ByteBuffer.allocate(37 +
-                (attestedCredentialData == null ? 0 : attestedCredentialData.length));
-
-        authData.put(rpIdHash);
-        authData.put(flags);
-        authData.putInt(authCounter);
-        if (attestedCredentialData != null) {
-            authData.put(attestedCredentialData);
-        }
-        return authData.array();
+    private AuthenticatorDataEncoder constructAuthenticatorData(byte[] rpIdHash, byte[] credentialId, byte[] credentialPublicKey, int authCounter, byte[] clientDataHash) throws VirgilException {
+        return AuthenticatorDataEncoder.forCurrentThread().encode(
+                rpIdHash,
+                this.credentialSafe.supportsUserVerification(),
+                authCounter,
+                credentialId,
+                credentialPublicKey,
+                clientDataHash);
     }
 
     /**
@@ -497,13 +861,13 @@ public class Authenticator {
      * We use either packed self-attestation or "none" attestation: https://www.w3.org/TR/webauthn/#attestation-formats
      * The signing procedure is documented here under `Signing Procedure`->4. : https://www.w3.org/TR/webauthn/#packed-attestation
      *
-     * @param authenticatorData byte array containing the raw authenticatorData object
-     * @param clientDataHash    byte array containing the sha256 hash of the client data object (request type, challenge, origin)
-     * @param keyPairAlias      alias to lookup the key pair to be used to sign the attestation object
+     * @param encoder    the encoder holding the concatenation of authenticatorData and clientDataHash
+     * @param privateKey the private key of the credential used to sign the attestation object (unused if signature is given)
+     * @param signature  If not null, use this pre-authorized signature object for the signing operation
      * @return a well-formed AttestationObject structure
      * @throws VirgilException
      */
-    private AttestationObject constructAttestationObject(byte[] authenticatorData, byte[] clientDataHash, String keyPairAlias, Signature signature) throws VirgilException {
+    private AttestationObject constructAttestationObject(AuthenticatorDataEncoder encoder, PrivateKey privateKey, Signature signature) throws VirgilException {
         // Our goal in this function is primarily to create a signature over the relevant data fields
         // From https://www.w3.org/TR/webauthn/#packed-attestation we can see that for self-signed attestation,
         // `sig` is generated by signing the concatenation of authenticatorData and clientDataHash
@@ -513,28 +877,116 @@ public class Authenticator {
         // encoded attestation object in a format that can be returned to the client/relying party
         // (shown in Figure 5 of the webauthn spec)
 
-        // Concatenate authenticatorData so we can sign them.
         // "If self attestation is in use, the authenticator produces sig by concatenating
         // authenticatorData and clientDataHash, and signing the result using the credential
         // private key."
-        ByteBuffer byteBuffer = ByteBuffer.allocate(clientDataHash.length + authenticatorData.length);
-        byteBuffer.put(authenticatorData);
-        byteBuffer.put(clientDataHash);
-        byte[] toSign = byteBuffer.array();
+        // The encoder has already laid out authenticatorData || clientDataHash in its buffer.
 
         // for testing purposes during development, make a sanity check that the authenticatorData and clientDataHash are the fixed lengths we expect
-        assert toSign.length == 141 + 32;
+        assert encoder.length() == AUTHENTICATOR_DATA_LENGTH + SHA_LENGTH;
 
-        // grab our keypair for this credential
-        KeyPair keyPair = this.credentialSafe.getKeyPairByAlias(keyPairAlias);
-        byte[] signatureBytes = this.cryptoProvider.performSignature(keyPair.getPrivate(), toSign, signature);
+        byte[] signatureBytes = this.cryptoProvider.performSignature(privateKey, encoder.buffer(), 0, encoder.length(), signature);
 
         // construct our attestation object (attestationObject.asCBOR() can be used to generate the raw object in calling function)
-        // AttestationObject attestationObject = new PackedSelfAttestationObject(authenticatorData, signatureBytes);
+        // AttestationObject attestationObject = new PackedSelfAttestationObject(encoder.toAuthenticatorData(), signatureBytes);
         // TODO: Discuss tradeoffs wrt none / packed attestation formats. Switching to none here because packed lacks support.
-        AttestationObject attestationObject = new NoneAttestationObject(authenticatorData);
+        AttestationObject attestationObject = new NoneAttestationObject(encoder.toAuthenticatorData());
         return attestationObject;
     }
 
+    // The database refuses queries on the main thread, so a ceremony started there runs on the
+    // database executor. Biometric prompts call back on the main thread and hand signing and
+    // clean-up back to that executor.
+    // A ceremony started while the credential safe is still warming up waits for warm-up rather
+    // than loading the key store and opening the database a second time.
+    private void runOffMainThread(final CompletableFuture<?> result, final Runnable ceremony) {
+        CompletableFuture<CredentialSafe.StartupTimings> readiness = this.credentialSafe.whenReady();
+        if (!readiness.isDone()) {
+            // run even if warm-up failed; the ceremony retries the setup and reports its own error
+            readiness.whenComplete(new BiConsumer<CredentialSafe.StartupTimings, Throwable>() {
+                @Override
+                public void accept(CredentialSafe.StartupTimings timings, Throwable throwable) {
+                    runOffMainThread(result, ceremony);
+                }
+            });
+            return;
+        }
+        try {
+            this.credentialSafe.runOffMainThread(ceremony);
+        } catch (RejectedExecutionException e) {
+            result.completeExceptionally(new VirgilException("Credential database executor is saturated", e));
+        }
+    }
 
+    /**
+     * Report the whole ceremony as a step once its result is ready.
+     *
+     * @param result   The ceremony's result future
+     * @param ceremony The ceremony being performed
+     */
+    private void observeCeremony(CompletableFuture<?> result, final Ceremony ceremony) {
+        if (this.ceremonyObserver == null) {
+            return;
+        }
+        final long start = System.nanoTime();
+        result.whenComplete(new BiConsumer<Object, Throwable>() {
+            @Override
+            public void accept(Object value, Throwable throwable) {
+                notifyObserver(ceremony, Step.CEREMONY, start, throwable);
+            }
+        });
+    }
+
+    private void endStep(Ceremony ceremony, Step step, long startNanos) {
+        notifyObserver(ceremony, step, startNanos, null);
+    }
+
+    /**
+     * Report a failed step.
+     *
+     * @return error, so callers can write `throw failStep(...)`
+     */
+    private <T extends Throwable> T failStep(Ceremony ceremony, Step step, long startNanos, T error) {
+        notifyObserver(ceremony, step, startNanos, error);
+        return error;
+    }
+
+    private void notifyObserver(Ceremony ceremony, Step step, long startNanos, Throwable error) {
+        CeremonyObserver observer = this.ceremonyObserver;
+        if (observer == null) {
+            return;
+        }
+        try {
+            observer.onStep(ceremony, step, startNanos, System.nanoTime(), error);
+        } catch (RuntimeException e) {
+            // a broken observer must not break the ceremony it is observing
+            Log.w(TAG, "CeremonyObserver threw an exception", e);
+        }
+    }
+
+    /**
+     * Wait for an asynchronous operation, rethrowing the exception it failed with.
+     *
+     * @param future The pending operation
+     * @return the result of the operation
+     * @throws WebAuthnException
+     * @throws VirgilException
+     */
+    private static <T> T await(CompletableFuture<T> future) throws WebAuthnException, VirgilException {
+        try {
+            return future.get();
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            throw new VirgilException("Interrupted while waiting for the operation to complete", exception);
+        } catch (ExecutionException exception) {
+            Throwable cause = exception.getCause();
+            if (cause instanceof WebAuthnException) {
+                throw (WebAuthnException) cause;
+            }
+            if (cause instanceof VirgilException) {
+                throw (VirgilException) cause;
+            }
+            throw new VirgilException("Operation failed", cause);
+        }
+    }
 }
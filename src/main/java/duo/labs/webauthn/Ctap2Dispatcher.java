@@ -0,0 +1,444 @@
+package duo.labs.webauthn;
+
+import android.content.Context;
+import android.os.CancellationSignal;
+import android.util.Log;
+import android.util.Pair;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.BiFunction;
+
+import co.nstant.in.cbor.CborDecoder;
+import co.nstant.in.cbor.CborException;
+import co.nstant.in.cbor.model.Array;
+import co.nstant.in.cbor.model.ByteString;
+import co.nstant.in.cbor.model.DataItem;
+import co.nstant.in.cbor.model.Map;
+import co.nstant.in.cbor.model.Number;
+import co.nstant.in.cbor.model.SimpleValue;
+import co.nstant.in.cbor.model.SimpleValueType;
+import co.nstant.in.cbor.model.UnicodeString;
+import co.nstant.in.cbor.model.UnsignedInteger;
+import duo.labs.webauthn.exceptions.ConstraintError;
+import duo.labs.webauthn.exceptions.InvalidStateError;
+import duo.labs.webauthn.exceptions.NoCredentialsError;
+import duo.labs.webauthn.exceptions.NotAllowedError;
+import duo.labs.webauthn.exceptions.NotSupportedError;
+import duo.labs.webauthn.models.AttestationObject;
+import duo.labs.webauthn.models.AuthenticatorGetAssertionOptions;
+import duo.labs.webauthn.models.AuthenticatorGetAssertionResult;
+import duo.labs.webauthn.models.AuthenticatorMakeCredentialOptions;
+import duo.labs.webauthn.models.PublicKeyCredentialDescriptor;
+import duo.labs.webauthn.models.RpEntity;
+import duo.labs.webauthn.models.UserEntity;
+import duo.labs.webauthn.util.CborWriter;
+import duo.labs.webauthn.util.CredentialItemSelector;
+
+/**
+ * Ctap2Dispatcher drives an Authenticator with raw CTAP2 commands, as received by a transport
+ * bridge: https://fidoalliance.org/specs/fido-v2.0-ps-20190130/fido-client-to-authenticator-protocol-v2.0-ps-20190130.html#authenticator-api
+ * <p>
+ * A request is a command byte followed by its CBOR-encoded parameter map. Parameters are decoded
+ * straight into the options models, and every request is answered with a status byte, followed
+ * by the CBOR-encoded response map on success. Supported commands are
+ * authenticatorMakeCredential (0x01), authenticatorGetAssertion (0x02) and
+ * authenticatorGetInfo (0x04). clientPIN and extensions are not supported.
+ */
+public class Ctap2Dispatcher {
+    private static final String TAG = "Ctap2Dispatcher";
+
+    public static final byte CMD_MAKE_CREDENTIAL = 0x01;
+    public static final byte CMD_GET_ASSERTION = 0x02;
+    public static final byte CMD_GET_INFO = 0x04;
+
+    public static final byte CTAP2_OK = 0x00;
+    public static final byte CTAP1_ERR_INVALID_COMMAND = 0x01;
+    public static final byte CTAP1_ERR_INVALID_PARAMETER = 0x02;
+    public static final byte CTAP1_ERR_INVALID_LENGTH = 0x03;
+    public static final byte CTAP2_ERR_CBOR_UNEXPECTED_TYPE = 0x11;
+    public static final byte CTAP2_ERR_INVALID_CBOR = 0x12;
+    public static final byte CTAP2_ERR_MISSING_PARAMETER = 0x14;
+    public static final byte CTAP2_ERR_CREDENTIAL_EXCLUDED = 0x19;
+    public static final byte CTAP2_ERR_UNSUPPORTED_ALGORITHM = 0x26;
+    public static final byte CTAP2_ERR_OPERATION_DENIED = 0x27;
+    public static final byte CTAP2_ERR_UNSUPPORTED_OPTION = 0x2B;
+    public static final byte CTAP2_ERR_INVALID_OPTION = 0x2C;
+    public static final byte CTAP2_ERR_NO_CREDENTIALS = 0x2E;
+    public static final byte CTAP2_ERR_PIN_AUTH_INVALID = 0x33;
+    public static final byte CTAP2_ERR_PIN_NOT_SET = 0x35;
+    public static final byte CTAP1_ERR_OTHER = 0x7F;
+
+    private static final byte[] STATUS_OK = {CTAP2_OK};
+    private static final int AAGUID_LENGTH = 16;
+
+    // parameter map keys, indexed by their integer value
+    private static final DataItem[] KEYS = new DataItem[10];
+
+    static {
+        for (int i = 0; i < KEYS.length; i++) {
+            KEYS[i] = new UnsignedInteger(i);
+        }
+    }
+
+    private static final DataItem ID = new UnicodeString("id");
+    private static final DataItem TYPE = new UnicodeString("type");
+    private static final DataItem NAME = new UnicodeString("name");
+    private static final DataItem DISPLAY_NAME = new UnicodeString("displayName");
+    private static final DataItem ALG = new UnicodeString("alg");
+    private static final DataItem TRANSPORTS = new UnicodeString("transports");
+    private static final DataItem OPTION_RK = new UnicodeString("rk");
+    private static final DataItem OPTION_UP = new UnicodeString("up");
+    private static final DataItem OPTION_UV = new UnicodeString("uv");
+
+    private final Authenticator authenticator;
+    private final CredentialItemSelector credentialSelector;
+    private final byte[] getInfoResponse;
+
+    /**
+     * @param authenticator      The authenticator to dispatch commands to
+     * @param credentialSelector Chooses a credential when a getAssertion request matches several
+     */
+    public Ctap2Dispatcher(Authenticator authenticator, CredentialItemSelector credentialSelector) {
+        this.authenticator = authenticator;
+        this.credentialSelector = credentialSelector;
+        this.getInfoResponse = encodeGetInfo(authenticator.credentialSafe.supportsUserVerification());
+    }
+
+    /**
+     * Process a CTAP2 request without any UI. This blocks until the command completes, and fails
+     * with CTAP1_ERR_OTHER for commands that need user verification. See processAsync.
+     *
+     * @param request The command byte followed by the CBOR-encoded parameters
+     * @return The status byte followed by the CBOR-encoded response, if any
+     */
+    public byte[] process(byte[] request) {
+        return processAsync(request, null, null).join();
+    }
+
+    /**
+     * Process a CTAP2 request. If user verification is required, the returned future is
+     * completed from the biometric prompt callback.
+     *
+     * @param request            The command byte followed by the CBOR-encoded parameters
+     * @param ctx                The Main/UI context to be used to display a biometric prompt (if required)
+     * @param cancellationSignal Cancels the biometric prompt, if one is shown
+     * @return a future for the status byte followed by the CBOR-encoded response, if any. Errors
+     * are reported through the status byte, so the future never completes exceptionally.
+     */
+    public CompletableFuture<byte[]> processAsync(byte[] request, Context ctx, CancellationSignal cancellationSignal) {
+        if (request == null || request.length == 0) {
+            return CompletableFuture.completedFuture(status(CTAP1_ERR_INVALID_LENGTH));
+        }
+        try {
+            switch (request[0]) {
+                case CMD_MAKE_CREDENTIAL:
+                    return makeCredential(parseMakeCredentialOptions(decodeParameters(request)), ctx, cancellationSignal);
+                case CMD_GET_ASSERTION:
+                    return getAssertion(parseGetAssertionOptions(decodeParameters(request)), ctx, cancellationSignal);
+                case CMD_GET_INFO:
+                    return CompletableFuture.completedFuture(this.getInfoResponse.clone());
+                default:
+                    Log.w(TAG, "Unsupported CTAP2 command " + request[0]);
+                    return CompletableFuture.completedFuture(status(CTAP1_ERR_INVALID_COMMAND));
+            }
+        } catch (CtapError e) {
+            Log.w(TAG, "Rejected CTAP2 request with status " + e.status);
+            return CompletableFuture.completedFuture(status(e.status));
+        }
+    }
+
+    private CompletableFuture<byte[]> makeCredential(AuthenticatorMakeCredentialOptions options, Context ctx, CancellationSignal cancellationSignal) {
+        return this.authenticator.makeCredentialAsync(options, ctx, cancellationSignal).handle(new BiFunction<AttestationObject, Throwable, byte[]>() {
+            @Override
+            public byte[] apply(AttestationObject attestationObject, Throwable throwable) {
+                if (throwable != null) {
+                    return status(statusFor(throwable));
+                }
+                CborWriter writer = new CborWriter(STATUS_OK.length + attestationObject.ctap2ResponseSize());
+                writer.writeRaw(STATUS_OK);
+                attestationObject.writeCtap2Response(writer);
+                return writer.toByteArray();
+            }
+        });
+    }
+
+    private CompletableFuture<byte[]> getAssertion(AuthenticatorGetAssertionOptions options, Context ctx, CancellationSignal cancellationSignal) {
+        return this.authenticator.getAssertionAsync(options, this.credentialSelector, ctx, cancellationSignal).handle(new BiFunction<AuthenticatorGetAssertionResult, Throwable, byte[]>() {
+            @Override
+            public byte[] apply(AuthenticatorGetAssertionResult assertion, Throwable throwable) {
+                if (throwable != null) {
+                    return status(statusFor(throwable));
+                }
+                CborWriter writer = new CborWriter(STATUS_OK.length + assertion.ctap2ResponseSize());
+                writer.writeRaw(STATUS_OK);
+                assertion.writeCtap2Response(writer);
+                return writer.toByteArray();
+            }
+        });
+    }
+
+    /**
+     * Map the exception an operation failed with to a CTAP2 status code.
+     *
+     * @param throwable The exception the operation failed with
+     * @return the CTAP2 status code
+     */
+    private static byte statusFor(Throwable throwable) {
+        if (throwable instanceof CompletionException && throwable.getCause() != null) {
+            throwable = throwable.getCause();
+        }
+        if (throwable instanceof InvalidStateError) {
+            return CTAP2_ERR_CREDENTIAL_EXCLUDED;
+        } else if (throwable instanceof NotSupportedError) {
+            return CTAP2_ERR_UNSUPPORTED_ALGORITHM;
+        } else if (throwable instanceof ConstraintError) {
+            return CTAP2_ERR_UNSUPPORTED_OPTION;
+        } else if (throwable instanceof NoCredentialsError) {
+            return CTAP2_ERR_NO_CREDENTIALS;
+        } else if (throwable instanceof NotAllowedError) {
+            return CTAP2_ERR_OPERATION_DENIED;
+        }
+        Log.w(TAG, "CTAP2 operation failed", throwable);
+        return CTAP1_ERR_OTHER;
+    }
+
+    private static byte[] status(byte status) {
+        return new byte[]{status};
+    }
+
+    /**
+     * Encode the authenticatorGetInfo response. We advertise FIDO_2_0 with resident keys, user
+     * presence and, if the credential safe is configured for it, user verification.
+     *
+     * @param userVerification Whether user verification is configured
+     * @return the status byte followed by the response map
+     */
+    private static byte[] encodeGetInfo(boolean userVerification) {
+        // map keys are written in canonical CBOR order: integers ascending, shorter strings first
+        CborWriter writer = new CborWriter()
+                .writeRaw(STATUS_OK)
+                .writeMapHeader(3)
+                .writeInteger(1).writeArrayHeader(1).writeTextString("FIDO_2_0")
+                .writeInteger(3).writeByteString(new byte[AAGUID_LENGTH])
+                .writeInteger(4).writeMapHeader(userVerification ? 4 : 3)
+                .writeTextString("rk").writeBoolean(true)
+                .writeTextString("up").writeBoolean(true);
+        if (userVerification) {
+            writer.writeTextString("uv").writeBoolean(true);
+        }
+        // we act as a roaming authenticator for the device on the other end of the transport
+        writer.writeTextString("plat").writeBoolean(false);
+        return writer.toByteArray();
+    }
+
+    private static Map decodeParameters(byte[] request) throws CtapError {
+        if (request.length == 1) {
+            return new Map();
+        }
+        List<DataItem> items;
+        try {
+            items = new CborDecoder(new ByteArrayInputStream(request, 1, request.length - 1)).decode();
+        } catch (CborException | RuntimeException e) {
+            throw new CtapError(CTAP2_ERR_INVALID_CBOR);
+        }
+        if (items.size() != 1) {
+            throw new CtapError(CTAP2_ERR_INVALID_CBOR);
+        }
+        return asMap(items.get(0));
+    }
+
+    private static AuthenticatorMakeCredentialOptions parseMakeCredentialOptions(Map parameters) throws CtapError {
+        rejectPinAuth(parameters.get(KEYS[8]));
+
+        AuthenticatorMakeCredentialOptions options = new AuthenticatorMakeCredentialOptions();
+        options.clientDataHash = parseClientDataHash(require(parameters, KEYS[1]));
+
+        Map rp = asMap(require(parameters, KEYS[2]));
+        options.rpEntity = new RpEntity();
+        options.rpEntity.id = asText(require(rp, ID));
+        options.rpEntity.name = asText(require(rp, NAME));
+
+        Map user = asMap(require(parameters, KEYS[3]));
+        options.userEntity = new UserEntity();
+        options.userEntity.id = asBytes(require(user, ID));
+        options.userEntity.name = asText(require(user, NAME));
+        DataItem displayName = user.get(DISPLAY_NAME);
+        options.userEntity.displayName = displayName == null ? null : asText(displayName);
+
+        List<DataItem> credParams = asArray(require(parameters, KEYS[4]));
+        options.credTypesAndPubKeyAlgs = new ArrayList<>(credParams.size());
+        for (DataItem item : credParams) {
+            Map credParam = asMap(item);
+            options.credTypesAndPubKeyAlgs.add(new Pair<>(asText(require(credParam, TYPE)), asInteger(require(credParam, ALG))));
+        }
+
+        DataItem excludeList = parameters.get(KEYS[5]);
+        options.excludeCredentialDescriptorList = excludeList == null
+                ? new ArrayList<PublicKeyCredentialDescriptor>()
+                : parseDescriptorList(excludeList);
+
+        boolean userVerification = false;
+        DataItem optionsItem = parameters.get(KEYS[7]);
+        if (optionsItem != null) {
+            Map flags = asMap(optionsItem);
+            if (flags.get(OPTION_UP) != null) {
+                // user presence is always required to create a credential
+                throw new CtapError(CTAP2_ERR_INVALID_OPTION);
+            }
+            options.requireResidentKey = asBoolean(flags.get(OPTION_RK), false);
+            userVerification = asBoolean(flags.get(OPTION_UV), false);
+        }
+        // the options model expects exactly one of user presence / user verification
+        options.requireUserVerification = userVerification;
+        options.requireUserPresence = !userVerification;
+        return options;
+    }
+
+    private static AuthenticatorGetAssertionOptions parseGetAssertionOptions(Map parameters) throws CtapError {
+        rejectPinAuth(parameters.get(KEYS[6]));
+
+        AuthenticatorGetAssertionOptions options = new AuthenticatorGetAssertionOptions();
+        options.rpId = asText(require(parameters, KEYS[1]));
+        options.clientDataHash = parseClientDataHash(require(parameters, KEYS[2]));
+
+        DataItem allowList = parameters.get(KEYS[3]);
+        options.allowCredentialDescriptorList = allowList == null
+                ? new ArrayList<PublicKeyCredentialDescriptor>()
+                : parseDescriptorList(allowList);
+
+        boolean userPresence = true;
+        boolean userVerification = false;
+        DataItem optionsItem = parameters.get(KEYS[5]);
+        if (optionsItem != null) {
+            Map flags = asMap(optionsItem);
+            if (flags.get(OPTION_RK) != null) {
+                throw new CtapError(CTAP2_ERR_INVALID_OPTION);
+            }
+            userPresence = asBoolean(flags.get(OPTION_UP), true);
+            userVerification = asBoolean(flags.get(OPTION_UV), false);
+        }
+        if (!userPresence && !userVerification) {
+            // silent assertions are not supported
+            throw new CtapError(CTAP2_ERR_UNSUPPORTED_OPTION);
+        }
+        options.requireUserVerification = userVerification;
+        options.requireUserPresence = !userVerification;
+        return options;
+    }
+
+    private static List<PublicKeyCredentialDescriptor> parseDescriptorList(DataItem item) throws CtapError {
+        List<DataItem> items = asArray(item);
+        List<PublicKeyCredentialDescriptor> descriptors = new ArrayList<>(items.size());
+        for (DataItem descriptorItem : items) {
+            Map descriptor = asMap(descriptorItem);
+            List<String> transports = new ArrayList<>();
+            DataItem transportsItem = descriptor.get(TRANSPORTS);
+            if (transportsItem != null) {
+                for (DataItem transport : asArray(transportsItem)) {
+                    transports.add(asText(transport));
+                }
+            }
+            descriptors.add(new PublicKeyCredentialDescriptor(
+                    asText(require(descriptor, TYPE)),
+                    asBytes(require(descriptor, ID)),
+                    transports));
+        }
+        return descriptors;
+    }
+
+    private static byte[] parseClientDataHash(DataItem item) throws CtapError {
+        byte[] clientDataHash = asBytes(item);
+        if (clientDataHash.length != Authenticator.SHA_LENGTH) {
+            throw new CtapError(CTAP1_ERR_INVALID_PARAMETER);
+        }
+        return clientDataHash;
+    }
+
+    /**
+     * We don't implement authenticatorClientPIN, so any pinAuth is rejected. A zero-length pinAuth
+     * is a platform asking whether a PIN is set.
+     *
+     * @param pinAuth The pinAuth parameter, or null if absent
+     * @throws CtapError if pinAuth is present
+     */
+    private static void rejectPinAuth(DataItem pinAuth) throws CtapError {
+        if (pinAuth == null) {
+            return;
+        }
+        throw new CtapError(asBytes(pinAuth).length == 0 ? CTAP2_ERR_PIN_NOT_SET : CTAP2_ERR_PIN_AUTH_INVALID);
+    }
+
+    private static DataItem require(Map map, DataItem key) throws CtapError {
+        DataItem item = map.get(key);
+        if (item == null) {
+            throw new CtapError(CTAP2_ERR_MISSING_PARAMETER);
+        }
+        return item;
+    }
+
+    private static Map asMap(DataItem item) throws CtapError {
+        if (!(item instanceof Map)) {
+            throw new CtapError(CTAP2_ERR_CBOR_UNEXPECTED_TYPE);
+        }
+        return (Map) item;
+    }
+
+    private static List<DataItem> asArray(DataItem item) throws CtapError {
+        if (!(item instanceof Array)) {
+            throw new CtapError(CTAP2_ERR_CBOR_UNEXPECTED_TYPE);
+        }
+        return ((Array) item).getDataItems();
+    }
+
+    private static byte[] asBytes(DataItem item) throws CtapError {
+        if (!(item instanceof ByteString)) {
+            throw new CtapError(CTAP2_ERR_CBOR_UNEXPECTED_TYPE);
+        }
+        return ((ByteString) item).getBytes();
+    }
+
+    private static String asText(DataItem item) throws CtapError {
+        if (!(item instanceof UnicodeString)) {
+            throw new CtapError(CTAP2_ERR_CBOR_UNEXPECTED_TYPE);
+        }
+        return ((UnicodeString) item).getString();
+    }
+
+    private static long asInteger(DataItem item) throws CtapError {
+        if (!(item instanceof Number)) {
+            throw new CtapError(CTAP2_ERR_CBOR_UNEXPECTED_TYPE);
+        }
+        return ((Number) item).getValue().longValue();
+    }
+
+    private static boolean asBoolean(DataItem item, boolean defaultValue) throws CtapError {
+        if (item == null) {
+            return defaultValue;
+        }
+        if (item instanceof SimpleValue) {
+            SimpleValueType type = ((SimpleValue) item).getSimpleValueType();
+            if (type == SimpleValueType.TRUE) {
+                return true;
+            } else if (type == SimpleValueType.FALSE) {
+                return false;
+            }
+        }
+        throw new CtapError(CTAP2_ERR_CBOR_UNEXPECTED_TYPE);
+    }
+
+    /**
+     * A request that is rejected before it reaches the authenticator.
+     */
+    private static class CtapError extends Exception {
+        final byte status;
+
+        CtapError(byte status) {
+            super();
+            this.status = status;
+        }
+    }
+}
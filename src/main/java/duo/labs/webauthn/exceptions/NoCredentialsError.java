@@ -0,0 +1,11 @@
+package duo.labs.webauthn.exceptions;
+
+/**
+ * A NotAllowedError raised because no credential matches a getAssertion request, as opposed to
+ * the user declining or a selected credential having gone away.
+ */
+public class NoCredentialsError extends NotAllowedError {
+    public NoCredentialsError() {
+        super();
+    }
+}
@@ -2,14 +2,135 @@ package duo.labs.webauthn.models;
 
 import android.util.Base64;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 
 import duo.labs.webauthn.exceptions.VirgilException;
+import duo.labs.webauthn.util.CborWriter;
 
 public abstract class AttestationObject {
+    // Pre-encoded CBOR text strings for the attestation object map keys
+    static final byte[] FMT_KEY = CborWriter.encodeTextString("fmt");
+    static final byte[] ATT_STMT_KEY = CborWriter.encodeTextString("attStmt");
+    static final byte[] AUTH_DATA_KEY = CborWriter.encodeTextString("authData");
+
     byte[] authData;
 
-    public abstract byte[] asCBOR() throws VirgilException;
+    /**
+     * Encode this attObj as the CBOR required by the WebAuthn spec
+     * https://www.w3.org/TR/webauthn/#sctn-attestation
+     *
+     * @return CBOR encoding of the attestation object as a byte array
+     * @throws VirgilException
+     */
+    public byte[] asCBOR() throws VirgilException {
+        CborWriter writer = new CborWriter(this.cborSize());
+        this.writeCBORHeader(writer);
+        return writer.writeRaw(this.authData).toByteArray();
+    }
+
+    /**
+     * @return The length of the CBOR encoding of this attObj
+     */
+    public int cborSize() {
+        return this.cborHeaderSize() + this.authData.length;
+    }
+
+    /**
+     * Write the CBOR encoding of this attObj to a stream. authData is written to the stream as-is
+     * rather than being copied into an encoding buffer first.
+     *
+     * @param out The destination stream, e.g. a Base64CharWriter
+     * @throws IOException
+     */
+    public void writeCBOR(OutputStream out) throws IOException {
+        CborWriter header = new CborWriter(this.cborHeaderSize());
+        this.writeCBORHeader(header);
+        header.writeTo(out);
+        out.write(this.authData);
+    }
+
+    /**
+     * Write the CBOR encoding of this attObj into a buffer.
+     *
+     * @param buffer The destination buffer, with at least cborSize() bytes remaining
+     * @throws BufferOverflowException if the buffer is too small, in which case nothing is written
+     */
+    public void writeCBOR(ByteBuffer buffer) {
+        if (buffer.remaining() < this.cborSize()) {
+            throw new BufferOverflowException();
+        }
+        CborWriter header = new CborWriter(this.cborHeaderSize());
+        this.writeCBORHeader(header);
+        header.writeTo(buffer);
+        buffer.put(this.authData);
+    }
+
+    private int cborHeaderSize() {
+        return 1
+                + FMT_KEY.length + this.encodedFormat().length
+                + ATT_STMT_KEY.length + this.attestationStatementSize()
+                + AUTH_DATA_KEY.length + CborWriter.headerSize(this.authData.length);
+    }
+
+    /**
+     * Write everything up to the contents of authData. Map keys are written in canonical CBOR
+     * order (fmt, attStmt, authData), so authData is always the last item in the map.
+     *
+     * @param writer The writer to append the header to
+     */
+    private void writeCBORHeader(CborWriter writer) {
+        writer.writeMapHeader(3)
+                .writeRaw(FMT_KEY).writeRaw(this.encodedFormat())
+                .writeRaw(ATT_STMT_KEY);
+        this.writeAttestationStatement(writer);
+        writer.writeRaw(AUTH_DATA_KEY).writeByteStringHeader(this.authData.length);
+    }
+
+    /**
+     * @return The number of bytes written by writeAttestationStatement()
+     */
+    abstract int attestationStatementSize();
+
+    /**
+     * Write the format-specific attStmt map.
+     *
+     * @param writer The writer to append the attestation statement to
+     */
+    abstract void writeAttestationStatement(CborWriter writer);
+
+    /**
+     * @return The CBOR text string naming this attestation statement format
+     */
+    abstract byte[] encodedFormat();
+
+    /**
+     * @return The number of bytes written by writeCtap2Response()
+     */
+    public int ctap2ResponseSize() {
+        return 1
+                + 1 + this.encodedFormat().length
+                + 1 + CborWriter.stringSize(this.authData.length)
+                + 1 + this.attestationStatementSize();
+    }
+
+    /**
+     * Encode this attObj as the authenticatorMakeCredential response map defined by CTAP2, which
+     * uses integer keys instead of the text keys of the WebAuthn attestation object:
+     * https://fidoalliance.org/specs/fido-v2.0-ps-20190130/fido-client-to-authenticator-protocol-v2.0-ps-20190130.html#authenticatorMakeCredential
+     *
+     * @param writer The writer to append the response map to
+     */
+    public void writeCtap2Response(CborWriter writer) {
+        writer.writeMapHeader(3)
+                .writeInteger(1).writeRaw(this.encodedFormat())
+                .writeInteger(2).writeByteString(this.authData)
+                .writeInteger(3);
+        this.writeAttestationStatement(writer);
+    }
 
     /**
      * Retrieves the credential_id field from the attestation object and converts it to a string
@@ -1,23 +1,25 @@
 package duo.labs.webauthn.models;
 
-import android.util.Base64;
-
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
-import com.google.gson.JsonDeserializationContext;
-import com.google.gson.JsonDeserializer;
-import com.google.gson.JsonElement;
-import com.google.gson.JsonParseException;
 import com.google.gson.annotations.SerializedName;
+import com.google.gson.reflect.TypeToken;
 
-import java.lang.reflect.Type;
 import java.util.List;
 
 import duo.labs.webauthn.util.Base64ByteArrayAdapter;
+import duo.labs.webauthn.util.CredentialDescriptorListAdapter;
 import rocks.xmpp.precis.PrecisProfile;
 import rocks.xmpp.precis.PrecisProfiles;
 
 public class AuthenticatorGetAssertionOptions {
+    // Gson instances are thread-safe, so every call to fromJSON shares this one
+    private static final Gson GSON = new GsonBuilder()
+            .registerTypeAdapter(byte[].class, new Base64ByteArrayAdapter())
+            .registerTypeAdapter(new TypeToken<List<PublicKeyCredentialDescriptor>>() {
+            }.getType(), new CredentialDescriptorListAdapter())
+            .create();
+
     @SerializedName("rpId")
     public String rpId;
     @SerializedName("clientDataHash")
@@ -44,9 +46,6 @@ public class AuthenticatorGetAssertionOptions {
     }
 
     public static AuthenticatorGetAssertionOptions fromJSON(String json) {
-        Gson gson = new GsonBuilder()
-                .registerTypeAdapter(byte[].class, new Base64ByteArrayAdapter())
-                .create();
-        return gson.fromJson(json, AuthenticatorGetAssertionOptions.class);
+        return GSON.fromJson(json, AuthenticatorGetAssertionOptions.class);
     }
 }
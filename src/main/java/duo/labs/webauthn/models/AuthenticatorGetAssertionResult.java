@@ -1,12 +1,29 @@
 package duo.labs.webauthn.models;
 
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
 import com.google.gson.annotations.SerializedName;
 
-import duo.labs.webauthn.util.Base64ByteArrayAdapter;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+import duo.labs.webauthn.util.Base64CharWriter;
+import duo.labs.webauthn.util.CborWriter;
 
 public class AuthenticatorGetAssertionResult implements JsonSerializable {
+    // Pre-encoded CBOR text strings for the credential and user map keys / values
+    private static final byte[] ID_KEY = CborWriter.encodeTextString("id");
+    private static final byte[] TYPE_KEY = CborWriter.encodeTextString("type");
+    private static final byte[] PUBLIC_KEY_TYPE = CborWriter.encodeTextString(PublicKeyCredentialSource.type);
+
+    // JSON member names, in the order Gson would write them
+    private static final String[] JSON_NAMES = {
+            "selected_credential_id", "authenticator_data", "signature", "selected_credential_user_handle"
+    };
+
     @SerializedName("selected_credential_id")
     public byte[] selectedCredentialId;
     @SerializedName("authenticator_data")
@@ -24,10 +41,112 @@ public class AuthenticatorGetAssertionResult implements JsonSerializable {
     }
 
     public String toJson() {
-        Gson gson = new GsonBuilder()
-                .registerTypeAdapter(byte[].class, new Base64ByteArrayAdapter())
-                .disableHtmlEscaping()
-                .create();
-        return gson.toJson(this);
+        StringWriter writer = new StringWriter(this.jsonSize());
+        try {
+            this.writeJson(writer);
+        } catch (IOException e) {
+            // StringWriter doesn't throw
+            throw new IllegalStateException(e);
+        }
+        return writer.toString();
+    }
+
+    /**
+     * Write the same JSON as toJson() to a Writer. Binary fields are Base64-encoded straight into
+     * the writer, and null fields are omitted.
+     *
+     * @param out The destination writer. It is not flushed or closed.
+     * @throws IOException
+     */
+    public void writeJson(Writer out) throws IOException {
+        byte[][] values = this.jsonValues();
+        Base64CharWriter base64 = new Base64CharWriter(out);
+        boolean first = true;
+        out.write('{');
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] == null) {
+                continue;
+            }
+            if (!first) {
+                out.write(',');
+            }
+            first = false;
+            out.write('"');
+            out.write(JSON_NAMES[i]);
+            out.write("\":\"");
+            base64.write(values[i]);
+            base64.finish();
+            out.write('"');
+        }
+        out.write('}');
+    }
+
+    /**
+     * Write the same JSON as toJson() to a stream, encoded as UTF-8.
+     *
+     * @param out The destination stream. It is flushed but not closed.
+     * @throws IOException
+     */
+    public void writeJson(OutputStream out) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        this.writeJson(writer);
+        writer.flush();
+    }
+
+    /**
+     * @return The number of characters written by writeJson()
+     */
+    public int jsonSize() {
+        byte[][] values = this.jsonValues();
+        // the braces, minus the comma before the first member
+        int size = 1;
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] != null) {
+                // ,"name":"value"
+                size += JSON_NAMES[i].length() + Base64CharWriter.encodedLength(values[i].length) + 6;
+            }
+        }
+        return Math.max(size, 2);
+    }
+
+    private byte[][] jsonValues() {
+        return new byte[][]{
+                this.selectedCredentialId, this.authenticatorData, this.signature, this.selectedCredentialUserHandle
+        };
+    }
+
+    /**
+     * @return The number of bytes written by writeCtap2Response()
+     */
+    public int ctap2ResponseSize() {
+        int size = 1
+                + 1 + 1 + ID_KEY.length + CborWriter.stringSize(this.selectedCredentialId.length) + TYPE_KEY.length + PUBLIC_KEY_TYPE.length
+                + 1 + CborWriter.stringSize(this.authenticatorData.length)
+                + 1 + CborWriter.stringSize(this.signature.length);
+        if (this.selectedCredentialUserHandle != null) {
+            size += 1 + 1 + ID_KEY.length + CborWriter.stringSize(this.selectedCredentialUserHandle.length);
+        }
+        return size;
+    }
+
+    /**
+     * Encode this assertion as the authenticatorGetAssertion response map defined by CTAP2:
+     * https://fidoalliance.org/specs/fido-v2.0-ps-20190130/fido-client-to-authenticator-protocol-v2.0-ps-20190130.html#authenticatorGetAssertion
+     * The user (0x04) is only included if the credential has a user handle.
+     *
+     * @param writer The writer to append the response map to
+     */
+    public void writeCtap2Response(CborWriter writer) {
+        // map keys are written in canonical CBOR order: integers ascending, "id" before "type"
+        writer.writeMapHeader(this.selectedCredentialUserHandle == null ? 3 : 4)
+                .writeInteger(1).writeMapHeader(2)
+                .writeRaw(ID_KEY).writeByteString(this.selectedCredentialId)
+                .writeRaw(TYPE_KEY).writeRaw(PUBLIC_KEY_TYPE)
+                .writeInteger(2).writeByteString(this.authenticatorData)
+                .writeInteger(3).writeByteString(this.signature);
+        if (this.selectedCredentialUserHandle != null) {
+            writer.writeInteger(4).writeMapHeader(1)
+                    .writeRaw(ID_KEY).writeByteString(this.selectedCredentialUserHandle);
+        }
     }
 }
@@ -1,28 +1,37 @@
 package duo.labs.webauthn.models;
 
-import android.util.Base64;
 import android.util.Pair;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
-import com.google.gson.JsonArray;
-import com.google.gson.JsonDeserializationContext;
-import com.google.gson.JsonDeserializer;
-import com.google.gson.JsonElement;
-import com.google.gson.JsonObject;
-import com.google.gson.JsonParseException;
+import com.google.gson.TypeAdapter;
 import com.google.gson.annotations.SerializedName;
 import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
 
-import java.lang.reflect.Type;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
 import duo.labs.webauthn.util.Base64ByteArrayAdapter;
-import rocks.xmpp.precis.PrecisProfile;
+import duo.labs.webauthn.util.CredentialDescriptorListAdapter;
+import duo.labs.webauthn.util.PrecisNameValidator;
 import rocks.xmpp.precis.PrecisProfiles;
 
 public class AuthenticatorMakeCredentialOptions {
+    // Gson instances are thread-safe, so every call to fromJSON shares this one
+    private static final Gson GSON = new GsonBuilder()
+            .registerTypeAdapter(byte[].class, new Base64ByteArrayAdapter())
+            .registerTypeAdapter(new TypeToken<List<Pair<String, Long>>>() {
+            }.getType(), new CredTypesAdapter())
+            .registerTypeAdapter(new TypeToken<List<PublicKeyCredentialDescriptor>>() {
+            }.getType(), new CredentialDescriptorListAdapter())
+            .create();
+    private static final PrecisNameValidator NAME_VALIDATOR =
+            new PrecisNameValidator(PrecisProfiles.USERNAME_CASE_PRESERVED, PrecisNameValidator.DEFAULT_CACHE_SIZE);
+
     @SerializedName("clientDataHash")
     public byte[] clientDataHash;
     @SerializedName("rp")
@@ -43,17 +52,13 @@ public class AuthenticatorMakeCredentialOptions {
     // @SerializedName("authenticatorExtensions") public byte[] extensions;
 
     public boolean areWellFormed() {
-        PrecisProfile profile = PrecisProfiles.USERNAME_CASE_PRESERVED;
         if (clientDataHash.length != 32) {
             return false;
         }
         if (rpEntity.id.isEmpty()) {
             return false;
         }
-        try {
-            profile.enforce(rpEntity.name);
-            profile.enforce(userEntity.name);
-        } catch (Exception e) {
+        if (!NAME_VALIDATOR.isValid(rpEntity.name) || !NAME_VALIDATOR.isValid(userEntity.name)) {
             return false;
         }
         if (userEntity.id.length <= 0 || userEntity.id.length > 64) {
@@ -68,64 +73,59 @@ public class AuthenticatorMakeCredentialOptions {
         return true;
     }
 
+    /**
+     * @return The validator that areWellFormed() checks RP and user names with, e.g. for
+     * changing its cache size with setCacheSize()
+     */
+    public static PrecisNameValidator getNameValidator() {
+        return NAME_VALIDATOR;
+    }
+
     public static AuthenticatorMakeCredentialOptions fromJSON(String json) {
-        TypeToken<List<Pair<String, Long>>> credTypesType = new TypeToken<List<Pair<String, Long>>>() {
-        };
-        TypeToken<List<PublicKeyCredentialDescriptor>> excludeListType = new TypeToken<List<PublicKeyCredentialDescriptor>>() {
-        };
-        Gson gson = new GsonBuilder()
-                .registerTypeAdapter(byte[].class, new Base64ByteArrayAdapter())
-                .registerTypeAdapter(credTypesType.getType(), new CredTypesDeserializer())
-                .registerTypeAdapter(excludeListType.getType(), new ExcludeCredentialListDeserializer())
-                .create();
-        return gson.fromJson(json, AuthenticatorMakeCredentialOptions.class);
+        return GSON.fromJson(json, AuthenticatorMakeCredentialOptions.class);
     }
 
-    private static class CredTypesDeserializer implements JsonDeserializer<List<Pair<String, Long>>> {
+    private static class CredTypesAdapter extends TypeAdapter<List<Pair<String, Long>>> {
+        @Override
+        public void write(JsonWriter out, List<Pair<String, Long>> value) throws IOException {
+            if (value == null) {
+                out.nullValue();
+                return;
+            }
+
+            out.beginArray();
+            for (Pair<String, Long> credType : value) {
+                out.beginArray().value(credType.first).value(credType.second).endArray();
+            }
+            out.endArray();
+        }
+
         @Override
-        public List<Pair<String, Long>> deserialize(JsonElement json, Type typeOfT, JsonDeserializationContext context) throws JsonParseException {
+        public List<Pair<String, Long>> read(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+
             List<Pair<String, Long>> credTypes = new ArrayList<>();
-            for (JsonElement element : json.getAsJsonArray()) {
+            in.beginArray();
+            while (in.hasNext()) {
                 // all elements are arrays like ["public-key", "-7"]
-                JsonArray pair = element.getAsJsonArray();
-                String type = pair.get(0).getAsString();
+                in.beginArray();
+                String type = in.nextString();
+                String alg = in.nextString();
+                while (in.hasNext()) {
+                    in.skipValue();
+                }
+                in.endArray();
                 try {
-                    long alg = Long.parseLong(pair.get(1).getAsString());
-                    credTypes.add(new Pair<>(type, alg));
+                    credTypes.add(new Pair<>(type, Long.parseLong(alg)));
                 } catch (NumberFormatException e) {
                     continue;
                 }
             }
+            in.endArray();
             return credTypes;
         }
     }
-
-    private static class ExcludeCredentialListDeserializer implements JsonDeserializer<List<PublicKeyCredentialDescriptor>> {
-        @Override
-        public List<PublicKeyCredentialDescriptor> deserialize(JsonElement json, Type typeOfT, JsonDeserializationContext context) throws JsonParseException {
-            List<PublicKeyCredentialDescriptor> excludeList = new ArrayList<>();
-            if (json.isJsonArray()) {
-                for (JsonElement element : json.getAsJsonArray()) {
-                    // elements are JSON objects that take the form:
-                    // {"type": "public-key", "id": "<base64-bytes>", "transports": ["usb", "nfc", "ble", "internal"] }
-                    if (element.isJsonObject()) {
-                        JsonObject entryObject = element.getAsJsonObject();
-                        String type = entryObject.get("type").getAsString();
-                        String idString = entryObject.get("id").getAsString();
-                        byte[] id = Base64.decode(idString, Base64.NO_WRAP);
-                        List<String> transports = new ArrayList<>();
-                        // "transports" is an optional member
-                        if (entryObject.has("transports")) {
-                            for (JsonElement transport : entryObject.getAsJsonArray("transports")) {
-                                transports.add(transport.getAsString());
-                            }
-                        }
-                        excludeList.add(new PublicKeyCredentialDescriptor(type, id, transports));
-                    }
-                }
-            }
-            return excludeList;
-        }
-    }
 }
-
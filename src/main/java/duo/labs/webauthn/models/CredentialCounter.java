@@ -0,0 +1,32 @@
+package duo.labs.webauthn.models;
+
+import android.arch.persistence.room.Entity;
+import android.arch.persistence.room.Index;
+import android.arch.persistence.room.PrimaryKey;
+
+/**
+ * The signature counter of a credential and when it was last used. These change on every
+ * assertion, so they are kept out of the credentials table: bumping a counter doesn't invalidate
+ * queries and LiveData that only read credential metadata.
+ * <p>
+ * The rpId is copied here so credentials for an RP can be listed most recently used first straight
+ * from the (rpId, lastUsed) index.
+ */
+@Entity(tableName = "credential_counters", indices = {@Index({"rpId", "lastUsed"})})
+public class CredentialCounter {
+    // the roomUid of the credential this counter belongs to
+    @PrimaryKey
+    public int roomUid;
+    public String rpId;
+    public int keyUseCounter;
+    // milliseconds since the epoch of the last assertion, or of creation if there hasn't been one;
+    // 0 for credentials that haven't been used since they were migrated here
+    public long lastUsed;
+
+    public CredentialCounter(int roomUid, String rpId, int keyUseCounter, long lastUsed) {
+        this.roomUid = roomUid;
+        this.rpId = rpId;
+        this.keyUseCounter = keyUseCounter;
+        this.lastUsed = lastUsed;
+    }
+}
@@ -0,0 +1,13 @@
+package duo.labs.webauthn.models;
+
+/**
+ * The columns of a credential that a credential management list shows. Loading these instead of
+ * whole PublicKeyCredentialSource rows leaves the userHandle, otherUI and public key blobs in
+ * SQLite.
+ */
+public class CredentialListItem {
+    public int roomUid;
+    public byte[] id;
+    public String rpId;
+    public String userDisplayName;
+}
@@ -0,0 +1,13 @@
+package duo.labs.webauthn.models;
+
+/**
+ * The columns of a credential that a CredentialItemSelector needs to offer it to the user. The
+ * full PublicKeyCredentialSource is only loaded for the credential that gets selected.
+ */
+public class CredentialSelectionItem {
+    public int roomUid;
+    public byte[] id;
+    public String userDisplayName;
+    // milliseconds since the epoch, or 0 if unknown
+    public long lastUsed;
+}
@@ -1,16 +1,10 @@
 package duo.labs.webauthn.models;
 
-import android.util.Base64;
-
-import java.io.ByteArrayOutputStream;
-import java.util.Arrays;
-
-import co.nstant.in.cbor.CborBuilder;
-import co.nstant.in.cbor.CborEncoder;
-import co.nstant.in.cbor.CborException;
-import duo.labs.webauthn.exceptions.VirgilException;
+import duo.labs.webauthn.util.CborWriter;
 
 public class NoneAttestationObject extends AttestationObject {
+    private static final byte[] FMT_NONE = CborWriter.encodeTextString("none");
+
     /**
      * Construct a new self-attestation attObj in packed format.
      *
@@ -20,30 +14,19 @@ public class NoneAttestationObject extends AttestationObject {
         this.authData = authData;
     }
 
-    /**
-     * Encode this self-attestation attObj as the CBOR required by the WebAuthn spec
-     * https://www.w3.org/TR/webauthn/#sctn-attestation
-     * https://www.w3.org/TR/webauthn/#none-attestation
-     *
-     * @return CBOR encoding of the attestation object as a byte array
-     * @throws VirgilException
-     */
     @Override
-    public byte[] asCBOR() throws VirgilException {
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        try {
-            new CborEncoder(baos).encode(new CborBuilder()
-                    .addMap()
-                    .put("authData", this.authData)
-                    .put("fmt", "none")
-                    .putMap("attStmt")
-                    .end()
-                    .end()
-                    .build()
-            );
-        } catch (CborException e) {
-            throw new VirgilException("couldn't serialize to cbor", e);
-        }
-        return baos.toByteArray();
+    int attestationStatementSize() {
+        return 1;
+    }
+
+    @Override
+    void writeAttestationStatement(CborWriter writer) {
+        // "none" attestation has an empty attStmt: https://www.w3.org/TR/webauthn/#none-attestation
+        writer.writeMapHeader(0);
+    }
+
+    @Override
+    byte[] encodedFormat() {
+        return FMT_NONE;
     }
 }
@@ -1,16 +1,13 @@
 package duo.labs.webauthn.models;
 
-import android.util.Base64;
-
-import java.io.ByteArrayOutputStream;
-import java.util.Arrays;
-
-import co.nstant.in.cbor.CborBuilder;
-import co.nstant.in.cbor.CborEncoder;
-import co.nstant.in.cbor.CborException;
-import duo.labs.webauthn.exceptions.VirgilException;
+import duo.labs.webauthn.util.CborWriter;
 
 public class PackedSelfAttestationObject extends AttestationObject {
+    private static final byte[] FMT_PACKED = CborWriter.encodeTextString("packed");
+    private static final byte[] ALG_KEY = CborWriter.encodeTextString("alg");
+    private static final byte[] SIG_KEY = CborWriter.encodeTextString("sig");
+    private static final long ES256_ALGORITHM = -7;
+
     private byte[] signature;
 
     /**
@@ -25,32 +22,23 @@ public class PackedSelfAttestationObject extends AttestationObject {
         this.signature = signature;
     }
 
-    /**
-     * Encode this self-attestation attObj as the CBOR required by the WebAuthn spec
-     * https://www.w3.org/TR/webauthn/#sctn-attestation
-     * https://www.w3.org/TR/webauthn/#packed-attestation
-     *
-     * @return CBOR encoding of the attestation object as a byte array
-     * @throws VirgilException
-     */
     @Override
-    public byte[] asCBOR() throws VirgilException {
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        try {
-            new CborEncoder(baos).encode(new CborBuilder()
-                    .addMap()
-                    .put("authData", this.authData)
-                    .put("fmt", "packed")
-                    .putMap("attStmt")
-                    .put("alg", (long) -7)
-                    .put("sig", this.signature)
-                    .end()
-                    .end()
-                    .build()
-            );
-        } catch (CborException e) {
-            throw new VirgilException("couldn't serialize to cbor", e);
-        }
-        return baos.toByteArray();
+    int attestationStatementSize() {
+        return 1
+                + ALG_KEY.length + CborWriter.headerSize(-1 - ES256_ALGORITHM)
+                + SIG_KEY.length + CborWriter.stringSize(this.signature.length);
+    }
+
+    @Override
+    void writeAttestationStatement(CborWriter writer) {
+        // self attestation has no x5c / ecdaaKeyId: https://www.w3.org/TR/webauthn/#packed-attestation
+        writer.writeMapHeader(2)
+                .writeRaw(ALG_KEY).writeInteger(ES256_ALGORITHM)
+                .writeRaw(SIG_KEY).writeByteString(this.signature);
+    }
+
+    @Override
+    byte[] encodedFormat() {
+        return FMT_PACKED;
     }
 }
@@ -9,7 +9,7 @@ import android.util.Base64;
 
 import java.security.SecureRandom;
 
-@Entity(tableName = "credentials", indices = {@Index("rpId")})
+@Entity(tableName = "credentials", indices = {@Index({"rpId", "userDisplayName"}), @Index(value = {"id"}, unique = true)})
 public class PublicKeyCredentialSource {
     public static final String type = "public-key";
 
@@ -21,7 +21,21 @@ public class PublicKeyCredentialSource {
     public byte[] userHandle;
     public String userDisplayName;
     public String otherUI;
+    // Kept in the credential_counters table, not in this one. This is the initial value for a new
+    // credential and the value after incrementCredentialUseCounter; rows loaded from the
+    // database leave it at 0.
+    @Ignore
     public int keyUseCounter;
+    public byte[] cosePublicKey;
+    // Key properties, fixed when the key pair is generated and recorded since database version 6.
+    // For older credentials, keyCurve and keyAlgorithm were filled in by the migration, since
+    // every key was ES256 on P-256, and userVerificationRequired is read from the key store by
+    // CredentialSafe.warmUp. strongBoxBacked stays null, meaning unknown: KeyInfo doesn't tell
+    // StrongBox keys apart from other hardware-backed keys on API 28.
+    public Boolean userVerificationRequired;
+    public Boolean strongBoxBacked;
+    public String keyCurve;
+    public int keyAlgorithm;
 
     @Ignore
     private static SecureRandom random;
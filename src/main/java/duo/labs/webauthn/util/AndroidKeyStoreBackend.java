@@ -0,0 +1,163 @@
+package duo.labs.webauthn.util;
+
+import android.security.keystore.KeyGenParameterSpec;
+import android.security.keystore.KeyInfo;
+import android.security.keystore.KeyProperties;
+import android.support.annotation.NonNull;
+
+import java.io.IOException;
+import java.security.InvalidAlgorithmParameterException;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.KeyStore;
+import java.security.KeyStoreException;
+import java.security.NoSuchAlgorithmException;
+import java.security.NoSuchProviderException;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.UnrecoverableEntryException;
+import java.security.cert.CertificateException;
+import java.security.spec.ECGenParameterSpec;
+import java.security.spec.InvalidKeySpecException;
+import java.util.Collections;
+import java.util.List;
+
+import duo.labs.webauthn.exceptions.VirgilException;
+
+/**
+ * AndroidKeyStoreBackend uses the Android KeyStore to generate and store
+ * ES256 keys that are hardware-backed.
+ * <p>
+ * These keys can optionally be protected with "Strongbox keymaster" protection and user
+ * authentication on supported hardware.
+ */
+public class AndroidKeyStoreBackend implements KeyBackend {
+    private static final String KEYSTORE_TYPE = "AndroidKeyStore";
+    private static final String CURVE_NAME = "secp256r1";
+    // loaded on first use, since loading is a binder call to the keystore daemon
+    private volatile KeyStore keyStore;
+    private boolean authenticationRequired;
+    private boolean strongboxRequired;
+
+    /**
+     * Construct a backend. The key store isn't loaded until it's first needed, or warmUp() is
+     * called, so this returns right away.
+     *
+     * @param authenticationRequired Whether user will be required to use biometrics to allow each
+     *                               use of keys generated (requires fingerprint enrollment).
+     * @param strongboxRequired      Require keys to be backed by the "Strongbox Keymaster" HSM.
+     *                               Requires hardware support.
+     * @throws VirgilException
+     */
+    public AndroidKeyStoreBackend(boolean authenticationRequired, boolean strongboxRequired) throws VirgilException {
+        this.authenticationRequired = authenticationRequired;
+        this.strongboxRequired = strongboxRequired;
+    }
+
+    private KeyStore getKeyStore() throws VirgilException {
+        KeyStore keyStore = this.keyStore;
+        if (keyStore == null) {
+            synchronized (this) {
+                keyStore = this.keyStore;
+                if (keyStore == null) {
+                    try {
+                        keyStore = KeyStore.getInstance(KEYSTORE_TYPE);
+                        keyStore.load(null);
+                    } catch (KeyStoreException | CertificateException |
+                            NoSuchAlgorithmException | IOException e) {
+                        throw new VirgilException("couldn't access keystore", e);
+                    }
+                    this.keyStore = keyStore;
+                }
+            }
+        }
+        return keyStore;
+    }
+
+    @Override
+    public void warmUp() throws VirgilException {
+        getKeyStore();
+    }
+
+    @Override
+    public KeyPair generate(@NonNull String alias) throws VirgilException {
+        KeyGenParameterSpec spec = new KeyGenParameterSpec.Builder(alias, KeyProperties.PURPOSE_SIGN)
+                .setAlgorithmParameterSpec(new ECGenParameterSpec(CURVE_NAME))
+                .setDigests(KeyProperties.DIGEST_SHA256)
+                .setUserAuthenticationRequired(this.authenticationRequired) // fingerprint or similar
+                .setUserConfirmationRequired(false) // TODO: Decide if we support Android Trusted Confirmations
+                .setInvalidatedByBiometricEnrollment(false)
+                .setIsStrongBoxBacked(this.strongboxRequired)
+                .build();
+        try {
+            KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance(KeyProperties.KEY_ALGORITHM_EC, KEYSTORE_TYPE);
+            keyPairGenerator.initialize(spec);
+            KeyPair keyPair = keyPairGenerator.generateKeyPair();
+            return keyPair;
+        } catch (NoSuchAlgorithmException | NoSuchProviderException | InvalidAlgorithmParameterException e) {
+            throw new VirgilException("couldn't generate key pair: " + e.toString());
+        }
+    }
+
+    @Override
+    public KeyPair load(@NonNull String alias) throws VirgilException {
+        try {
+            KeyStore keyStore = getKeyStore();
+            PrivateKey privateKey = (PrivateKey) keyStore.getKey(alias, null);
+            PublicKey publicKey = keyStore.getCertificate(alias).getPublicKey();
+            return new KeyPair(publicKey, privateKey);
+        } catch (KeyStoreException | NoSuchAlgorithmException | UnrecoverableEntryException e) {
+            throw new VirgilException("couldn't get key by alias", e);
+        }
+    }
+
+    @Override
+    public void delete(@NonNull String alias) throws VirgilException {
+        try {
+            getKeyStore().deleteEntry(alias);
+        } catch (KeyStoreException e) {
+            throw new VirgilException("couldn't delete key pair", e);
+        }
+    }
+
+    @Override
+    public boolean requiresVerification(@NonNull String alias) throws VirgilException {
+        PrivateKey privateKey = load(alias).getPrivate();
+        KeyFactory factory;
+        KeyInfo keyInfo;
+
+        try {
+            factory = KeyFactory.getInstance(privateKey.getAlgorithm(), KEYSTORE_TYPE);
+        } catch (NoSuchAlgorithmException | NoSuchProviderException exception) {
+            throw new VirgilException("Couldn't build key factory: " + exception.toString());
+        }
+
+        try {
+            keyInfo = factory.getKeySpec(privateKey, KeyInfo.class);
+        } catch (InvalidKeySpecException exception) {
+            throw new VirgilException("Not an android keystore key: " + exception.toString());
+        }
+
+        return keyInfo.isUserAuthenticationRequired();
+    }
+
+    @Override
+    public boolean isUserAuthenticationRequired() {
+        return authenticationRequired;
+    }
+
+    @Override
+    public boolean isStrongBoxBacked() {
+        return strongboxRequired;
+    }
+
+    @Override
+    public List<String> aliases() throws VirgilException {
+        try {
+            return Collections.list(getKeyStore().aliases());
+        } catch (KeyStoreException e) {
+            throw new VirgilException("couldn't list keystore aliases", e);
+        }
+    }
+}
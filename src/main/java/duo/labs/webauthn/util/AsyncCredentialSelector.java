@@ -0,0 +1,22 @@
+package duo.labs.webauthn.util;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import duo.labs.webauthn.models.CredentialSelectionItem;
+
+/**
+ * A CredentialItemSelector that doesn't block the ceremony while the user chooses.
+ * getAssertionAsyncSelecting carries on from wherever the returned future is completed, e.g. a
+ * click handler on the main thread.
+ */
+public interface AsyncCredentialSelector {
+    /**
+     * Start choosing the credential to use for an assertion.
+     *
+     * @param credentialList The credentials matching the request
+     * @return A future for the selected credential. Completing it with null means none was
+     * selected.
+     */
+    public CompletableFuture<CredentialSelectionItem> selectFromAsync(List<CredentialSelectionItem> credentialList);
+}
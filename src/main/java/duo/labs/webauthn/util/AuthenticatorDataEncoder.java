@@ -0,0 +1,152 @@
+package duo.labs.webauthn.util;
+
+import java.util.Arrays;
+
+import duo.labs.webauthn.exceptions.VirgilException;
+
+/**
+ * AuthenticatorDataEncoder assembles an authenticatorData structure followed by the client data
+ * hash (the `authenticatorData || clientDataHash` concatenation that gets signed) in a single pass.
+ * <p>
+ * Each thread owns one encoder whose buffer is reused across ceremonies, so constructing the data
+ * to be signed does not allocate once the buffer has grown to fit. The contents of the buffer are
+ * only valid until the next call to encode() on the same thread.
+ * <p>
+ * https://www.w3.org/TR/webauthn/#sec-authenticator-data
+ */
+public class AuthenticatorDataEncoder {
+    public static final byte FLAG_USER_PRESENT = 0x01;
+    public static final byte FLAG_USER_VERIFIED = 0x01 << 2;
+    public static final byte FLAG_ATTESTED_CREDENTIAL_DATA = 0x01 << 6;
+
+    private static final int RP_ID_HASH_LENGTH = 32;
+    private static final int AAGUID_LENGTH = 16;
+    private static final int INITIAL_CAPACITY = 256;
+
+    private static final ThreadLocal<AuthenticatorDataEncoder> ENCODERS = new ThreadLocal<AuthenticatorDataEncoder>() {
+        @Override
+        protected AuthenticatorDataEncoder initialValue() {
+            return new AuthenticatorDataEncoder();
+        }
+    };
+
+    private byte[] buffer = new byte[INITIAL_CAPACITY];
+    private int authenticatorDataLength;
+    private int length;
+
+    /**
+     * Retrieve the encoder owned by the calling thread.
+     *
+     * @return the per-thread AuthenticatorDataEncoder
+     */
+    public static AuthenticatorDataEncoder forCurrentThread() {
+        return ENCODERS.get();
+    }
+
+    /**
+     * Encode authenticatorData and append the client data hash.
+     * <p>
+     * | rpIdHash | flags | signCount | AAGUID | L | credentialId | credentialPublicKey | clientDataHash |
+     * |    32    |   1   |     4     |   16   | 2 |      L       |          n          |       32       |
+     * <p>
+     * The attested credential data (AAGUID through credentialPublicKey) is only written when a
+     * credential ID is supplied.
+     *
+     * @param rpIdHash            the SHA-256 hash of the rpId
+     * @param userVerified        whether the user verified flag should be set
+     * @param signCount           the signature counter for this credential
+     * @param credentialId        the credential ID, or null if no attested credential data should be included
+     * @param credentialPublicKey the COSE-encoded credential public key (ignored if credentialId is null)
+     * @param clientDataHash      the hash of the serialized client data
+     * @return this encoder, for reading back the encoded bytes
+     * @throws VirgilException
+     */
+    public AuthenticatorDataEncoder encode(byte[] rpIdHash, boolean userVerified, int signCount, byte[] credentialId, byte[] credentialPublicKey, byte[] clientDataHash) throws VirgilException {
+        if (rpIdHash.length != RP_ID_HASH_LENGTH) {
+            throw new VirgilException("rpIdHash must be a 32-byte SHA-256 hash");
+        }
+        boolean attested = credentialId != null;
+        if (attested && credentialPublicKey == null) {
+            throw new VirgilException("attested credential data requires a credential public key");
+        }
+
+        byte flags = FLAG_USER_PRESENT;
+        if (userVerified) {
+            flags |= FLAG_USER_VERIFIED;
+        }
+        if (attested) {
+            flags |= FLAG_ATTESTED_CREDENTIAL_DATA;
+        }
+
+        // 32-byte hash + 1-byte flags + 4 bytes signCount = 37 bytes
+        authenticatorDataLength = RP_ID_HASH_LENGTH + 1 + 4;
+        if (attested) {
+            authenticatorDataLength += AAGUID_LENGTH + 2 + credentialId.length + credentialPublicKey.length;
+        }
+        length = authenticatorDataLength + clientDataHash.length;
+        ensureCapacity(length);
+
+        int position = 0;
+        System.arraycopy(rpIdHash, 0, buffer, position, RP_ID_HASH_LENGTH);
+        position += RP_ID_HASH_LENGTH;
+        buffer[position++] = flags;
+        position = putInt(position, signCount);
+        if (attested) {
+            // AAGUID will be 16 bytes of zeroes
+            Arrays.fill(buffer, position, position + AAGUID_LENGTH, (byte) 0);
+            position += AAGUID_LENGTH;
+            buffer[position++] = (byte) (credentialId.length >>> 8); // L
+            buffer[position++] = (byte) credentialId.length;
+            System.arraycopy(credentialId, 0, buffer, position, credentialId.length);
+            position += credentialId.length;
+            System.arraycopy(credentialPublicKey, 0, buffer, position, credentialPublicKey.length);
+            position += credentialPublicKey.length;
+        }
+        System.arraycopy(clientDataHash, 0, buffer, position, clientDataHash.length);
+        return this;
+    }
+
+    /**
+     * @return the backing buffer. Only the first length() bytes are meaningful.
+     */
+    public byte[] buffer() {
+        return buffer;
+    }
+
+    /**
+     * @return the length of `authenticatorData || clientDataHash`
+     */
+    public int length() {
+        return length;
+    }
+
+    /**
+     * @return the length of the authenticatorData prefix of the buffer
+     */
+    public int authenticatorDataLength() {
+        return authenticatorDataLength;
+    }
+
+    /**
+     * Copy the authenticatorData out of the shared buffer so it can outlive the next encode() call.
+     *
+     * @return a new array containing only the authenticatorData
+     */
+    public byte[] toAuthenticatorData() {
+        return Arrays.copyOf(buffer, authenticatorDataLength);
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (buffer.length < capacity) {
+            buffer = new byte[Math.max(capacity, buffer.length * 2)];
+        }
+    }
+
+    private int putInt(int position, int value) {
+        buffer[position++] = (byte) (value >>> 24);
+        buffer[position++] = (byte) (value >>> 16);
+        buffer[position++] = (byte) (value >>> 8);
+        buffer[position++] = (byte) value;
+        return position;
+    }
+}
@@ -0,0 +1,133 @@
+package duo.labs.webauthn.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+
+/**
+ * Base64CharWriter is an OutputStream that writes the Base64 encoding of everything written to it
+ * into a Writer, so binary values can be streamed into JSON or a WebView bridge without first
+ * building a byte array and then a String. The encoding matches android.util.Base64 with NO_WRAP:
+ * the standard alphabet, padded, without line breaks.
+ * <p>
+ * finish() pads and emits any trailing bytes. It leaves the underlying Writer open, so one writer
+ * can encode several values in a row.
+ */
+public class Base64CharWriter extends OutputStream {
+    private static final char[] ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+    private static final char PADDING = '=';
+    // a multiple of 4, so a full buffer always ends on a complete group
+    private static final int BUFFER_SIZE = 512;
+
+    private final Writer out;
+    private final char[] chars = new char[BUFFER_SIZE];
+    private int charCount;
+    // up to two bytes that don't yet make a complete 3-byte group
+    private int pending;
+    private int pendingCount;
+
+    public Base64CharWriter(Writer out) {
+        this.out = out;
+    }
+
+    /**
+     * @param length A number of bytes
+     * @return The number of characters in the padded Base64 encoding of that many bytes
+     */
+    public static int encodedLength(int length) {
+        return (length + 2) / 3 * 4;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        pending = (pending << 8) | (b & 0xff);
+        if (++pendingCount == 3) {
+            writeGroup(pending);
+            pending = 0;
+            pendingCount = 0;
+        }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        int end = off + len;
+        // complete a group started by a previous write
+        while (pendingCount != 0 && off < end) {
+            write(b[off++]);
+        }
+        for (; off + 3 <= end; off += 3) {
+            writeGroup(((b[off] & 0xff) << 16) | ((b[off + 1] & 0xff) << 8) | (b[off + 2] & 0xff));
+        }
+        while (off < end) {
+            write(b[off++]);
+        }
+    }
+
+    /**
+     * Pad and write out any trailing bytes, ending the current Base64 value.
+     *
+     * @throws IOException
+     */
+    public void finish() throws IOException {
+        if (pendingCount != 0) {
+            ensureCapacity();
+            if (pendingCount == 1) {
+                chars[charCount++] = ALPHABET[(pending >> 2) & 0x3f];
+                chars[charCount++] = ALPHABET[(pending << 4) & 0x3f];
+                chars[charCount++] = PADDING;
+            } else {
+                chars[charCount++] = ALPHABET[(pending >> 10) & 0x3f];
+                chars[charCount++] = ALPHABET[(pending >> 4) & 0x3f];
+                chars[charCount++] = ALPHABET[(pending << 2) & 0x3f];
+            }
+            chars[charCount++] = PADDING;
+            pending = 0;
+            pendingCount = 0;
+        }
+        flushChars();
+    }
+
+    /**
+     * Write out the characters encoded so far and flush the underlying Writer. Bytes that don't
+     * make a complete group yet are kept until more are written or finish() is called.
+     *
+     * @throws IOException
+     */
+    @Override
+    public void flush() throws IOException {
+        flushChars();
+        out.flush();
+    }
+
+    /**
+     * Finish the current value and close the underlying Writer.
+     *
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        finish();
+        out.close();
+    }
+
+    private void writeGroup(int group) throws IOException {
+        ensureCapacity();
+        chars[charCount++] = ALPHABET[(group >> 18) & 0x3f];
+        chars[charCount++] = ALPHABET[(group >> 12) & 0x3f];
+        chars[charCount++] = ALPHABET[(group >> 6) & 0x3f];
+        chars[charCount++] = ALPHABET[group & 0x3f];
+    }
+
+    private void ensureCapacity() throws IOException {
+        if (charCount == chars.length) {
+            flushChars();
+        }
+    }
+
+    private void flushChars() throws IOException {
+        if (charCount > 0) {
+            out.write(chars, 0, charCount);
+            charCount = 0;
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package duo.labs.webauthn.util;
+
+import android.hardware.biometrics.BiometricPrompt;
+import android.util.Log;
+
+import java.util.concurrent.CompletableFuture;
+
+import duo.labs.webauthn.exceptions.InvalidStateError;
+import duo.labs.webauthn.exceptions.NotAllowedError;
+import duo.labs.webauthn.models.AttestationObject;
+
+/**
+ * Consent callback for a makeCredential request that we already know is excluded by its
+ * excludeCredentialDescriptorList. The user is still asked for consent so the RP can't tell an
+ * excluded credential apart from a declined prompt, but no credential is ever created: consent
+ * ends the operation with InvalidStateError, and declining it with NotAllowedError.
+ */
+public class BiometricExcludedCredentialCallback extends BiometricPrompt.AuthenticationCallback {
+    private static final String TAG = "BiometricExcludedCredentialCallback";
+
+    private CompletableFuture<AttestationObject> future;
+
+    public BiometricExcludedCredentialCallback(CompletableFuture<AttestationObject> future) {
+        super();
+        this.future = future;
+    }
+
+    @Override
+    public void onAuthenticationSucceeded(BiometricPrompt.AuthenticationResult result) {
+        super.onAuthenticationSucceeded(result);
+        Log.d(TAG, "Authentication Succeeded");
+        Log.w(TAG, "Credential is excluded by excludeCredentialDescriptorList");
+        future.completeExceptionally(new InvalidStateError());
+    }
+
+    @Override
+    public void onAuthenticationHelp(int helpCode, CharSequence helpString) {
+        super.onAuthenticationHelp(helpCode, helpString);
+        Log.d(TAG, "authentication help");
+    }
+
+    @Override
+    public void onAuthenticationError(int errorCode, CharSequence errString) {
+        super.onAuthenticationError(errorCode, errString);
+        Log.d(TAG, "authentication error");
+        future.completeExceptionally(new NotAllowedError());
+    }
+
+    @Override
+    public void onAuthenticationFailed() {
+        // this happens on a bad fingerprint read -- don't cancel/error if this happens
+        super.onAuthenticationFailed();
+        Log.d(TAG, "authentication failed");
+    }
+
+    public void onAuthenticationCancelled() {
+        Log.d(TAG, "authentication cancelled");
+        future.completeExceptionally(new NotAllowedError());
+    }
+}
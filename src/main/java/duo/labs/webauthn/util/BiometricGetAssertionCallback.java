@@ -5,9 +5,12 @@ import android.os.AsyncTask;
 import android.util.Log;
 
 import java.security.Signature;
-import java.util.concurrent.Exchanger;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 
 import duo.labs.webauthn.Authenticator;
+import duo.labs.webauthn.exceptions.NotAllowedError;
 import duo.labs.webauthn.exceptions.VirgilException;
 import duo.labs.webauthn.exceptions.WebAuthnException;
 import duo.labs.webauthn.models.AttestationObject;
@@ -18,18 +21,35 @@ import duo.labs.webauthn.models.PublicKeyCredentialSource;
 
 public class BiometricGetAssertionCallback extends BiometricPrompt.AuthenticationCallback {
     private static final String TAG = "BiometricGetAssertionCallback";
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
 
     private Authenticator authenticator;
     private AuthenticatorGetAssertionOptions options;
     private PublicKeyCredentialSource selectedCredential;
-    private Exchanger<AuthenticatorGetAssertionResult> exchanger;
+    private CompletableFuture<AuthenticatorGetAssertionResult> future;
+    private Executor executor;
+
+    public BiometricGetAssertionCallback(Authenticator authenticator, AuthenticatorGetAssertionOptions options, PublicKeyCredentialSource selectedCredential, CompletableFuture<AuthenticatorGetAssertionResult> future) {
+        this(authenticator, options, selectedCredential, future, DIRECT);
+    }
 
-    public BiometricGetAssertionCallback(Authenticator authenticator, AuthenticatorGetAssertionOptions options, PublicKeyCredentialSource selectedCredential, Exchanger<AuthenticatorGetAssertionResult> exchanger) {
+    /**
+     * @param executor Where to sign once the user has authenticated. The prompt calls back on
+     *                 the executor it was given, usually the main thread, and signing goes to the
+     *                 key store and the credential database.
+     */
+    public BiometricGetAssertionCallback(Authenticator authenticator, AuthenticatorGetAssertionOptions options, PublicKeyCredentialSource selectedCredential, CompletableFuture<AuthenticatorGetAssertionResult> future, Executor executor) {
         super();
         this.authenticator = authenticator;
         this.options = options;
         this.selectedCredential = selectedCredential;
-        this.exchanger = exchanger;
+        this.future = future;
+        this.executor = executor;
     }
 
     @Override
@@ -38,22 +58,32 @@ public class BiometricGetAssertionCallback extends BiometricPrompt.Authenticatio
         Log.d(TAG, "Authentication Succeeded");
 
         // retrieve biometricprompt-approved signature
-        Signature signature = result.getCryptoObject().getSignature();
+        final Signature signature = result.getCryptoObject().getSignature();
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    sign(signature);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            future.completeExceptionally(new VirgilException("Credential database executor is saturated", e));
+        }
+    }
 
+    private void sign(Signature signature) {
         AuthenticatorGetAssertionResult assertionResult;
         try {
             assertionResult = authenticator.getInternalAssertion(options, selectedCredential, signature);
         } catch (VirgilException | WebAuthnException exception) {
             Log.w(TAG, "Failed getInternalAssertion: " + exception.toString());
-            onAuthenticationFailed();
+            future.completeExceptionally(exception);
             return;
-        }
-        try {
-            exchanger.exchange(assertionResult);
-        } catch (InterruptedException exception) {
-            Log.w(TAG, "Could not send assertionResult from BiometricPrompt: " + exception.toString());
+        } catch (RuntimeException exception) {
+            future.completeExceptionally(exception);
             return;
         }
+        future.complete(assertionResult);
     }
 
     @Override
@@ -66,11 +96,7 @@ public class BiometricGetAssertionCallback extends BiometricPrompt.Authenticatio
     public void onAuthenticationError(int errorCode, CharSequence errString) {
         super.onAuthenticationError(errorCode, errString);
         Log.d(TAG, "authentication error");
-        try {
-            exchanger.exchange(null);
-        } catch (InterruptedException exception) {
-            Log.w(TAG, "Could not send null (failed) from BiometricPrompt: " + exception.toString());
-        }
+        future.completeExceptionally(new NotAllowedError());
     }
 
     @Override
@@ -82,10 +108,6 @@ public class BiometricGetAssertionCallback extends BiometricPrompt.Authenticatio
 
     public void onAuthenticationCancelled() {
         Log.d(TAG, "authentication cancelled");
-        try {
-            exchanger.exchange(null);
-        } catch (InterruptedException exception) {
-            Log.w(TAG, "Could not send null (failed) from BiometricPrompt: " + exception.toString());
-        }
+        future.completeExceptionally(new NotAllowedError());
     }
 }
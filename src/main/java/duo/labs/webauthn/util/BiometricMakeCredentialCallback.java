@@ -4,9 +4,12 @@ import android.hardware.biometrics.BiometricPrompt;
 import android.util.Log;
 
 import java.security.Signature;
-import java.util.concurrent.Exchanger;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 
 import duo.labs.webauthn.Authenticator;
+import duo.labs.webauthn.exceptions.NotAllowedError;
 import duo.labs.webauthn.exceptions.VirgilException;
 import duo.labs.webauthn.exceptions.WebAuthnException;
 import duo.labs.webauthn.models.AttestationObject;
@@ -15,18 +18,35 @@ import duo.labs.webauthn.models.PublicKeyCredentialSource;
 
 public class BiometricMakeCredentialCallback extends BiometricPrompt.AuthenticationCallback {
     private static final String TAG = "BiometricMakeCredentialCallback";
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
 
     private Authenticator authenticator;
     private AuthenticatorMakeCredentialOptions options;
     private PublicKeyCredentialSource credentialSource;
-    private Exchanger<AttestationObject> exchanger;
+    private CompletableFuture<AttestationObject> future;
+    private Executor executor;
+
+    public BiometricMakeCredentialCallback(Authenticator authenticator, AuthenticatorMakeCredentialOptions options, PublicKeyCredentialSource credentialSource, CompletableFuture<AttestationObject> future) {
+        this(authenticator, options, credentialSource, future, DIRECT);
+    }
 
-    public BiometricMakeCredentialCallback(Authenticator authenticator, AuthenticatorMakeCredentialOptions options, PublicKeyCredentialSource credentialSource, Exchanger<AttestationObject> exchanger) {
+    /**
+     * @param executor Where to sign once the user has authenticated. The prompt calls back on
+     *                 the executor it was given, usually the main thread, and signing goes to the
+     *                 key store and the credential database.
+     */
+    public BiometricMakeCredentialCallback(Authenticator authenticator, AuthenticatorMakeCredentialOptions options, PublicKeyCredentialSource credentialSource, CompletableFuture<AttestationObject> future, Executor executor) {
         super();
         this.authenticator = authenticator;
         this.options = options;
         this.credentialSource = credentialSource;
-        this.exchanger = exchanger;
+        this.future = future;
+        this.executor = executor;
     }
 
     @Override
@@ -35,22 +55,32 @@ public class BiometricMakeCredentialCallback extends BiometricPrompt.Authenticat
         Log.d(TAG, "Authentication Succeeded");
 
         // retrieve biometricprompt-approved signature
-        Signature signature = result.getCryptoObject().getSignature();
+        final Signature signature = result.getCryptoObject().getSignature();
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    sign(signature);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            future.completeExceptionally(new VirgilException("Credential database executor is saturated", e));
+        }
+    }
 
+    private void sign(Signature signature) {
         AttestationObject attestationObject;
         try {
             attestationObject = authenticator.makeInternalCredential(options, credentialSource, signature);
         } catch (VirgilException | WebAuthnException exception) {
             Log.w(TAG, "Failed makeInternalCredential: " + exception.toString());
-            onAuthenticationFailed();
+            future.completeExceptionally(exception);
             return;
-        }
-        try {
-            exchanger.exchange(attestationObject);
-        } catch (InterruptedException exception) {
-            Log.w(TAG, "Could not send attestationObject from BiometricPrompt: " + exception.toString());
+        } catch (RuntimeException exception) {
+            future.completeExceptionally(exception);
             return;
         }
+        future.complete(attestationObject);
     }
 
     @Override
@@ -63,11 +93,7 @@ public class BiometricMakeCredentialCallback extends BiometricPrompt.Authenticat
     public void onAuthenticationError(int errorCode, CharSequence errString) {
         super.onAuthenticationError(errorCode, errString);
         Log.d(TAG, "authentication error");
-        try {
-            exchanger.exchange(null);
-        } catch (InterruptedException exception) {
-            Log.w(TAG, "Could not send null (failure) from BiometricPrompt: " + exception.toString());
-        }
+        future.completeExceptionally(new NotAllowedError());
     }
 
     @Override
@@ -79,10 +105,6 @@ public class BiometricMakeCredentialCallback extends BiometricPrompt.Authenticat
 
     public void onAuthenticationCancelled() {
         Log.d(TAG, "authentication cancelled");
-        try {
-            exchanger.exchange(null);
-        } catch (InterruptedException exception) {
-            Log.w(TAG, "Could not send null (failure) from BiometricPrompt: " + exception.toString());
-        }
+        future.completeExceptionally(new NotAllowedError());
     }
 }
@@ -0,0 +1,218 @@
+package duo.labs.webauthn.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * CborWriter is a minimal CBOR encoder for the small, fixed-shape structures this library emits
+ * (attestation objects, COSE keys). Items are written directly into a byte array in the order
+ * they are supplied, so callers are responsible for writing map keys in canonical order
+ * (https://tools.ietf.org/html/rfc7049#section-3.9) and for writing the number of items they
+ * declared in each map or array header.
+ */
+public class CborWriter {
+    private static final int MAJOR_TYPE_UNSIGNED_INTEGER = 0;
+    private static final int MAJOR_TYPE_NEGATIVE_INTEGER = 1 << 5;
+    private static final int MAJOR_TYPE_BYTE_STRING = 2 << 5;
+    private static final int MAJOR_TYPE_TEXT_STRING = 3 << 5;
+    private static final int MAJOR_TYPE_ARRAY = 4 << 5;
+    private static final int MAJOR_TYPE_MAP = 5 << 5;
+    private static final int SIMPLE_VALUE_FALSE = (7 << 5) | 20;
+    private static final int SIMPLE_VALUE_TRUE = (7 << 5) | 21;
+
+    private byte[] buffer;
+    private int count;
+
+    public CborWriter() {
+        this(64);
+    }
+
+    /**
+     * @param initialCapacity The expected size of the encoding. If this is exact, toByteArray()
+     *                        returns the backing array without copying it.
+     */
+    public CborWriter(int initialCapacity) {
+        this.buffer = new byte[initialCapacity];
+    }
+
+    /**
+     * Pre-encode a text string, e.g. a constant map key, so it can be emitted with writeRaw().
+     *
+     * @param value The string to encode
+     * @return The CBOR encoding of value as a text string
+     */
+    public static byte[] encodeTextString(String value) {
+        return new CborWriter(value.length() + 9).writeTextString(value).toByteArray();
+    }
+
+    /**
+     * @param length The length of a byte or text string
+     * @return The number of bytes taken by the string header plus its contents
+     */
+    public static int stringSize(int length) {
+        return headerSize(length) + length;
+    }
+
+    /**
+     * @param value The argument of a data item (length, count or integer magnitude)
+     * @return The number of bytes taken by the item header
+     */
+    public static int headerSize(long value) {
+        if (value < 24) {
+            return 1;
+        } else if (value < 0x100L) {
+            return 2;
+        } else if (value < 0x10000L) {
+            return 3;
+        } else if (value < 0x100000000L) {
+            return 5;
+        }
+        return 9;
+    }
+
+    public CborWriter writeInteger(long value) {
+        if (value < 0) {
+            writeHeader(MAJOR_TYPE_NEGATIVE_INTEGER, -1 - value);
+        } else {
+            writeHeader(MAJOR_TYPE_UNSIGNED_INTEGER, value);
+        }
+        return this;
+    }
+
+    public CborWriter writeByteString(byte[] value) {
+        return writeByteString(value, 0, value.length);
+    }
+
+    public CborWriter writeByteString(byte[] value, int offset, int length) {
+        writeHeader(MAJOR_TYPE_BYTE_STRING, length);
+        return writeRaw(value, offset, length);
+    }
+
+    /**
+     * Write only the header of a byte string, for callers that write its contents elsewhere.
+     *
+     * @param length The length of the byte string that follows
+     * @return this writer
+     */
+    public CborWriter writeByteStringHeader(int length) {
+        writeHeader(MAJOR_TYPE_BYTE_STRING, length);
+        return this;
+    }
+
+    public CborWriter writeTextString(String value) {
+        byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+        writeHeader(MAJOR_TYPE_TEXT_STRING, utf8.length);
+        return writeRaw(utf8, 0, utf8.length);
+    }
+
+    public CborWriter writeArrayHeader(int size) {
+        writeHeader(MAJOR_TYPE_ARRAY, size);
+        return this;
+    }
+
+    public CborWriter writeMapHeader(int size) {
+        writeHeader(MAJOR_TYPE_MAP, size);
+        return this;
+    }
+
+    public CborWriter writeBoolean(boolean value) {
+        ensureCapacity(1);
+        buffer[count++] = (byte) (value ? SIMPLE_VALUE_TRUE : SIMPLE_VALUE_FALSE);
+        return this;
+    }
+
+    /**
+     * Append bytes that are already CBOR-encoded.
+     *
+     * @param encoded One or more complete CBOR data items
+     * @return this writer
+     */
+    public CborWriter writeRaw(byte[] encoded) {
+        return writeRaw(encoded, 0, encoded.length);
+    }
+
+    private CborWriter writeRaw(byte[] encoded, int offset, int length) {
+        ensureCapacity(length);
+        System.arraycopy(encoded, offset, buffer, count, length);
+        count += length;
+        return this;
+    }
+
+    /**
+     * @return The number of bytes written so far
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * @return The encoded bytes. The backing array is returned as-is when it is exactly full.
+     */
+    public byte[] toByteArray() {
+        if (count == buffer.length) {
+            return buffer;
+        }
+        return Arrays.copyOf(buffer, count);
+    }
+
+    /**
+     * Write the encoded bytes to a stream without copying them.
+     *
+     * @param out The destination stream
+     * @throws IOException
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(buffer, 0, count);
+    }
+
+    /**
+     * Write the encoded bytes into a buffer without copying them.
+     *
+     * @param out The destination buffer
+     */
+    public void writeTo(ByteBuffer out) {
+        out.put(buffer, 0, count);
+    }
+
+    private void writeHeader(int majorType, long value) {
+        int headerSize = headerSize(value);
+        ensureCapacity(headerSize);
+        switch (headerSize) {
+            case 1:
+                buffer[count++] = (byte) (majorType | (int) value);
+                break;
+            case 2:
+                buffer[count++] = (byte) (majorType | 24);
+                buffer[count++] = (byte) value;
+                break;
+            case 3:
+                buffer[count++] = (byte) (majorType | 25);
+                putBigEndian(value, 2);
+                break;
+            case 5:
+                buffer[count++] = (byte) (majorType | 26);
+                putBigEndian(value, 4);
+                break;
+            default:
+                buffer[count++] = (byte) (majorType | 27);
+                putBigEndian(value, 8);
+                break;
+        }
+    }
+
+    private void putBigEndian(long value, int length) {
+        for (int shift = (length - 1) * 8; shift >= 0; shift -= 8) {
+            buffer[count++] = (byte) (value >>> shift);
+        }
+    }
+
+    private void ensureCapacity(int additional) {
+        int required = count + additional;
+        if (required > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(required, buffer.length * 2));
+        }
+    }
+}
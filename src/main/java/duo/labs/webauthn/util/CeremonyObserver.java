@@ -0,0 +1,70 @@
+package duo.labs.webauthn.util;
+
+/**
+ * CeremonyObserver is notified as each step of a makeCredential or getAssertion ceremony
+ * finishes, so callers can see where the time in a ceremony goes.
+ * <p>
+ * Steps are reported from whichever thread ran them, including the main thread for steps that
+ * follow a biometric prompt, so implementations must be thread-safe and should return quickly.
+ * LatencyHistogramObserver is a ready-made implementation that aggregates latencies per step.
+ */
+public interface CeremonyObserver {
+    enum Ceremony {
+        MAKE_CREDENTIAL,
+        GET_ASSERTION
+    }
+
+    enum Step {
+        /**
+         * The whole ceremony, from the call into the Authenticator until its result is ready.
+         */
+        CEREMONY,
+        /**
+         * Checking that the options are well-formed and that we support the requested algorithm.
+         */
+        OPTIONS_CHECK,
+        /**
+         * Looking up excludeCredentialDescriptorList in the credential database.
+         */
+        EXCLUDE_CHECK,
+        /**
+         * Generating the new credential's key pair and storing the credential.
+         */
+        KEY_GENERATION,
+        /**
+         * Looking up this RP's credentials, or the ones in allowCredentialDescriptorList.
+         */
+        CREDENTIAL_LOOKUP,
+        /**
+         * Waiting for the CredentialItemSelector to pick one of several credentials.
+         */
+        CREDENTIAL_SELECTION,
+        /**
+         * Waiting for the user to respond to the biometric prompt.
+         */
+        USER_CONSENT,
+        /**
+         * Incrementing the signature counter in the credential database.
+         */
+        COUNTER_INCREMENT,
+        /**
+         * Encoding authenticatorData.
+         */
+        AUTHENTICATOR_DATA,
+        /**
+         * Loading the credential's private key and signing.
+         */
+        SIGNATURE
+    }
+
+    /**
+     * Called when a step finishes. Timestamps come from System.nanoTime().
+     *
+     * @param ceremony   The ceremony the step belongs to
+     * @param step       The step that finished
+     * @param startNanos When the step started
+     * @param endNanos   When the step finished
+     * @param error      The exception the step failed with, or null if it succeeded
+     */
+    void onStep(Ceremony ceremony, Step step, long startNanos, long endNanos, Throwable error);
+}
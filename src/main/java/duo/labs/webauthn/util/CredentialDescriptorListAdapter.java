@@ -0,0 +1,110 @@
+package duo.labs.webauthn.util;
+
+import android.util.Base64;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import duo.labs.webauthn.models.PublicKeyCredentialDescriptor;
+
+/**
+ * CredentialDescriptorListAdapter reads and writes lists of PublicKeyCredentialDescriptor, as
+ * used for excludeCredentials and allowCredentialDescriptorList, straight from the JSON stream.
+ * <p>
+ * Each descriptor takes the form:
+ * {"type": "public-key", "id": "<base64-bytes>", "transports": ["usb", "nfc", "ble", "internal"] }
+ * Entries that aren't JSON objects are skipped, as is anything that isn't an array.
+ */
+public class CredentialDescriptorListAdapter extends TypeAdapter<List<PublicKeyCredentialDescriptor>> {
+    @Override
+    public void write(JsonWriter out, List<PublicKeyCredentialDescriptor> value) throws IOException {
+        if (value == null) {
+            out.nullValue();
+            return;
+        }
+
+        out.beginArray();
+        for (PublicKeyCredentialDescriptor descriptor : value) {
+            out.beginObject();
+            out.name("type").value(descriptor.type);
+            out.name("id").value(descriptor.id == null ? null : Base64.encodeToString(descriptor.id, Base64.NO_WRAP));
+            if (descriptor.transports != null) {
+                out.name("transports").beginArray();
+                for (String transport : descriptor.transports) {
+                    out.value(transport);
+                }
+                out.endArray();
+            }
+            out.endObject();
+        }
+        out.endArray();
+    }
+
+    @Override
+    public List<PublicKeyCredentialDescriptor> read(JsonReader in) throws IOException {
+        JsonToken token = in.peek();
+        if (token == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+
+        List<PublicKeyCredentialDescriptor> descriptors = new ArrayList<>();
+        if (token != JsonToken.BEGIN_ARRAY) {
+            in.skipValue();
+            return descriptors;
+        }
+
+        in.beginArray();
+        while (in.hasNext()) {
+            if (in.peek() != JsonToken.BEGIN_OBJECT) {
+                in.skipValue();
+                continue;
+            }
+            descriptors.add(readDescriptor(in));
+        }
+        in.endArray();
+        return descriptors;
+    }
+
+    private static PublicKeyCredentialDescriptor readDescriptor(JsonReader in) throws IOException {
+        String type = null;
+        byte[] id = null;
+        // "transports" is an optional member
+        List<String> transports = new ArrayList<>();
+
+        in.beginObject();
+        while (in.hasNext()) {
+            String name = in.nextName();
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                continue;
+            }
+            switch (name) {
+                case "type":
+                    type = in.nextString();
+                    break;
+                case "id":
+                    id = Base64.decode(in.nextString(), Base64.NO_WRAP);
+                    break;
+                case "transports":
+                    in.beginArray();
+                    while (in.hasNext()) {
+                        transports.add(in.nextString());
+                    }
+                    in.endArray();
+                    break;
+                default:
+                    in.skipValue();
+                    break;
+            }
+        }
+        in.endObject();
+        return new PublicKeyCredentialDescriptor(type, id, transports);
+    }
+}
@@ -0,0 +1,16 @@
+package duo.labs.webauthn.util;
+
+import java.util.List;
+
+import duo.labs.webauthn.models.CredentialSelectionItem;
+
+public interface CredentialItemSelector {
+    /**
+     * Choose the credential to use for an assertion. Only the selected credential is then loaded
+     * in full.
+     *
+     * @param credentialList The credentials matching the request
+     * @return The selected credential, or null if none was selected
+     */
+    public CredentialSelectionItem selectFrom(List<CredentialSelectionItem> credentialList);
+}
@@ -1,53 +1,122 @@
 package duo.labs.webauthn.util;
 
 import android.content.Context;
-import android.security.keystore.KeyGenParameterSpec;
-import android.security.keystore.KeyInfo;
-import android.security.keystore.KeyProperties;
+import android.os.Looper;
 import android.support.annotation.NonNull;
+import android.util.Log;
+import android.util.LruCache;
 
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
-import java.security.InvalidAlgorithmParameterException;
-import java.security.KeyFactory;
+import java.nio.ByteBuffer;
 import java.security.KeyPair;
-import java.security.KeyPairGenerator;
-import java.security.KeyStore;
-import java.security.KeyStoreException;
-import java.security.NoSuchAlgorithmException;
-import java.security.NoSuchProviderException;
-import java.security.PrivateKey;
 import java.security.PublicKey;
-import java.security.UnrecoverableEntryException;
-import java.security.cert.CertificateException;
 import java.security.interfaces.ECPublicKey;
-import java.security.spec.ECGenParameterSpec;
 import java.security.spec.ECPoint;
-import java.security.spec.InvalidKeySpecException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
 
-import co.nstant.in.cbor.CborBuilder;
-import co.nstant.in.cbor.CborEncoder;
-import co.nstant.in.cbor.CborException;
 import duo.labs.webauthn.exceptions.VirgilException;
+import duo.labs.webauthn.models.CredentialSelectionItem;
 import duo.labs.webauthn.models.PublicKeyCredentialSource;
 import duo.labs.webauthn.util.database.CredentialDatabase;
 
 
 /**
- * CredentialSafe uses the Android KeyStore to generate and store
- * ES256 keys that are hardware-backed.
+ * CredentialSafe generates and stores ES256 credentials. Credential metadata lives in the
+ * credential database, and key pairs live in a KeyBackend, by default the Android KeyStore.
  * <p>
  * These keys can optionally be protected with "Strongbox keymaster" protection and user
  * authentication on supported hardware.
+ * <p>
+ * The credential database refuses queries on the main thread. The *Async methods run their
+ * queries on the database executor and can be called from anywhere; the others block the calling
+ * thread on SQLite.
+ * <p>
+ * Construction doesn't touch the key store or the database file. warmUp() loads and opens them on
+ * the database executor ahead of the first operation; the constructors that take a Context start
+ * it right away.
  */
 public class CredentialSafe {
-    private static final String KEYSTORE_TYPE = "AndroidKeyStore";
+    private static final String TAG = "CredentialSafe";
+    // SQLite allows at most 999 bound parameters per statement; one is used for the rpId
+    private static final int ID_QUERY_CHUNK_SIZE = 999 - 1;
+    private static final Comparator<CredentialSelectionItem> MOST_RECENTLY_USED_FIRST = new Comparator<CredentialSelectionItem>() {
+        @Override
+        public int compare(CredentialSelectionItem a, CredentialSelectionItem b) {
+            return Long.compare(b.lastUsed, a.lastUsed);
+        }
+    };
+    // map header + 3 single-byte key/value pairs + 2 * (key + 2-byte header + 32-byte coordinate)
+    private static final int COSE_PUBLIC_KEY_LENGTH = 1 + 3 * 2 + 2 * (1 + 2 + 32);
+    private static final int KEY_CACHE_SIZE = 32;
     private static final String CURVE_NAME = "secp256r1";
-    private KeyStore keyStore;
+    private static final int ES256_ALGORITHM = -7;
+    private KeyBackend keyBackend;
     private boolean authenticationRequired;
-    private boolean strongboxRequired;
     private CredentialDatabase db;
+    private final Executor executor;
+    private volatile KeyPairPool keyPairPool;
+    private CompletableFuture<StartupTimings> readiness;
+    // key store lookups are binder calls, so recently used key handles are kept around
+    private final LruCache<String, CachedKey> keyCache = new LruCache<>(KEY_CACHE_SIZE);
+    private final AtomicLong keyCacheHits = new AtomicLong();
+    private final AtomicLong keyCacheMisses = new AtomicLong();
+
+    /**
+     * The key handles for one alias, and whether using them requires user verification once
+     * that has been looked up.
+     */
+    private static class CachedKey {
+        final KeyPair keyPair;
+        volatile Boolean requiresVerification;
+
+        CachedKey(KeyPair keyPair) {
+            this.keyPair = keyPair;
+        }
+    }
+
+    /**
+     * How long each part of warmUp() took.
+     */
+    public static class StartupTimings {
+        public final long keyStoreNanos;
+        // opening the database includes any migrations and Room's schema check
+        public final long databaseNanos;
+        // filling in key properties that credentials from before database version 6 lack
+        public final long backfillNanos;
+        public final int backfilledCount;
+        public final long prefetchNanos;
+        public final int prefetchedRpCount;
+
+        StartupTimings(long keyStoreNanos, long databaseNanos, long backfillNanos, int backfilledCount, long prefetchNanos, int prefetchedRpCount) {
+            this.keyStoreNanos = keyStoreNanos;
+            this.databaseNanos = databaseNanos;
+            this.backfillNanos = backfillNanos;
+            this.backfilledCount = backfilledCount;
+            this.prefetchNanos = prefetchNanos;
+            this.prefetchedRpCount = prefetchedRpCount;
+        }
+
+        public long getTotalNanos() {
+            return keyStoreNanos + databaseNanos + backfillNanos + prefetchNanos;
+        }
+
+        @Override
+        public String toString() {
+            return "keyStore=" + keyStoreNanos / 1000 + "us database=" + databaseNanos / 1000
+                    + "us backfill=" + backfillNanos / 1000 + "us (" + backfilledCount + " credentials)"
+                    + " prefetch=" + prefetchNanos / 1000 + "us (" + prefetchedRpCount + " RPs)";
+        }
+    }
 
     /**
      * Construct a CredentialSafe that requires user authentication and strongbox backing.
@@ -70,56 +139,203 @@ public class CredentialSafe {
      * @throws VirgilException
      */
     public CredentialSafe(Context ctx, boolean authenticationRequired, boolean strongboxRequired) throws VirgilException {
-        try {
-            keyStore = KeyStore.getInstance(KEYSTORE_TYPE);
-            keyStore.load(null);
-        } catch (KeyStoreException | CertificateException |
-                NoSuchAlgorithmException | IOException e) {
-            throw new VirgilException("couldn't access keystore", e);
-        }
+        this(ctx, authenticationRequired, strongboxRequired, 0);
+    }
 
+    /**
+     * Construct a CredentialSafe with configurable user authentication / strongbox choices, and
+     * start warming it up with the credentials of the most recently used RPs.
+     *
+     * @param ctx                    The application context
+     * @param authenticationRequired Whether user will be required to use biometrics to allow each
+     *                               use of keys generated (requires fingerprint enrollment).
+     * @param strongboxRequired      Require keys to be backed by the "Strongbox Keymaster" HSM.
+     *                               Requires hardware support.
+     * @param prefetchRpCount        How many recently used RPs to prefetch. See warmUp.
+     * @throws VirgilException
+     */
+    public CredentialSafe(Context ctx, boolean authenticationRequired, boolean strongboxRequired, int prefetchRpCount) throws VirgilException {
+        this(CredentialDatabase.getDatabase(ctx), new AndroidKeyStoreBackend(authenticationRequired, strongboxRequired), authenticationRequired);
+        warmUp(prefetchRpCount);
+    }
+
+    /**
+     * Construct a CredentialSafe on top of a specific database and key backend, e.g. an in-memory
+     * database and a SoftwareKeyBackend for tests and benchmarks.
+     *
+     * @param db                     The database credentials are stored in
+     * @param keyBackend             Where credential key pairs are generated and stored
+     * @param authenticationRequired Whether the keys from keyBackend require user verification
+     *                               for each use.
+     */
+    public CredentialSafe(CredentialDatabase db, KeyBackend keyBackend, boolean authenticationRequired) {
+        this(db, keyBackend, authenticationRequired, CredentialDatabase.getQueryExecutor());
+    }
+
+    /**
+     * Construct a CredentialSafe that runs its asynchronous database work on a specific executor.
+     *
+     * @param db                     The database credentials are stored in
+     * @param keyBackend             Where credential key pairs are generated and stored
+     * @param authenticationRequired Whether the keys from keyBackend require user verification
+     *                               for each use.
+     * @param executor               Where the *Async methods run their queries
+     */
+    public CredentialSafe(CredentialDatabase db, KeyBackend keyBackend, boolean authenticationRequired, Executor executor) {
+        this.db = db;
+        this.keyBackend = keyBackend;
         this.authenticationRequired = authenticationRequired;
-        this.strongboxRequired = strongboxRequired;
-        this.db = CredentialDatabase.getDatabase(ctx);
+        this.executor = executor;
     }
 
     /**
-     * Determine if user verification (by the WebAuthn definition) is supported.
+     * Load the key store and open the database on the database executor, so the first operation
+     * doesn't have to. Credentials created before key properties were recorded get whether their
+     * key requires user verification filled in from the key store. The credentials of the most
+     * recently used RPs can be prefetched as well:
+     * their rows are read and the key handle of each RP's most recently used credential is cached.
+     * <p>
+     * Warm-up only runs once; later calls return the same future, whatever prefetchRpCount they
+     * pass. Operations don't need to wait for it, and set up whatever warm-up hasn't yet on first
+     * use. If warm-up fails, they retry that setup and report their own errors.
      *
-     * @return status of user verification requirement
+     * @param prefetchRpCount How many recently used RPs to prefetch, or 0 for none
+     * @return A future for the time each part of warm-up took. It completes exceptionally with a
+     * VirgilException on failure.
      */
-    public boolean supportsUserVerification() {
-        return this.authenticationRequired;
+    public synchronized CompletableFuture<StartupTimings> warmUp(final int prefetchRpCount) {
+        if (this.readiness == null) {
+            this.readiness = submit(new Callable<StartupTimings>() {
+                @Override
+                public StartupTimings call() throws VirgilException {
+                    StartupTimings timings = runWarmUp(prefetchRpCount);
+                    Log.i(TAG, "warm-up finished: " + timings);
+                    return timings;
+                }
+            });
+        }
+        return this.readiness;
+    }
+
+    /**
+     * @return A future that completes once warm-up has finished, starting warm-up without
+     * prefetching if it hasn't been started yet. See warmUp.
+     */
+    public CompletableFuture<StartupTimings> whenReady() {
+        return warmUp(0);
     }
 
+    private StartupTimings runWarmUp(int prefetchRpCount) throws VirgilException {
+        long start = System.nanoTime();
+        keyBackend.warmUp();
+        long keyStoreLoaded = System.nanoTime();
+        try {
+            db.getOpenHelper().getWritableDatabase();
+        } catch (RuntimeException e) {
+            throw new VirgilException("couldn't open credential database", e);
+        }
+        long databaseOpened = System.nanoTime();
+        int backfilledCount = backfillKeyProperties();
+        long backfilled = System.nanoTime();
+        int prefetchedRpCount = prefetchRpCount > 0 ? prefetch(prefetchRpCount) : 0;
+        long end = System.nanoTime();
+        return new StartupTimings(keyStoreLoaded - start, databaseOpened - keyStoreLoaded,
+                backfilled - databaseOpened, backfilledCount, end - backfilled, prefetchedRpCount);
+    }
+
+    // Record whether the keys of credentials created before database version 6 require user
+    // verification, so ceremonies don't have to ask the key store. Whether they are StrongBox
+    // backed can't be told from their KeyInfo, so that stays unknown.
+    private int backfillKeyProperties() {
+        int count = 0;
+        for (PublicKeyCredentialSource credential : db.credentialDao().getAllWithoutUserVerificationRequired()) {
+            try {
+                boolean requiresVerification = keyBackend.requiresVerification(credential.keyPairAlias);
+                db.credentialDao().updateUserVerificationRequired(credential.roomUid, requiresVerification);
+                count++;
+            } catch (VirgilException e) {
+                // keyRequiresVerification tries again if the credential is used
+                Log.w(TAG, "couldn't read key properties for credential", e);
+            }
+        }
+        return count;
+    }
+
+    // read the selection rows of the most recently used RPs, and cache the key of each one's
+    // most recently used credential
+    private int prefetch(int rpCount) {
+        List<String> rpIds = db.credentialDao().getRecentlyUsedRpIds(rpCount);
+        for (String rpId : rpIds) {
+            List<CredentialSelectionItem> items = getSelectionItemsForEntity(rpId);
+            if (items.isEmpty()) {
+                continue;
+            }
+            PublicKeyCredentialSource credential = getCredentialSource(items.get(0));
+            if (credential == null) {
+                continue;
+            }
+            try {
+                getCachedKey(credential.keyPairAlias);
+            } catch (VirgilException e) {
+                // the ceremony will report this if the credential is used
+                Log.w(TAG, "couldn't prefetch key pair for credential", e);
+            }
+        }
+        return rpIds.size();
+    }
 
     /**
-     * Generate a new ES256 keypair (COSE algorithm -7, ECDSA + SHA-256 over the NIST P-256 curve).
+     * @return The executor the *Async methods run their database work on
+     */
+    public Executor getExecutor() {
+        return this.executor;
+    }
+
+    /**
+     * Run a task that uses the database. Off the main thread the task runs right away on the
+     * calling thread; on the main thread it is handed to the database executor.
      *
-     * @param alias The alias used to identify this keypair in the keystore. Needed to use key
-     *              in the future.
-     * @return The KeyPair object representing the newly generated keypair.
-     * @throws VirgilException
+     * @param task The task to run
+     * @throws RejectedExecutionException if the task had to be queued and the executor is saturated
      */
-    private KeyPair generateNewES256KeyPair(String alias) throws VirgilException {
-        KeyGenParameterSpec spec = new KeyGenParameterSpec.Builder(alias, KeyProperties.PURPOSE_SIGN)
-                .setAlgorithmParameterSpec(new ECGenParameterSpec(CURVE_NAME))
-                .setDigests(KeyProperties.DIGEST_SHA256)
-                .setUserAuthenticationRequired(this.authenticationRequired) // fingerprint or similar
-                .setUserConfirmationRequired(false) // TODO: Decide if we support Android Trusted Confirmations
-                .setInvalidatedByBiometricEnrollment(false)
-                .setIsStrongBoxBacked(this.strongboxRequired)
-                .build();
+    public void runOffMainThread(Runnable task) {
+        if (Looper.getMainLooper().isCurrentThread()) {
+            this.executor.execute(task);
+        } else {
+            task.run();
+        }
+    }
+
+    // run a database task on the executor, completing the future with its result or exception
+    private <T> CompletableFuture<T> submit(final Callable<T> task) {
+        final CompletableFuture<T> future = new CompletableFuture<>();
         try {
-            KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance(KeyProperties.KEY_ALGORITHM_EC, KEYSTORE_TYPE);
-            keyPairGenerator.initialize(spec);
-            KeyPair keyPair = keyPairGenerator.generateKeyPair();
-            return keyPair;
-        } catch (NoSuchAlgorithmException | NoSuchProviderException | InvalidAlgorithmParameterException e) {
-            throw new VirgilException("couldn't generate key pair: " + e.toString());
+            this.executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        future.complete(task.call());
+                    } catch (Exception e) {
+                        future.completeExceptionally(e);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            future.completeExceptionally(new VirgilException("Credential database executor is saturated", e));
         }
+        return future;
+    }
+
+    /**
+     * Determine if user verification (by the WebAuthn definition) is supported.
+     *
+     * @return status of user verification requirement
+     */
+    public boolean supportsUserVerification() {
+        return this.authenticationRequired;
     }
 
+
     /**
      * Generate and save new credential with an ES256 keypair.
      *
@@ -132,18 +348,153 @@ public class CredentialSafe {
      */
     public PublicKeyCredentialSource generateCredential(@NonNull String rpEntityId, byte[] userHandle, String userDisplayName) throws VirgilException {
         PublicKeyCredentialSource credentialSource = new PublicKeyCredentialSource(rpEntityId, userHandle, userDisplayName);
-        generateNewES256KeyPair(credentialSource.keyPairAlias); // return not captured -- will retrieve credential by alias
+        KeyPair keyPair = claimPooledKeyPair(credentialSource);
+        if (keyPair == null) {
+            keyPair = keyBackend.generate(credentialSource.keyPairAlias);
+        }
+        // the prompt for this credential will need the private key right away
+        keyCache.put(credentialSource.keyPairAlias, new CachedKey(keyPair));
+        // record the public key and key properties now so later lookups don't need to go back to the keystore
+        credentialSource.cosePublicKey = coseEncodePublicKey(keyPair.getPublic());
+        credentialSource.userVerificationRequired = keyBackend.isUserAuthenticationRequired();
+        credentialSource.strongBoxBacked = keyBackend.isStrongBoxBacked();
+        credentialSource.keyCurve = CURVE_NAME;
+        credentialSource.keyAlgorithm = ES256_ALGORITHM;
         db.credentialDao().insert(credentialSource);
         return credentialSource;
     }
 
+    /**
+     * Generate and save a new credential on the database executor. See generateCredential.
+     *
+     * @param rpEntityId      The relying party's identifier
+     * @param userHandle      A unique ID for the user
+     * @param userDisplayName A human-readable username for the user
+     * @return A future for the new credential. It completes exceptionally with a VirgilException
+     * on failure.
+     */
+    public CompletableFuture<PublicKeyCredentialSource> generateCredentialAsync(@NonNull final String rpEntityId, final byte[] userHandle, final String userDisplayName) {
+        return submit(new Callable<PublicKeyCredentialSource>() {
+            @Override
+            public PublicKeyCredentialSource call() throws VirgilException {
+                return generateCredential(rpEntityId, userHandle, userDisplayName);
+            }
+        });
+    }
+
+    /**
+     * Bind a pre-generated key pair from the pool to this credential, if one is available.
+     *
+     * @param credentialSource The new credential. Its keyPairAlias is replaced by the pooled alias.
+     * @return The claimed key pair, or null if the pool is disabled or empty
+     */
+    private KeyPair claimPooledKeyPair(PublicKeyCredentialSource credentialSource) {
+        KeyPairPool pool = this.keyPairPool;
+        if (pool == null) {
+            return null;
+        }
+        String alias = pool.claim();
+        if (alias == null) {
+            return null;
+        }
+        try {
+            KeyPair keyPair = getKeyPairByAlias(alias);
+            credentialSource.keyPairAlias = alias;
+            return keyPair;
+        } catch (VirgilException e) {
+            Log.w(TAG, "couldn't load pooled key pair, generating a new one", e);
+            // the pool has let go of the alias; left in the key store, it would be adopted
+            // again, and fail again, after every restart
+            try {
+                keyBackend.delete(alias);
+            } catch (VirgilException deleteException) {
+                Log.w(TAG, "couldn't delete unusable pooled key pair", deleteException);
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Start keeping a pool of pre-generated key pairs so generateCredential doesn't have to wait
+     * for key generation. Pooled keys left over from a previous process are reused. Looking
+     * those up queries the database, so this must not be called from the main thread.
+     *
+     * @param size         The number of key pairs to keep available
+     * @param refillPolicy When the pool should generate replacement keys
+     * @return The pool, for adjusting its configuration and reading its metrics
+     * @throws VirgilException
+     */
+    public synchronized KeyPairPool enableKeyPairPool(int size, KeyPairPool.RefillPolicy refillPolicy) throws VirgilException {
+        if (keyPairPool != null) {
+            keyPairPool.setTargetSize(size);
+            keyPairPool.setRefillPolicy(refillPolicy);
+            return keyPairPool;
+        }
+        KeyPairPool pool = new KeyPairPool(keyBackend, size, refillPolicy);
+
+        // Pooled keys survive process restarts; adopt any that no credential has claimed yet.
+        List<String> unclaimed = new ArrayList<>();
+        Set<String> claimed = new HashSet<>(db.credentialDao().getKeyPairAliasesLike(KeyPairPool.ALIAS_PREFIX + "%"));
+        for (String alias : keyBackend.aliases()) {
+            if (alias.startsWith(KeyPairPool.ALIAS_PREFIX) && !claimed.contains(alias)) {
+                unclaimed.add(alias);
+            }
+        }
+        pool.adopt(unclaimed);
+        if (refillPolicy != KeyPairPool.RefillPolicy.MANUAL) {
+            pool.refill();
+        }
+        keyPairPool = pool;
+        return pool;
+    }
+
+    /**
+     * Stop using the key pair pool, delete any keys it had not handed out and stop its thread.
+     *
+     * @return A future that completes once the unclaimed keys have been deleted
+     */
+    public synchronized Future<?> disableKeyPairPool() {
+        if (keyPairPool == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        Future<?> drained = keyPairPool.shutdown();
+        keyPairPool = null;
+        return drained;
+    }
+
+    /**
+     * @return The key pair pool, or null if it has not been enabled
+     */
+    public KeyPairPool getKeyPairPool() {
+        return keyPairPool;
+    }
+
+    /**
+     * @return The backend holding this safe's key pairs
+     */
+    public KeyBackend getKeyBackend() {
+        return keyBackend;
+    }
+
+    /**
+     * Delete a credential and its key pair.
+     *
+     * @param credentialSource The credential to delete
+     */
     public void deleteCredential(PublicKeyCredentialSource credentialSource) {
         db.credentialDao().delete(credentialSource);
+        keyCache.remove(credentialSource.keyPairAlias);
+        try {
+            keyBackend.delete(credentialSource.keyPairAlias);
+        } catch (VirgilException e) {
+            // the credential is unusable without its database row, so a stray key is harmless
+            Log.w(TAG, "couldn't delete key pair for credential", e);
+        }
     }
 
 
     /**
-     * Get keys belonging to this RP ID.
+     * Get keys belonging to this RP ID, most recently used first.
      *
      * @param rpEntityId rpEntity.id from WebAuthn spec.
      * @return The set of associated PublicKeyCredentialSources.
@@ -152,6 +503,133 @@ public class CredentialSafe {
         return db.credentialDao().getAllByRpId(rpEntityId);
     }
 
+    /**
+     * Get keys belonging to this RP ID on the database executor.
+     *
+     * @param rpEntityId rpEntity.id from WebAuthn spec.
+     * @return A future for the set of associated PublicKeyCredentialSources.
+     */
+    public CompletableFuture<List<PublicKeyCredentialSource>> getKeysForEntityAsync(@NonNull final String rpEntityId) {
+        return submit(new Callable<List<PublicKeyCredentialSource>>() {
+            @Override
+            public List<PublicKeyCredentialSource> call() {
+                return getKeysForEntity(rpEntityId);
+            }
+        });
+    }
+
+    /**
+     * Get keys belonging to this RP ID whose credential IDs are in the given list.
+     * <p>
+     * The lookup goes through the unique index on credential IDs. Large lists are split into
+     * several queries to stay under SQLite's limit on bound parameters.
+     *
+     * @param rpEntityId rpEntity.id from WebAuthn spec.
+     * @param ids        The credential IDs to look for.
+     * @return The set of associated PublicKeyCredentialSources.
+     */
+    public List<PublicKeyCredentialSource> getKeysForEntity(@NonNull String rpEntityId, @NonNull List<byte[]> ids) {
+        List<byte[]> uniqueIds = distinctIds(ids);
+        List<PublicKeyCredentialSource> credentials = new ArrayList<>();
+        for (int start = 0; start < uniqueIds.size(); start += ID_QUERY_CHUNK_SIZE) {
+            int end = Math.min(start + ID_QUERY_CHUNK_SIZE, uniqueIds.size());
+            credentials.addAll(db.credentialDao().getAllByRpIdAndIds(rpEntityId, uniqueIds.subList(start, end)));
+        }
+        return credentials;
+    }
+
+    /**
+     * Get keys belonging to this RP ID whose credential IDs are in the given list, on the
+     * database executor.
+     *
+     * @param rpEntityId rpEntity.id from WebAuthn spec.
+     * @param ids        The credential IDs to look for.
+     * @return A future for the set of associated PublicKeyCredentialSources.
+     */
+    public CompletableFuture<List<PublicKeyCredentialSource>> getKeysForEntityAsync(@NonNull final String rpEntityId, @NonNull final List<byte[]> ids) {
+        return submit(new Callable<List<PublicKeyCredentialSource>>() {
+            @Override
+            public List<PublicKeyCredentialSource> call() {
+                return getKeysForEntity(rpEntityId, ids);
+            }
+        });
+    }
+
+    /**
+     * Get the credentials belonging to this RP ID as CredentialSelectionItems, for a
+     * CredentialItemSelector to choose from, most recently used first. Only the columns needed for
+     * selection are read.
+     *
+     * @param rpEntityId rpEntity.id from WebAuthn spec.
+     * @return The associated credentials.
+     */
+    public List<CredentialSelectionItem> getSelectionItemsForEntity(@NonNull String rpEntityId) {
+        return db.credentialDao().getSelectionItemsByRpId(rpEntityId);
+    }
+
+    /**
+     * Get the credentials belonging to this RP ID whose credential IDs are in the given list, as
+     * CredentialSelectionItems, most recently used first. See getKeysForEntity.
+     *
+     * @param rpEntityId rpEntity.id from WebAuthn spec.
+     * @param ids        The credential IDs to look for.
+     * @return The associated credentials.
+     */
+    public List<CredentialSelectionItem> getSelectionItemsForEntity(@NonNull String rpEntityId, @NonNull List<byte[]> ids) {
+        List<byte[]> uniqueIds = distinctIds(ids);
+        List<CredentialSelectionItem> credentials = new ArrayList<>();
+        for (int start = 0; start < uniqueIds.size(); start += ID_QUERY_CHUNK_SIZE) {
+            int end = Math.min(start + ID_QUERY_CHUNK_SIZE, uniqueIds.size());
+            credentials.addAll(db.credentialDao().getSelectionItemsByRpIdAndIds(rpEntityId, uniqueIds.subList(start, end)));
+        }
+        if (uniqueIds.size() > ID_QUERY_CHUNK_SIZE) {
+            // each chunk is ordered on its own
+            Collections.sort(credentials, MOST_RECENTLY_USED_FIRST);
+        }
+        return credentials;
+    }
+
+    /**
+     * Load the full credential for a selection item.
+     *
+     * @param item A credential returned by getSelectionItemsForEntity
+     * @return The credential, or null if it has been deleted since
+     */
+    public PublicKeyCredentialSource getCredentialSource(@NonNull CredentialSelectionItem item) {
+        return db.credentialDao().getByUid(item.roomUid);
+    }
+
+    /**
+     * Check whether any of the given credential IDs belongs to this RP ID, without loading the
+     * matching credentials. This is how makeCredential resolves excludeCredentialDescriptorList.
+     *
+     * @param rpEntityId rpEntity.id from WebAuthn spec.
+     * @param ids        The credential IDs to look for.
+     * @return true if at least one of the IDs identifies a credential for this RP
+     */
+    public boolean hasKeysForEntity(@NonNull String rpEntityId, @NonNull List<byte[]> ids) {
+        List<byte[]> uniqueIds = distinctIds(ids);
+        for (int start = 0; start < uniqueIds.size(); start += ID_QUERY_CHUNK_SIZE) {
+            int end = Math.min(start + ID_QUERY_CHUNK_SIZE, uniqueIds.size());
+            if (db.credentialDao().countByRpIdAndIds(rpEntityId, uniqueIds.subList(start, end)) > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // drop duplicates so the same credential can't come back from two different chunks
+    private static List<byte[]> distinctIds(List<byte[]> ids) {
+        Set<ByteBuffer> seen = new HashSet<>();
+        List<byte[]> uniqueIds = new ArrayList<>(ids.size());
+        for (byte[] id : ids) {
+            if (id != null && seen.add(ByteBuffer.wrap(id))) {
+                uniqueIds.add(id);
+            }
+        }
+        return uniqueIds;
+    }
+
     /**
      * Get the credential matching the specified id, if it exists
      *
@@ -162,9 +640,49 @@ public class CredentialSafe {
         return db.credentialDao().getById(id);
     }
 
+    /**
+     * Get the credential matching the specified id on the database executor.
+     *
+     * @param id byte[] credential id
+     * @return A future for the PublicKeyCredentialSource that matches the id, or null
+     */
+    public CompletableFuture<PublicKeyCredentialSource> getCredentialSourceByIdAsync(@NonNull final byte[] id) {
+        return submit(new Callable<PublicKeyCredentialSource>() {
+            @Override
+            public PublicKeyCredentialSource call() {
+                return getCredentialSourceById(id);
+            }
+        });
+    }
+
+
+    /**
+     * Loading a key pair and checking whether its key requires user verification each look the
+     * key up in the cache once.
+     *
+     * @return The number of key cache lookups that found the key cached
+     */
+    public long getKeyCacheHitCount() {
+        return keyCacheHits.get();
+    }
+
+    /**
+     * @return The number of key cache lookups that had to load the key from the key backend
+     */
+    public long getKeyCacheMissCount() {
+        return keyCacheMisses.get();
+    }
+
+    /**
+     * Forget every cached key handle, e.g. after keys were changed outside this CredentialSafe.
+     */
+    public void clearKeyCache() {
+        keyCache.evictAll();
+    }
 
     /**
-     * Retrieve a previously-generated keypair from the keystore.
+     * Retrieve a previously-generated keypair from the key backend. Recently used key pairs are
+     * served from a cache.
      *
      * @param alias The associated keypair alias.
      * @return A KeyPair object representing the public/private keys. Private key material is
@@ -172,14 +690,38 @@ public class CredentialSafe {
      * @throws VirgilException
      */
     public KeyPair getKeyPairByAlias(@NonNull String alias) throws VirgilException {
-        KeyStore.Entry keyEntry;
-        try {
-            PrivateKey privateKey = (PrivateKey) keyStore.getKey(alias, null);
-            PublicKey publicKey = keyStore.getCertificate(alias).getPublicKey();
-            return new KeyPair(publicKey, privateKey);
-        } catch (KeyStoreException | NoSuchAlgorithmException | UnrecoverableEntryException e) {
-            throw new VirgilException("couldn't get key by alias", e);
+        return getCachedKey(alias).keyPair;
+    }
+
+    private CachedKey getCachedKey(String alias) throws VirgilException {
+        CachedKey cachedKey = keyCache.get(alias);
+        if (cachedKey != null) {
+            keyCacheHits.incrementAndGet();
+            return cachedKey;
         }
+        keyCacheMisses.incrementAndGet();
+        cachedKey = new CachedKey(keyBackend.load(alias));
+        keyCache.put(alias, cachedKey);
+        return cachedKey;
+    }
+
+    /**
+     * Get the COSE-encoded public key for a credential.
+     * <p>
+     * Credentials created before the public key was stored in the database are looked up in the
+     * keystore once, and the encoded key is saved for subsequent calls.
+     *
+     * @param credentialSource The credential whose public key we want
+     * @return A COSE_Key-encoded public key as byte array.
+     * @throws VirgilException
+     */
+    public byte[] getCosePublicKey(@NonNull PublicKeyCredentialSource credentialSource) throws VirgilException {
+        if (credentialSource.cosePublicKey == null) {
+            PublicKey publicKey = getKeyPairByAlias(credentialSource.keyPairAlias).getPublic();
+            credentialSource.cosePublicKey = coseEncodePublicKey(publicKey);
+            db.credentialDao().updateCosePublicKey(credentialSource.roomUid, credentialSource.cosePublicKey);
+        }
+        return credentialSource.cosePublicKey;
     }
 
     /**
@@ -190,26 +732,38 @@ public class CredentialSafe {
      * @throws VirgilException
      */
     public boolean keyRequiresVerification(@NonNull String alias) throws VirgilException {
-        PrivateKey privateKey = getKeyPairByAlias(alias).getPrivate();
-        KeyFactory factory;
-        KeyInfo keyInfo;
-
-        try {
-            factory = KeyFactory.getInstance(privateKey.getAlgorithm(), KEYSTORE_TYPE);
-        } catch (NoSuchAlgorithmException | NoSuchProviderException exception) {
-            throw new VirgilException("Couldn't build key factory: " + exception.toString());
+        // getCachedKey has counted this lookup already
+        CachedKey cachedKey = getCachedKey(alias);
+        Boolean requiresVerification = cachedKey.requiresVerification;
+        if (requiresVerification != null) {
+            return requiresVerification;
         }
+        requiresVerification = keyBackend.requiresVerification(alias);
+        cachedKey.requiresVerification = requiresVerification;
+        return requiresVerification;
+    }
 
-        try {
-            keyInfo = factory.getKeySpec(privateKey, KeyInfo.class);
-        } catch (InvalidKeySpecException exception) {
-            throw new VirgilException("Not an android keystore key: " + exception.toString());
-        }
 
-        return keyInfo.isUserAuthenticationRequired();
+    /**
+     * Checks whether this credential's key requires user verification or not.
+     * <p>
+     * The answer is recorded with the credential when it is created, and warmUp fills it in for
+     * credentials created before that. Any still missing are looked up in the key store once, and
+     * the answer is saved for subsequent calls.
+     *
+     * @param credentialSource The credential whose key we want to use
+     * @return whether this key requires user verification or not
+     * @throws VirgilException
+     */
+    public boolean keyRequiresVerification(@NonNull PublicKeyCredentialSource credentialSource) throws VirgilException {
+        if (credentialSource.userVerificationRequired == null) {
+            boolean requiresVerification = keyRequiresVerification(credentialSource.keyPairAlias);
+            db.credentialDao().updateUserVerificationRequired(credentialSource.roomUid, requiresVerification);
+            credentialSource.userVerificationRequired = requiresVerification;
+        }
+        return credentialSource.userVerificationRequired;
     }
 
-
     /**
      * Fix the length of a byte array such that:
      * 1) If the desired length is less than the length of `arr`, the left-most source bytes are
@@ -260,31 +814,40 @@ public class CredentialSafe {
         byte[] y = toUnsignedFixedLength(yVariableLength, 32);
         assert y.length == 32;
 
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        try {
-            new CborEncoder(baos).encode(new CborBuilder()
-                    .addMap()
-                    .put(1, 2)  // kty: EC2 key type
-                    .put(3, -7) // alg: ES256 sig algorithm
-                    .put(-1, 1) // crv: P-256 curve
-                    .put(-2, x) // x-coord
-                    .put(-3, y) // y-coord
-                    .end()
-                    .build()
-            );
-        } catch (CborException e) {
-            throw new VirgilException("couldn't serialize to cbor", e);
-        }
-        return baos.toByteArray();
+        // kty, alg, crv, x, y are written in canonical CBOR key order: 1, 3, -1, -2, -3
+        return new CborWriter(COSE_PUBLIC_KEY_LENGTH)
+                .writeMapHeader(5)
+                .writeInteger(1).writeInteger(2)  // kty: EC2 key type
+                .writeInteger(3).writeInteger(-7) // alg: ES256 sig algorithm
+                .writeInteger(-1).writeInteger(1) // crv: P-256 curve
+                .writeInteger(-2).writeByteString(x) // x-coord
+                .writeInteger(-3).writeByteString(y) // y-coord
+                .toByteArray();
     }
 
     /**
-     * Increment the credential use counter for this credential.
+     * Increment the credential use counter for this credential. The increment happens in a single
+     * UPDATE statement, so concurrent assertions with the same credential each see a distinct value.
      *
      * @param credential The credential whose counter we want to increase.
-     * @return The value of the counter before incrementing.
+     * @return The value of the counter after incrementing.
      */
     public int incrementCredentialUseCounter(PublicKeyCredentialSource credential) {
         return db.credentialDao().incrementUseCounter(credential);
     }
+
+    /**
+     * Increment the credential use counter for this credential on the database executor.
+     *
+     * @param credential The credential whose counter we want to increase.
+     * @return A future for the value of the counter after incrementing.
+     */
+    public CompletableFuture<Integer> incrementCredentialUseCounterAsync(final PublicKeyCredentialSource credential) {
+        return submit(new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return incrementCredentialUseCounter(credential);
+            }
+        });
+    }
 }
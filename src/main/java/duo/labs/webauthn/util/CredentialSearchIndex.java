@@ -0,0 +1,127 @@
+package duo.labs.webauthn.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+
+import duo.labs.webauthn.models.CredentialSelectionItem;
+
+/**
+ * An in-memory prefix index over the display names of a list of credentials, for searching as
+ * the user types. A name matches if it, or any word in it, starts with the query, ignoring case.
+ * <p>
+ * The index is a sorted array of lowercased names and word suffixes. A lookup is a binary search
+ * for the first key at or after the query, followed by a scan over the keys that start with it,
+ * so its cost depends on the number of results rather than the number of credentials.
+ * <p>
+ * The index is built once for the credentials offered in one selection and is immutable, so it
+ * can be searched from any thread.
+ */
+public class CredentialSearchIndex {
+    private final List<CredentialSelectionItem> items;
+    // sorted search keys, and the position in items of the credential each one belongs to
+    private final String[] keys;
+    private final int[] positions;
+
+    private static class Key {
+        final String key;
+        final int position;
+
+        Key(String key, int position) {
+            this.key = key;
+            this.position = position;
+        }
+    }
+
+    private static final Comparator<Key> KEY_ORDER = new Comparator<Key>() {
+        @Override
+        public int compare(Key a, Key b) {
+            return a.key.compareTo(b.key);
+        }
+    };
+
+    /**
+     * @param items The credentials to search. The list must not change while the index is used.
+     */
+    public CredentialSearchIndex(List<CredentialSelectionItem> items) {
+        this.items = items;
+        List<Key> keyList = new ArrayList<>(items.size());
+        for (int i = 0; i < items.size(); i++) {
+            String name = normalize(items.get(i).userDisplayName);
+            keyList.add(new Key(name, i));
+            // every later word of the name is a key of its own
+            for (int j = 1; j < name.length(); j++) {
+                if (Character.isWhitespace(name.charAt(j - 1)) && !Character.isWhitespace(name.charAt(j))) {
+                    keyList.add(new Key(name.substring(j), i));
+                }
+            }
+        }
+        Key[] sorted = keyList.toArray(new Key[0]);
+        Arrays.sort(sorted, KEY_ORDER);
+        this.keys = new String[sorted.length];
+        this.positions = new int[sorted.length];
+        for (int k = 0; k < sorted.length; k++) {
+            this.keys[k] = sorted[k].key;
+            this.positions[k] = sorted[k].position;
+        }
+    }
+
+    private static String normalize(String name) {
+        return name == null ? "" : name.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * @return The number of credentials in the index
+     */
+    public int size() {
+        return items.size();
+    }
+
+    /**
+     * Find the credentials whose display name, or a word in it, starts with the query.
+     *
+     * @param query The text typed so far. Case and leading whitespace are ignored.
+     * @param limit The maximum number of credentials to return
+     * @return The matching credentials in order of the matching name or word. An empty query
+     * returns the first credentials in the order they were given.
+     */
+    public List<CredentialSelectionItem> search(String query, int limit) {
+        String prefix = normalize(query).trim();
+        if (prefix.isEmpty()) {
+            return new ArrayList<>(items.subList(0, Math.min(limit, items.size())));
+        }
+        // the keys starting with prefix are contiguous, beginning at the first key >= prefix
+        int low = 0;
+        int high = keys.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (keys[mid].compareTo(prefix) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        if (low == keys.length || !keys[low].startsWith(prefix)) {
+            return Collections.emptyList();
+        }
+
+        List<CredentialSelectionItem> results = new ArrayList<>();
+        // a credential can match through its name and through one of its words
+        BitSet seen = keys.length > items.size() ? new BitSet(items.size()) : null;
+        for (int k = low; k < keys.length && results.size() < limit && keys[k].startsWith(prefix); k++) {
+            int position = positions[k];
+            if (seen != null) {
+                if (seen.get(position)) {
+                    continue;
+                }
+                seen.set(position);
+            }
+            results.add(items.get(position));
+        }
+        return results;
+    }
+}
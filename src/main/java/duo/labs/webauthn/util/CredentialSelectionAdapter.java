@@ -0,0 +1,64 @@
+package duo.labs.webauthn.util;
+
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.BaseAdapter;
+import android.widget.TextView;
+
+import java.util.List;
+
+import duo.labs.webauthn.models.CredentialSelectionItem;
+
+/**
+ * A list adapter showing the display name of each credential. Rows are created as they are
+ * scrolled into view and recycled afterwards, so long lists don't need a view or label per
+ * credential up front.
+ */
+public class CredentialSelectionAdapter extends BaseAdapter {
+    private List<CredentialSelectionItem> credentialList;
+
+    public CredentialSelectionAdapter(List<CredentialSelectionItem> credentialList) {
+        this.credentialList = credentialList;
+    }
+
+    /**
+     * Show a different list of credentials, e.g. the results of a search.
+     *
+     * @param credentialList The credentials to show
+     */
+    public void setCredentialList(List<CredentialSelectionItem> credentialList) {
+        this.credentialList = credentialList;
+        notifyDataSetChanged();
+    }
+
+    @Override
+    public int getCount() {
+        return credentialList.size();
+    }
+
+    @Override
+    public CredentialSelectionItem getItem(int position) {
+        return credentialList.get(position);
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return credentialList.get(position).roomUid;
+    }
+
+    @Override
+    public boolean hasStableIds() {
+        return true;
+    }
+
+    @Override
+    public View getView(int position, View convertView, ViewGroup parent) {
+        TextView view = (TextView) convertView;
+        if (view == null) {
+            view = (TextView) LayoutInflater.from(parent.getContext()).inflate(android.R.layout.simple_list_item_1, parent, false);
+        }
+        view.setText(credentialList.get(position).userDisplayName);
+        return view;
+    }
+}
@@ -1,10 +1,15 @@
 package duo.labs.webauthn.util;
 
 import java.util.List;
-import java.util.concurrent.Exchanger;
 
 import duo.labs.webauthn.models.PublicKeyCredentialSource;
 
+/**
+ * @deprecated Every matching credential is loaded in full before selectFrom is called. Implement
+ * CredentialItemSelector instead, which chooses from the columns needed for selection and only
+ * loads the chosen credential.
+ */
+@Deprecated
 public interface CredentialSelector {
     public PublicKeyCredentialSource selectFrom(List<PublicKeyCredentialSource> credentialList);
 }
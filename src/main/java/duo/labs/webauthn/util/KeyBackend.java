@@ -0,0 +1,74 @@
+package duo.labs.webauthn.util;
+
+import android.support.annotation.NonNull;
+
+import java.security.KeyPair;
+import java.util.List;
+
+import duo.labs.webauthn.exceptions.VirgilException;
+
+/**
+ * KeyBackend is where CredentialSafe keeps the ES256 key pairs behind its credentials.
+ * Keys are identified by the keyPairAlias stored with each credential.
+ * <p>
+ * AndroidKeyStoreBackend is the default and keeps keys in hardware. SoftwareKeyBackend keeps
+ * them in memory, for tests and benchmarks that shouldn't depend on the device key store.
+ */
+public interface KeyBackend {
+    /**
+     * Do any slow setup, such as loading a key store, ahead of the first operation. The other
+     * methods set the backend up on first use, so calling this is optional.
+     *
+     * @throws VirgilException
+     */
+    void warmUp() throws VirgilException;
+
+    /**
+     * Generate a new ES256 keypair (COSE algorithm -7, ECDSA + SHA-256 over the NIST P-256 curve).
+     *
+     * @param alias The alias used to identify this keypair from now on
+     * @return The newly generated keypair
+     * @throws VirgilException
+     */
+    KeyPair generate(@NonNull String alias) throws VirgilException;
+
+    /**
+     * Retrieve a previously-generated keypair.
+     *
+     * @param alias The associated keypair alias
+     * @return The keypair. Private key material may not be accessible.
+     * @throws VirgilException
+     */
+    KeyPair load(@NonNull String alias) throws VirgilException;
+
+    /**
+     * Delete a keypair. Deleting an alias that doesn't exist is not an error.
+     *
+     * @param alias The associated keypair alias
+     * @throws VirgilException
+     */
+    void delete(@NonNull String alias) throws VirgilException;
+
+    /**
+     * @param alias The associated keypair alias
+     * @return whether using this key requires user verification
+     * @throws VirgilException
+     */
+    boolean requiresVerification(@NonNull String alias) throws VirgilException;
+
+    /**
+     * @return whether keys generated by this backend require user verification for each use
+     */
+    boolean isUserAuthenticationRequired();
+
+    /**
+     * @return whether keys generated by this backend are kept in a StrongBox secure element
+     */
+    boolean isStrongBoxBacked();
+
+    /**
+     * @return every alias currently held by this backend
+     * @throws VirgilException
+     */
+    List<String> aliases() throws VirgilException;
+}
@@ -0,0 +1,264 @@
+package duo.labs.webauthn.util;
+
+import android.os.Process;
+import android.util.Base64;
+import android.util.Log;
+
+import java.security.SecureRandom;
+import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import duo.labs.webauthn.exceptions.VirgilException;
+
+/**
+ * KeyPairPool keeps a number of pre-generated key pairs available so that credential creation
+ * doesn't have to wait for key generation, which can take hundreds of milliseconds on StrongBox
+ * hardware.
+ * <p>
+ * Pooled keys live in the KeyBackend under aliases starting with ALIAS_PREFIX. A claimed key is
+ * handed over by alias: the new credential simply records the pooled alias as its keyPairAlias.
+ * Key generation happens on a single low-priority background thread, which is stopped by
+ * shutdown().
+ */
+public class KeyPairPool {
+    private static final String TAG = "KeyPairPool";
+    public static final String ALIAS_PREFIX = "virgil-pool-";
+    public static final long DEFAULT_IDLE_DELAY_MILLIS = 5000;
+
+    /**
+     * When the pool should top itself back up.
+     */
+    public enum RefillPolicy {
+        /**
+         * Refill in the background once no key has been claimed for the idle delay, so generating
+         * replacements doesn't compete with the ceremony that claimed the key.
+         */
+        WHEN_IDLE,
+        /**
+         * Only refill when refill() is called, e.g. from a job scheduled while the device is idle.
+         */
+        MANUAL
+    }
+
+    private final KeyBackend keyBackend;
+    private final ConcurrentLinkedQueue<String> available = new ConcurrentLinkedQueue<>();
+    private final ScheduledThreadPoolExecutor executor;
+    private final AtomicBoolean refillScheduled = new AtomicBoolean(false);
+    private ScheduledFuture<?> idleRefill;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong generated = new AtomicLong();
+    private final SecureRandom random = new SecureRandom();
+    private volatile int targetSize;
+    private volatile RefillPolicy refillPolicy;
+    private volatile long idleDelayMillis = DEFAULT_IDLE_DELAY_MILLIS;
+
+    /**
+     * @param keyBackend   Where pooled keys are created and deleted
+     * @param targetSize   The number of keys the pool tries to keep available
+     * @param refillPolicy When the pool should refill itself
+     */
+    public KeyPairPool(KeyBackend keyBackend, int targetSize, RefillPolicy refillPolicy) {
+        this.keyBackend = keyBackend;
+        this.targetSize = targetSize;
+        this.refillPolicy = refillPolicy;
+        this.executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, TAG);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        // an idle refill still waiting when the pool is shut down would only generate keys
+        // nobody will claim
+        this.executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+    }
+
+    /**
+     * Take ownership of pooled keys that already exist in the key store, e.g. ones generated
+     * before the process was restarted.
+     *
+     * @param aliases Unclaimed aliases starting with ALIAS_PREFIX
+     */
+    public void adopt(Collection<String> aliases) {
+        available.addAll(aliases);
+    }
+
+    /**
+     * Claim a pre-generated key pair.
+     *
+     * @return The alias of the claimed key pair, or null if the pool is empty
+     */
+    public String claim() {
+        String alias = available.poll();
+        if (alias == null) {
+            misses.incrementAndGet();
+        } else {
+            hits.incrementAndGet();
+        }
+        if (refillPolicy == RefillPolicy.WHEN_IDLE) {
+            scheduleIdleRefill();
+        }
+        return alias;
+    }
+
+    // (re)start the idle delay, so a burst of claims is followed by a single refill
+    private synchronized void scheduleIdleRefill() {
+        if (idleRefill != null) {
+            idleRefill.cancel(false);
+        }
+        refillScheduled.set(true);
+        try {
+            idleRefill = executor.schedule(refillTask, idleDelayMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // the pool has been shut down
+            idleRefill = null;
+        }
+    }
+
+    /**
+     * Generate keys in the background until targetSize keys are available, without waiting for
+     * the idle delay. Calls made while a refill is already pending are coalesced into it.
+     *
+     * @return A future that completes when the pool has been refilled
+     */
+    public Future<?> refill() {
+        refillScheduled.set(true);
+        try {
+            return executor.submit(refillTask);
+        } catch (RejectedExecutionException e) {
+            // the pool has been shut down
+            return CompletableFuture.completedFuture(null);
+        }
+    }
+
+    private final Runnable refillTask = new Runnable() {
+        @Override
+        public void run() {
+            if (!refillScheduled.getAndSet(false)) {
+                return;
+            }
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+            while (available.size() < targetSize) {
+                String alias = newAlias();
+                try {
+                    keyBackend.generate(alias);
+                } catch (VirgilException e) {
+                    Log.w(TAG, "couldn't pre-generate key pair", e);
+                    return;
+                }
+                generated.incrementAndGet();
+                available.add(alias);
+            }
+        }
+    };
+
+    /**
+     * Delete every unclaimed key from the key store, then stop the pool's background thread.
+     * Refills that are already queued run first; idle refills that haven't started are dropped.
+     * The pool can't be refilled afterwards.
+     *
+     * @return A future that completes once the pool is empty
+     */
+    public Future<?> shutdown() {
+        synchronized (this) {
+            if (idleRefill != null) {
+                idleRefill.cancel(false);
+                idleRefill = null;
+            }
+        }
+        Future<?> drained = drain();
+        // tasks submitted before shutdown() still run, so the drain isn't cut short
+        executor.shutdown();
+        return drained;
+    }
+
+    /**
+     * Delete every unclaimed key from the key store.
+     *
+     * @return A future that completes once the pool is empty
+     */
+    public Future<?> drain() {
+        return executor.submit(new Runnable() {
+            @Override
+            public void run() {
+                String alias;
+                while ((alias = available.poll()) != null) {
+                    try {
+                        keyBackend.delete(alias);
+                    } catch (VirgilException e) {
+                        Log.w(TAG, "couldn't delete pooled key pair", e);
+                    }
+                }
+            }
+        });
+    }
+
+    public int getAvailableCount() {
+        return available.size();
+    }
+
+    public int getTargetSize() {
+        return targetSize;
+    }
+
+    public void setTargetSize(int targetSize) {
+        this.targetSize = targetSize;
+    }
+
+    public RefillPolicy getRefillPolicy() {
+        return refillPolicy;
+    }
+
+    public void setRefillPolicy(RefillPolicy refillPolicy) {
+        this.refillPolicy = refillPolicy;
+    }
+
+    public long getIdleDelayMillis() {
+        return idleDelayMillis;
+    }
+
+    /**
+     * @param idleDelayMillis How long after the last claim a WHEN_IDLE pool starts refilling
+     */
+    public void setIdleDelayMillis(long idleDelayMillis) {
+        this.idleDelayMillis = idleDelayMillis;
+    }
+
+    /**
+     * @return The number of claims that were served from the pool
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * @return The number of claims made while the pool was empty
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * @return The number of keys the pool has generated
+     */
+    public long getGeneratedCount() {
+        return generated.get();
+    }
+
+    private String newAlias() {
+        byte[] suffix = new byte[16];
+        random.nextBytes(suffix);
+        return ALIAS_PREFIX + Base64.encodeToString(suffix, Base64.NO_WRAP);
+    }
+}
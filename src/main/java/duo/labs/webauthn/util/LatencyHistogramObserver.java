@@ -0,0 +1,202 @@
+package duo.labs.webauthn.util;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * LatencyHistogramObserver keeps a latency histogram for every step of every ceremony, along with
+ * counts of the exceptions each step failed with.
+ * <p>
+ * Buckets are powers of two in microseconds: bucket i counts latencies below 2^i microseconds, and the last
+ * bucket counts everything slower. Recording a step is lock-free and doesn't allocate unless the
+ * step failed with an exception type it hasn't seen before.
+ */
+public class LatencyHistogramObserver implements CeremonyObserver {
+    public static final int BUCKET_COUNT = 28; // the last bounded bucket ends at 2^26 microseconds, about 67 seconds
+
+    private final Histogram[][] histograms;
+
+    public LatencyHistogramObserver() {
+        histograms = new Histogram[Ceremony.values().length][Step.values().length];
+        for (Histogram[] ceremonyHistograms : histograms) {
+            for (int i = 0; i < ceremonyHistograms.length; i++) {
+                ceremonyHistograms[i] = new Histogram();
+            }
+        }
+    }
+
+    @Override
+    public void onStep(Ceremony ceremony, Step step, long startNanos, long endNanos, Throwable error) {
+        getHistogram(ceremony, step).record(endNanos - startNanos, error);
+    }
+
+    /**
+     * @param ceremony The ceremony
+     * @param step     A step of that ceremony
+     * @return The live histogram for that step
+     */
+    public Histogram getHistogram(Ceremony ceremony, Step step) {
+        return histograms[ceremony.ordinal()][step.ordinal()];
+    }
+
+    /**
+     * Clear every histogram.
+     */
+    public void reset() {
+        for (Histogram[] ceremonyHistograms : histograms) {
+            for (Histogram histogram : ceremonyHistograms) {
+                histogram.reset();
+            }
+        }
+    }
+
+    /**
+     * @param bucket A bucket index
+     * @return The exclusive upper bound of the bucket in microseconds, or Long.MAX_VALUE for the
+     * last bucket
+     */
+    public static long getBucketUpperBoundMicros(int bucket) {
+        if (bucket >= BUCKET_COUNT - 1) {
+            return Long.MAX_VALUE;
+        }
+        return 1L << bucket;
+    }
+
+    /**
+     * @return A summary of every step that has been recorded at least once
+     */
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        for (Ceremony ceremony : Ceremony.values()) {
+            for (Step step : Step.values()) {
+                Histogram histogram = getHistogram(ceremony, step);
+                if (histogram.getCount() > 0) {
+                    builder.append(ceremony).append('/').append(step).append(": ").append(histogram).append('\n');
+                }
+            }
+        }
+        return builder.toString();
+    }
+
+    public static class Histogram {
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong totalNanos = new AtomicLong();
+        private final AtomicLong failures = new AtomicLong();
+        private final ConcurrentHashMap<String, AtomicLong> failuresByType = new ConcurrentHashMap<>();
+
+        void record(long nanos, Throwable error) {
+            long micros = Math.max(nanos, 0) / 1000;
+            // the number of significant bits is the index of the first power of two above micros
+            int bucket = Math.min(64 - Long.numberOfLeadingZeros(micros), BUCKET_COUNT - 1);
+            buckets.incrementAndGet(bucket);
+            count.incrementAndGet();
+            totalNanos.addAndGet(nanos);
+            if (error != null) {
+                failures.incrementAndGet();
+                String type = error.getClass().getSimpleName();
+                AtomicLong typeCount = failuresByType.get(type);
+                if (typeCount == null) {
+                    AtomicLong newCount = new AtomicLong();
+                    typeCount = failuresByType.putIfAbsent(type, newCount);
+                    if (typeCount == null) {
+                        typeCount = newCount;
+                    }
+                }
+                typeCount.incrementAndGet();
+            }
+        }
+
+        void reset() {
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                buckets.set(i, 0);
+            }
+            count.set(0);
+            totalNanos.set(0);
+            failures.set(0);
+            failuresByType.clear();
+        }
+
+        /**
+         * @return The number of times this step finished, successfully or not
+         */
+        public long getCount() {
+            return count.get();
+        }
+
+        /**
+         * @return The number of times this step failed
+         */
+        public long getFailureCount() {
+            return failures.get();
+        }
+
+        /**
+         * @return Failure counts keyed by the simple class name of the exception
+         */
+        public Map<String, Long> getFailureCounts() {
+            Map<String, Long> counts = new HashMap<>();
+            for (Map.Entry<String, AtomicLong> entry : failuresByType.entrySet()) {
+                counts.put(entry.getKey(), entry.getValue().get());
+            }
+            return counts;
+        }
+
+        /**
+         * @return The mean latency in nanoseconds, or 0 if nothing has been recorded
+         */
+        public long getMeanNanos() {
+            long n = count.get();
+            return n == 0 ? 0 : totalNanos.get() / n;
+        }
+
+        /**
+         * @return A copy of the bucket counts. See getBucketUpperBoundMicros for the bucket bounds.
+         */
+        public long[] getBucketCounts() {
+            long[] counts = new long[BUCKET_COUNT];
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                counts[i] = buckets.get(i);
+            }
+            return counts;
+        }
+
+        /**
+         * @param percentile A percentile between 0 and 100
+         * @return The upper bound, in microseconds, of the bucket containing that percentile, or
+         * 0 if nothing has been recorded
+         */
+        public long getPercentileMicros(double percentile) {
+            long[] counts = getBucketCounts();
+            long total = 0;
+            for (long bucketCount : counts) {
+                total += bucketCount;
+            }
+            if (total == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(total * percentile / 100.0);
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank && counts[i] > 0) {
+                    return getBucketUpperBoundMicros(i);
+                }
+            }
+            return getBucketUpperBoundMicros(BUCKET_COUNT - 1);
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "count=%d failures=%d mean=%.3fms p50<%dus p90<%dus p99<%dus %s",
+                    getCount(), getFailureCount(), getMeanNanos() / 1e6,
+                    getPercentileMicros(50), getPercentileMicros(90), getPercentileMicros(99),
+                    getFailureCounts());
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package duo.labs.webauthn.util;
+
+import android.util.LruCache;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import rocks.xmpp.precis.PrecisProfile;
+
+/**
+ * PrecisNameValidator checks names against a PRECIS profile, remembering the names that passed.
+ * Enforcement does Unicode normalization and code point property lookups, while the same RP and
+ * user names come up again and again, so a small cache saves most of that work.
+ * <p>
+ * Only valid names are cached, so a stream of bad names can't push the good ones out more than
+ * any other unseen name would. A cache size of 0 turns caching off.
+ */
+public class PrecisNameValidator {
+    public static final int DEFAULT_CACHE_SIZE = 64;
+
+    private final PrecisProfile profile;
+    // null when caching is turned off
+    private volatile LruCache<String, Boolean> validNames;
+    private final AtomicLong cacheHits = new AtomicLong();
+    private final AtomicLong cacheMisses = new AtomicLong();
+
+    /**
+     * @param profile   The PRECIS profile names must conform to
+     * @param cacheSize The number of valid names to remember, or 0 to always enforce the profile
+     */
+    public PrecisNameValidator(PrecisProfile profile, int cacheSize) {
+        this.profile = profile;
+        setCacheSize(cacheSize);
+    }
+
+    /**
+     * @param name The name to check
+     * @return true if the profile can be enforced on name
+     */
+    public boolean isValid(String name) {
+        if (name == null) {
+            return false;
+        }
+        LruCache<String, Boolean> cache = this.validNames;
+        if (cache == null) {
+            return enforce(name);
+        }
+        if (cache.get(name) != null) {
+            cacheHits.incrementAndGet();
+            return true;
+        }
+        cacheMisses.incrementAndGet();
+        if (!enforce(name)) {
+            return false;
+        }
+        cache.put(name, Boolean.TRUE);
+        return true;
+    }
+
+    /**
+     * Change the number of valid names to remember. Names already cached are kept if they fit.
+     *
+     * @param cacheSize The new cache size, or 0 to turn caching off
+     */
+    public synchronized void setCacheSize(int cacheSize) {
+        if (cacheSize < 0) {
+            throw new IllegalArgumentException("cacheSize must not be negative");
+        }
+        if (cacheSize == 0) {
+            this.validNames = null;
+        } else if (this.validNames == null) {
+            this.validNames = new LruCache<>(cacheSize);
+        } else {
+            this.validNames.resize(cacheSize);
+        }
+    }
+
+    /**
+     * @return The number of valid names remembered, or 0 if caching is off
+     */
+    public int getCacheSize() {
+        LruCache<String, Boolean> cache = this.validNames;
+        return cache == null ? 0 : cache.maxSize();
+    }
+
+    public long getCacheHitCount() {
+        return cacheHits.get();
+    }
+
+    public long getCacheMissCount() {
+        return cacheMisses.get();
+    }
+
+    /**
+     * Forget all cached names.
+     */
+    public void clearCache() {
+        LruCache<String, Boolean> cache = this.validNames;
+        if (cache != null) {
+            cache.evictAll();
+        }
+    }
+
+    private boolean enforce(String name) {
+        try {
+            profile.enforce(name);
+            return true;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package duo.labs.webauthn.util;
+
+import java.util.List;
+
+import duo.labs.webauthn.models.CredentialSelectionItem;
+
+/**
+ * Lets getAssertion use a remembered credential without asking the CredentialItemSelector. The
+ * policy is only consulted when more than one credential matches the request.
+ */
+public interface RememberedCredentialPolicy {
+    /**
+     * Find the remembered credential for an RP among the credentials matching a request.
+     *
+     * @param rpId           The RP ID of the request
+     * @param credentialList The credentials matching the request, most recently used first
+     * @return The credential to use, or null to ask the CredentialItemSelector
+     */
+    public CredentialSelectionItem findRemembered(String rpId, List<CredentialSelectionItem> credentialList);
+}
@@ -0,0 +1,68 @@
+package duo.labs.webauthn.util;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Base64;
+
+import java.util.Arrays;
+import java.util.List;
+
+import duo.labs.webauthn.models.CredentialSelectionItem;
+
+/**
+ * A RememberedCredentialPolicy that keeps one credential ID per RP in shared preferences, e.g. the
+ * one the user chose last time with "remember my choice" checked. If the remembered credential
+ * no longer matches a request, e.g. because it was deleted or isn't in the allow list, the
+ * CredentialItemSelector is asked as usual.
+ */
+public class RememberedCredentials implements RememberedCredentialPolicy {
+    private static final String PREFERENCES_NAME = "webauthn_remembered_credentials";
+
+    private final SharedPreferences preferences;
+
+    public RememberedCredentials(Context ctx) {
+        this.preferences = ctx.getApplicationContext().getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * Use the given credential for this RP from now on without asking.
+     *
+     * @param rpId         The RP ID
+     * @param credentialId The credential ID to remember
+     */
+    public void remember(String rpId, byte[] credentialId) {
+        preferences.edit().putString(rpId, Base64.encodeToString(credentialId, Base64.NO_WRAP)).apply();
+    }
+
+    /**
+     * Ask the CredentialItemSelector again for this RP.
+     *
+     * @param rpId The RP ID
+     */
+    public void forget(String rpId) {
+        preferences.edit().remove(rpId).apply();
+    }
+
+    /**
+     * @param rpId The RP ID
+     * @return The remembered credential ID for this RP, or null if there is none
+     */
+    public byte[] getRememberedCredentialId(String rpId) {
+        String encoded = preferences.getString(rpId, null);
+        return encoded == null ? null : Base64.decode(encoded, Base64.NO_WRAP);
+    }
+
+    @Override
+    public CredentialSelectionItem findRemembered(String rpId, List<CredentialSelectionItem> credentialList) {
+        byte[] rememberedId = getRememberedCredentialId(rpId);
+        if (rememberedId == null) {
+            return null;
+        }
+        for (CredentialSelectionItem item : credentialList) {
+            if (Arrays.equals(rememberedId, item.id)) {
+                return item;
+            }
+        }
+        return null;
+    }
+}
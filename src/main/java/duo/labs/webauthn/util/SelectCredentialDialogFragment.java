@@ -6,89 +6,167 @@ import android.content.DialogInterface;
 import android.os.Bundle;
 import android.support.v4.app.DialogFragment;
 import android.support.v4.app.FragmentActivity;
+import android.text.Editable;
+import android.text.TextWatcher;
 import android.util.Log;
+import android.view.View;
+import android.widget.AdapterView;
+import android.widget.EditText;
+import android.widget.LinearLayout;
+import android.widget.ListView;
 
 import java.lang.ref.WeakReference;
-import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.Exchanger;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 
 import duo.labs.webauthn.R;
-import duo.labs.webauthn.models.PublicKeyCredentialSource;
+import duo.labs.webauthn.models.CredentialSelectionItem;
 
-public class SelectCredentialDialogFragment extends DialogFragment implements CredentialSelector {
+public class SelectCredentialDialogFragment extends DialogFragment implements CredentialItemSelector, AsyncCredentialSelector {
     private static final String TAG = "WebauthnDialogFragment";
+    public static final int DEFAULT_SEARCH_THRESHOLD = 20;
+    // the most matches shown for a search; narrowing it down further is up to the user
+    private static final int SEARCH_RESULT_LIMIT = 500;
     private WeakReference<FragmentActivity> fragmentActivity;
-    private List<PublicKeyCredentialSource> credentialList;
-    private Exchanger<PublicKeyCredentialSource> exchanger;
+    private int searchThreshold = DEFAULT_SEARCH_THRESHOLD;
+    private List<CredentialSelectionItem> credentialList;
+    private CredentialSearchIndex searchIndex;
+    private CompletableFuture<CredentialSelectionItem> selection;
 
     public void populateFragmentActivity(FragmentActivity fragmentActivity) {
         this.fragmentActivity = new WeakReference(fragmentActivity);
     }
 
-    public PublicKeyCredentialSource selectFrom(List<PublicKeyCredentialSource> credentialList) {
+    /**
+     * Show a search field above the list when there are at least this many credentials to
+     * choose from. Typing filters the list to the credentials whose display name, or a word in
+     * it, starts with the text typed.
+     *
+     * @param searchThreshold The number of credentials from which to offer search, or
+     *                        Integer.MAX_VALUE to never offer it
+     */
+    public void setSearchThreshold(int searchThreshold) {
+        this.searchThreshold = searchThreshold;
+    }
+
+    /**
+     * Show the dialog and wait for the user's choice. This blocks the calling thread, so it must
+     * not be called from the main thread; getAssertionAsyncSelecting uses selectFromAsync instead.
+     */
+    public CredentialSelectionItem selectFrom(List<CredentialSelectionItem> credentialList) {
+        try {
+            return selectFromAsync(credentialList).get();
+        } catch (InterruptedException | ExecutionException exception) {
+            Log.w(TAG, "selection interrupted: " + exception.toString());
+            return null;
+        }
+    }
+
+    public CompletableFuture<CredentialSelectionItem> selectFromAsync(List<CredentialSelectionItem> credentialList) {
         // check to make sure fragmentActivity is populated
         if (fragmentActivity == null) {
             Log.w(TAG, "Must populate fragment activity before calling promptUser");
-            return null;
+            return CompletableFuture.completedFuture(null);
+        }
+        final FragmentActivity fragmentActivityStrongRef = fragmentActivity.get();
+        if (fragmentActivityStrongRef == null) {
+            Log.w(TAG, "FragmentActivity reference was garbage collected. Returning first matching credential.");
+            return CompletableFuture.completedFuture(credentialList.get(0));
         }
         // store some instance vars for the dialog prompt to use
         this.credentialList = credentialList;
-        this.exchanger = new Exchanger<PublicKeyCredentialSource>();
+        // getAssertionAsyncSelecting calls this off the main thread, so long lists are indexed there
+        this.searchIndex = credentialList.size() >= searchThreshold ? new CredentialSearchIndex(credentialList) : null;
+        this.selection = new CompletableFuture<>();
+        CompletableFuture<CredentialSelectionItem> selection = this.selection;
 
         // show dialog prompt to user
-        FragmentActivity fragmentActivityStrongRef = fragmentActivity.get();
-        if (fragmentActivityStrongRef == null) {
-            Log.w(TAG,"FragmentActivity reference was garbage collected. Returning first matching credential.");
-            return credentialList.get(0);
-        }
-        show(fragmentActivityStrongRef.getSupportFragmentManager(), "credential");
-
-        // wait to retrieve credential
-        PublicKeyCredentialSource selectedCredential;
-        try {
-            selectedCredential = exchanger.exchange(null);
-        } catch (InterruptedException exception) {
-            Log.w(TAG, "exchange interrupted: " + exception.toString());
-            return null;
-        }
-        return selectedCredential;
+        fragmentActivityStrongRef.runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                show(fragmentActivityStrongRef.getSupportFragmentManager(), "credential");
+            }
+        });
+        return selection;
     }
 
     @Override
     public Dialog onCreateDialog(Bundle savedInstanceState) {
-        // make sure credentialList and exchanger are populated
-        if (credentialList == null || exchanger == null) {
-            Log.w(TAG, "credentialList and exchanger must be populated before calling show()");
+        // make sure credentialList and selection are populated
+        if (credentialList == null || selection == null) {
+            Log.w(TAG, "credentialList and selection must be populated before calling show()");
         }
-        // turn credentialList into CharSequence[] of user names
-        ArrayList<String> usernames = new ArrayList<>();
-        for (PublicKeyCredentialSource credential : credentialList) {
-            usernames.add(credential.userDisplayName);
-        }
-        final String[] usernames_final = usernames.toArray(new String[0]);
-
+        // rows are built as they are scrolled into view, and a click identifies its credential by
+        // position, so credentials that share a display name can still be told apart
+        final CredentialSelectionAdapter adapter = new CredentialSelectionAdapter(credentialList);
         AlertDialog.Builder builder = new AlertDialog.Builder(getActivity());
-        builder.setTitle(R.string.dialog_select_credential)
-                .setItems(usernames_final, new DialogInterface.OnClickListener() {
-                    public void onClick(DialogInterface dialog, int which) {
-                        Log.d(TAG, "Selected credential for user: " + usernames_final[which]);
-                        for (PublicKeyCredentialSource credItr : credentialList) {
-                            if (credItr.userDisplayName.equals(usernames_final[which])) {
-                                if (exchanger != null) {
-                                    try {
-                                        exchanger.exchange(credItr);
-                                        Log.d(TAG, "User selected " + credItr.userDisplayName + " with user handle: " + credItr.userHandle + " and keyPairAlias: " + credItr.keyPairAlias);
-                                    } catch (InterruptedException exception) {
-                                        Log.w(TAG, "exchange interrupted: " + exception.toString());
-                                    }
-                                }
-                                break;
-                            }
-                        }
-                    }
-                });
+        builder.setTitle(R.string.dialog_select_credential);
+        if (searchIndex == null) {
+            builder.setAdapter(adapter, new DialogInterface.OnClickListener() {
+                public void onClick(DialogInterface dialog, int which) {
+                    select(adapter.getItem(which));
+                }
+            });
+        } else {
+            builder.setView(createSearchView(adapter, searchIndex));
+        }
         return builder.create();
     }
 
+    private View createSearchView(final CredentialSelectionAdapter adapter, final CredentialSearchIndex searchIndex) {
+        EditText search = new EditText(getActivity());
+        search.setHint(R.string.dialog_search_credential);
+        search.setSingleLine(true);
+        search.addTextChangedListener(new TextWatcher() {
+            @Override
+            public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+            }
+
+            @Override
+            public void onTextChanged(CharSequence s, int start, int before, int count) {
+            }
+
+            @Override
+            public void afterTextChanged(Editable s) {
+                String query = s.toString();
+                adapter.setCredentialList(query.trim().isEmpty() ? credentialList : searchIndex.search(query, SEARCH_RESULT_LIMIT));
+            }
+        });
+
+        ListView list = new ListView(getActivity());
+        list.setAdapter(adapter);
+        list.setFastScrollEnabled(true);
+        list.setOnItemClickListener(new AdapterView.OnItemClickListener() {
+            @Override
+            public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
+                select(adapter.getItem(position));
+                dismiss();
+            }
+        });
+
+        LinearLayout layout = new LinearLayout(getActivity());
+        layout.setOrientation(LinearLayout.VERTICAL);
+        layout.addView(search);
+        layout.addView(list);
+        return layout;
+    }
+
+    private void select(CredentialSelectionItem selected) {
+        Log.d(TAG, "User selected " + selected.userDisplayName + " with roomUid: " + selected.roomUid);
+        complete(selected);
+    }
+
+    @Override
+    public void onDismiss(DialogInterface dialog) {
+        super.onDismiss(dialog);
+        // dismissed without a selection, e.g. cancelled; does nothing after a click
+        complete(null);
+    }
+
+    private void complete(CredentialSelectionItem selected) {
+        if (selection != null) {
+            selection.complete(selected);
+        }
+    }
 }
@@ -0,0 +1,80 @@
+package duo.labs.webauthn.util;
+
+import android.support.annotation.NonNull;
+
+import java.security.InvalidAlgorithmParameterException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.NoSuchAlgorithmException;
+import java.security.spec.ECGenParameterSpec;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import duo.labs.webauthn.exceptions.VirgilException;
+
+/**
+ * SoftwareKeyBackend generates ES256 keys with the default JCA provider and keeps them in memory.
+ * <p>
+ * Keys are lost when the backend is garbage collected and are never protected by user
+ * authentication, so this backend is only meant for tests and benchmarks that need the full
+ * makeCredential/getAssertion pipeline without depending on the device key store.
+ */
+public class SoftwareKeyBackend implements KeyBackend {
+    private static final String CURVE_NAME = "secp256r1";
+    private final Map<String, KeyPair> keys = new ConcurrentHashMap<>();
+
+    @Override
+    public void warmUp() {
+        // nothing to load
+    }
+
+    @Override
+    public KeyPair generate(@NonNull String alias) throws VirgilException {
+        try {
+            KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance("EC");
+            keyPairGenerator.initialize(new ECGenParameterSpec(CURVE_NAME));
+            KeyPair keyPair = keyPairGenerator.generateKeyPair();
+            keys.put(alias, keyPair);
+            return keyPair;
+        } catch (NoSuchAlgorithmException | InvalidAlgorithmParameterException e) {
+            throw new VirgilException("couldn't generate key pair: " + e.toString());
+        }
+    }
+
+    @Override
+    public KeyPair load(@NonNull String alias) throws VirgilException {
+        KeyPair keyPair = keys.get(alias);
+        if (keyPair == null) {
+            throw new VirgilException("couldn't get key by alias");
+        }
+        return keyPair;
+    }
+
+    @Override
+    public void delete(@NonNull String alias) {
+        keys.remove(alias);
+    }
+
+    @Override
+    public boolean requiresVerification(@NonNull String alias) throws VirgilException {
+        load(alias);
+        return false;
+    }
+
+    @Override
+    public boolean isUserAuthenticationRequired() {
+        return false;
+    }
+
+    @Override
+    public boolean isStrongBoxBacked() {
+        return false;
+    }
+
+    @Override
+    public List<String> aliases() {
+        return new ArrayList<>(keys.keySet());
+    }
+}
@@ -45,12 +45,28 @@ public class WebAuthnCryptography {
      * @throws VirgilException
      */
     public byte[] performSignature(PrivateKey privateKey, byte[] data, Signature sig) throws VirgilException {
+        return performSignature(privateKey, data, 0, data.length, sig);
+    }
+
+    /**
+     * Perform a signature over a region of a byte array.
+     *
+     * @param privateKey The private key with which to sign.
+     * @param data       The buffer containing the data to be signed.
+     * @param offset     The offset of the data within the buffer.
+     * @param length     The number of bytes to sign.
+     * @param sig        Signature object with which to perform the signature, or null to create it
+     *                   on the fly.
+     * @return A byte array representing the signature in ASN.1 DER Ecdsa-Sig-Value format.
+     * @throws VirgilException
+     */
+    public byte[] performSignature(PrivateKey privateKey, byte[] data, int offset, int length, Signature sig) throws VirgilException {
         try {
             if (sig == null) {
                 sig = Signature.getInstance("SHA256withECDSA");
                 sig.initSign(privateKey);
             }
-            sig.update(data);
+            sig.update(data, offset, length);
             return sig.sign();
         } catch (InvalidKeyException | SignatureException | NoSuchAlgorithmException e) {
             throw new VirgilException("couldn't perform signature: " + e.toString());
@@ -1,6 +1,7 @@
 package duo.labs.webauthn.util.database;
 
 import android.arch.lifecycle.LiveData;
+import android.arch.paging.DataSource;
 import android.arch.persistence.room.Dao;
 import android.arch.persistence.room.Delete;
 import android.arch.persistence.room.Insert;
@@ -10,6 +11,9 @@ import android.arch.persistence.room.Update;
 
 import java.util.List;
 
+import duo.labs.webauthn.models.CredentialCounter;
+import duo.labs.webauthn.models.CredentialListItem;
+import duo.labs.webauthn.models.CredentialSelectionItem;
 import duo.labs.webauthn.models.PublicKeyCredentialSource;
 
 @Dao
@@ -21,29 +25,130 @@ public abstract class CredentialDao {
     @Query("SELECT * FROM credentials")
     public abstract LiveData<List<PublicKeyCredentialSource>> getAllLive();
 
-    @Query("SELECT * FROM credentials WHERE rpId = :rpId")
+    /**
+     * All credentials for a management list, ordered by RP and display name. The ordering is
+     * served by the (rpId, userDisplayName) index, so pages are read without sorting the table.
+     */
+    @Query("SELECT roomUid, id, rpId, userDisplayName FROM credentials ORDER BY rpId, userDisplayName")
+    public abstract DataSource.Factory<Integer, CredentialListItem> getListItemsPaged();
+
+    /**
+     * All credentials for an RP, most recently used first.
+     */
+    @Query("SELECT c.* FROM credential_counters n INNER JOIN credentials c ON c.roomUid = n.roomUid WHERE n.rpId = :rpId ORDER BY n.lastUsed DESC")
     public abstract List<PublicKeyCredentialSource> getAllByRpId(String rpId);
 
+    @Query("SELECT * FROM credentials WHERE rpId = :rpId AND id IN (:ids)")
+    public abstract List<PublicKeyCredentialSource> getAllByRpIdAndIds(String rpId, List<byte[]> ids);
+
+    @Query("SELECT COUNT(*) FROM credentials WHERE rpId = :rpId AND id IN (:ids)")
+    public abstract int countByRpIdAndIds(String rpId, List<byte[]> ids);
+
+    /**
+     * Selection items for an RP, most recently used first. The rows are read in order from the
+     * (rpId, lastUsed) index on credential_counters, so no sort is needed however many there are.
+     */
+    @Query("SELECT c.roomUid AS roomUid, c.id AS id, c.userDisplayName AS userDisplayName, n.lastUsed AS lastUsed "
+            + "FROM credential_counters n INNER JOIN credentials c ON c.roomUid = n.roomUid WHERE n.rpId = :rpId ORDER BY n.lastUsed DESC")
+    public abstract List<CredentialSelectionItem> getSelectionItemsByRpId(String rpId);
+
+    @Query("SELECT c.roomUid AS roomUid, c.id AS id, c.userDisplayName AS userDisplayName, IFNULL(n.lastUsed, 0) AS lastUsed "
+            + "FROM credentials c LEFT JOIN credential_counters n ON n.roomUid = c.roomUid WHERE c.rpId = :rpId AND c.id IN (:ids) "
+            + "ORDER BY lastUsed DESC")
+    public abstract List<CredentialSelectionItem> getSelectionItemsByRpIdAndIds(String rpId, List<byte[]> ids);
+
+    /**
+     * The RPs whose credentials were used most recently, most recent first.
+     */
+    @Query("SELECT rpId FROM credential_counters GROUP BY rpId ORDER BY MAX(lastUsed) DESC LIMIT :limit")
+    public abstract List<String> getRecentlyUsedRpIds(int limit);
+
+    @Query("SELECT * FROM credentials WHERE roomUid = :uid LIMIT 1")
+    public abstract PublicKeyCredentialSource getByUid(int uid);
+
     @Query("SELECT * FROM credentials WHERE id = :id LIMIT 1")
     public abstract PublicKeyCredentialSource getById(byte[] id);
 
+    @Query("SELECT keyPairAlias FROM credentials WHERE keyPairAlias LIKE :pattern")
+    public abstract List<String> getKeyPairAliasesLike(String pattern);
+
     @Insert
-    public abstract void insert(PublicKeyCredentialSource credential);
+    abstract long insertRow(PublicKeyCredentialSource credential);
+
+    @Insert
+    abstract void insertUseCounter(CredentialCounter counter);
+
+    /**
+     * Insert a credential along with its counter row, which records the creation time as the
+     * credential's last use. The credential's roomUid is set to the generated value.
+     *
+     * @param credential The new credential
+     */
+    @Transaction
+    public void insert(PublicKeyCredentialSource credential) {
+        credential.roomUid = (int) insertRow(credential);
+        insertUseCounter(new CredentialCounter(credential.roomUid, credential.rpId, credential.keyUseCounter, System.currentTimeMillis()));
+    }
 
     @Delete
-    public abstract void delete(PublicKeyCredentialSource credential);
+    abstract void deleteRow(PublicKeyCredentialSource credential);
+
+    @Query("DELETE FROM credentials WHERE roomUid = :uid")
+    abstract void deleteRowByUid(int uid);
+
+    @Query("DELETE FROM credential_counters WHERE roomUid = :uid")
+    abstract void deleteUseCounter(int uid);
+
+    @Transaction
+    public void delete(PublicKeyCredentialSource credential) {
+        deleteRow(credential);
+        deleteUseCounter(credential.roomUid);
+    }
+
+    @Transaction
+    public void deleteByUid(int uid) {
+        deleteRowByUid(uid);
+        deleteUseCounter(uid);
+    }
 
     @Update
     public abstract void update(PublicKeyCredentialSource credential);
 
-    @Query("SELECT keyUseCounter FROM credentials WHERE roomUid = :uid LIMIT 1")
+    @Query("UPDATE credentials SET cosePublicKey = :cosePublicKey WHERE roomUid = :uid")
+    public abstract void updateCosePublicKey(int uid, byte[] cosePublicKey);
+
+    @Query("SELECT * FROM credentials WHERE userVerificationRequired IS NULL")
+    public abstract List<PublicKeyCredentialSource> getAllWithoutUserVerificationRequired();
+
+    @Query("UPDATE credentials SET userVerificationRequired = :userVerificationRequired WHERE roomUid = :uid")
+    public abstract void updateUserVerificationRequired(int uid, boolean userVerificationRequired);
+
+    @Query("SELECT keyUseCounter FROM credential_counters WHERE roomUid = :uid LIMIT 1")
     public abstract int getUseCounter(int uid);
 
+    @Query("SELECT lastUsed FROM credential_counters WHERE roomUid = :uid LIMIT 1")
+    public abstract long getLastUsed(int uid);
+
+    @Query("UPDATE credential_counters SET keyUseCounter = keyUseCounter + 1, lastUsed = :now WHERE roomUid = :uid")
+    abstract int incrementStoredUseCounter(int uid, long now);
+
+    /**
+     * Atomically increment the use counter of a credential in the database, and record the
+     * current time as its last use. Only the credential_counters table is written, so observers
+     * of the credentials table are not notified.
+     *
+     * @param uid The roomUid of the credential
+     * @return The value of the counter after incrementing
+     */
+    @Transaction
+    public int incrementUseCounter(int uid) {
+        incrementStoredUseCounter(uid, System.currentTimeMillis());
+        return getUseCounter(uid);
+    }
+
     @Transaction
     public int incrementUseCounter(PublicKeyCredentialSource credential) {
-        int useCounter = getUseCounter(credential.roomUid);
-        credential.keyUseCounter++;
-        update(credential);
-        return useCounter;
+        credential.keyUseCounter = incrementUseCounter(credential.roomUid);
+        return credential.keyUseCounter;
     }
 }
@@ -1,25 +1,173 @@
 package duo.labs.webauthn.util.database;
 
 
+import android.arch.persistence.db.SupportSQLiteDatabase;
 import android.arch.persistence.room.Database;
 import android.arch.persistence.room.Room;
 import android.arch.persistence.room.RoomDatabase;
+import android.arch.persistence.room.migration.Migration;
 import android.content.Context;
 
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import duo.labs.webauthn.models.CredentialCounter;
 import duo.labs.webauthn.models.PublicKeyCredentialSource;
 
-@Database(entities = {PublicKeyCredentialSource.class}, version = 3)
+@Database(entities = {PublicKeyCredentialSource.class, CredentialCounter.class}, version = 9)
 public abstract class CredentialDatabase extends RoomDatabase {
-    private static CredentialDatabase INSTANCE;
+    private static volatile CredentialDatabase INSTANCE;
     private static final String CREDENTIAL_DB_NAME = "credentialmetadata";
+    // with write-ahead logging, reads run alongside a write, so a few threads are enough
+    private static final int QUERY_THREADS = 4;
+    private static final int QUERY_QUEUE_SIZE = 256;
+    private static final long QUERY_THREAD_KEEP_ALIVE_SECONDS = 30;
+
+    /**
+     * The executor that database work is moved onto, off the main thread. It runs at most
+     * QUERY_THREADS queries at once and rejects new work once QUERY_QUEUE_SIZE tasks are waiting,
+     * rather than letting a burst of requests queue up without bound. Idle threads exit.
+     */
+    private static final ThreadPoolExecutor QUERY_EXECUTOR = new ThreadPoolExecutor(
+            QUERY_THREADS, QUERY_THREADS,
+            QUERY_THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(QUERY_QUEUE_SIZE),
+            new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "CredentialDatabase-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    static {
+        QUERY_EXECUTOR.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Version 4 stores the COSE-encoded public key alongside each credential. Existing rows are
+     * left empty and filled in by CredentialSafe the first time their public key is needed.
+     */
+    static final Migration MIGRATION_3_4 = new Migration(3, 4) {
+        @Override
+        public void migrate(SupportSQLiteDatabase database) {
+            database.execSQL("ALTER TABLE credentials ADD COLUMN cosePublicKey BLOB");
+        }
+    };
+
+    /**
+     * Version 5 adds a unique index on the credential ID, which allowCredentialDescriptorList
+     * lookups go through.
+     */
+    static final Migration MIGRATION_4_5 = new Migration(4, 5) {
+        @Override
+        public void migrate(SupportSQLiteDatabase database) {
+            database.execSQL("CREATE UNIQUE INDEX IF NOT EXISTS `index_credentials_id` ON `credentials` (`id`)");
+        }
+    };
+
+    /**
+     * Version 6 records the properties of each credential's key pair. Every existing key is an
+     * ES256 key on P-256, so those columns are filled in here. Whether a key requires user
+     * verification is only known to the key store; CredentialSafe.warmUp fills that in. Whether
+     * an existing key is StrongBox backed can't be found out, so strongBoxBacked stays null.
+     */
+    static final Migration MIGRATION_5_6 = new Migration(5, 6) {
+        @Override
+        public void migrate(SupportSQLiteDatabase database) {
+            database.execSQL("ALTER TABLE credentials ADD COLUMN userVerificationRequired INTEGER");
+            database.execSQL("ALTER TABLE credentials ADD COLUMN strongBoxBacked INTEGER");
+            database.execSQL("ALTER TABLE credentials ADD COLUMN keyCurve TEXT");
+            database.execSQL("ALTER TABLE credentials ADD COLUMN keyAlgorithm INTEGER NOT NULL DEFAULT -7");
+            database.execSQL("UPDATE credentials SET keyCurve = 'secp256r1'");
+        }
+    };
+
+    /**
+     * Version 7 replaces the rpId index with one on (rpId, userDisplayName), which also orders
+     * the paged credential list. Lookups by rpId use its first column.
+     */
+    static final Migration MIGRATION_6_7 = new Migration(6, 7) {
+        @Override
+        public void migrate(SupportSQLiteDatabase database) {
+            database.execSQL("DROP INDEX IF EXISTS `index_credentials_rpId`");
+            database.execSQL("CREATE INDEX IF NOT EXISTS `index_credentials_rpId_userDisplayName` ON `credentials` (`rpId`, `userDisplayName`)");
+        }
+    };
+
+    /**
+     * Version 8 moves the signature counters out of the credentials table into
+     * credential_counters, so that bumping a counter doesn't invalidate observers of credential
+     * metadata. SQLite can't drop a column, so the credentials table is rebuilt without
+     * keyUseCounter. When a migrated credential was last used is unknown and recorded as 0.
+     */
+    static final Migration MIGRATION_7_8 = new Migration(7, 8) {
+        @Override
+        public void migrate(SupportSQLiteDatabase database) {
+            database.execSQL("CREATE TABLE IF NOT EXISTS `credential_counters` (`roomUid` INTEGER NOT NULL, `keyUseCounter` INTEGER NOT NULL, `lastUsed` INTEGER NOT NULL, PRIMARY KEY(`roomUid`))");
+            database.execSQL("INSERT INTO credential_counters (roomUid, keyUseCounter, lastUsed) SELECT roomUid, keyUseCounter, 0 FROM credentials");
+
+            database.execSQL("CREATE TABLE `credentials_new` (`roomUid` INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL, `id` BLOB, `keyPairAlias` TEXT, `rpId` TEXT, `userHandle` BLOB, `userDisplayName` TEXT, `otherUI` TEXT, `cosePublicKey` BLOB, `userVerificationRequired` INTEGER, `strongBoxBacked` INTEGER, `keyCurve` TEXT, `keyAlgorithm` INTEGER NOT NULL)");
+            database.execSQL("INSERT INTO credentials_new (roomUid, id, keyPairAlias, rpId, userHandle, userDisplayName, otherUI, cosePublicKey, userVerificationRequired, strongBoxBacked, keyCurve, keyAlgorithm) "
+                    + "SELECT roomUid, id, keyPairAlias, rpId, userHandle, userDisplayName, otherUI, cosePublicKey, userVerificationRequired, strongBoxBacked, keyCurve, keyAlgorithm FROM credentials");
+            database.execSQL("DROP TABLE credentials");
+            database.execSQL("ALTER TABLE credentials_new RENAME TO credentials");
+            database.execSQL("CREATE INDEX IF NOT EXISTS `index_credentials_rpId_userDisplayName` ON `credentials` (`rpId`, `userDisplayName`)");
+            database.execSQL("CREATE UNIQUE INDEX IF NOT EXISTS `index_credentials_id` ON `credentials` (`id`)");
+        }
+    };
+
+    /**
+     * Version 9 copies each credential's rpId into its credential_counters row and indexes the
+     * counters on (rpId, lastUsed), so an RP's credentials can be listed most recently used first
+     * without a sort. Existing counter rows take the rpId of the credential they belong to.
+     */
+    static final Migration MIGRATION_8_9 = new Migration(8, 9) {
+        @Override
+        public void migrate(SupportSQLiteDatabase database) {
+            database.execSQL("ALTER TABLE credential_counters ADD COLUMN `rpId` TEXT");
+            database.execSQL("UPDATE credential_counters SET rpId = (SELECT rpId FROM credentials WHERE credentials.roomUid = credential_counters.roomUid)");
+            database.execSQL("CREATE INDEX IF NOT EXISTS `index_credential_counters_rpId_lastUsed` ON `credential_counters` (`rpId`, `lastUsed`)");
+        }
+    };
 
+    /**
+     * Get the credential database, opening it on first use. The database uses write-ahead
+     * logging and refuses queries on the main thread; run them on getQueryExecutor() instead.
+     *
+     * @param ctx Any context; only its application context is kept
+     * @return The process-wide credential database
+     */
     public static CredentialDatabase getDatabase(Context ctx) {
-        if (INSTANCE == null) {
-            INSTANCE = Room.databaseBuilder(ctx.getApplicationContext(), CredentialDatabase.class, CREDENTIAL_DB_NAME)
-                    .allowMainThreadQueries()
-                    .build();
+        CredentialDatabase instance = INSTANCE;
+        if (instance == null) {
+            synchronized (CredentialDatabase.class) {
+                instance = INSTANCE;
+                if (instance == null) {
+                    instance = Room.databaseBuilder(ctx.getApplicationContext(), CredentialDatabase.class, CREDENTIAL_DB_NAME)
+                            .setJournalMode(JournalMode.WRITE_AHEAD_LOGGING)
+                            .addMigrations(MIGRATION_3_4, MIGRATION_4_5, MIGRATION_5_6, MIGRATION_6_7, MIGRATION_7_8, MIGRATION_8_9)
+                            .build();
+                    INSTANCE = instance;
+                }
+            }
         }
-        return INSTANCE;
+        return instance;
+    }
+
+    /**
+     * @return The bounded executor for credential database work. Tasks submitted while it is
+     * saturated are rejected with a RejectedExecutionException.
+     */
+    public static ExecutorService getQueryExecutor() {
+        return QUERY_EXECUTOR;
     }
 
     public abstract CredentialDao credentialDao();
@@ -3,42 +3,64 @@ package duo.labs.webauthn.util.database;
 import android.app.Application;
 import android.arch.lifecycle.AndroidViewModel;
 import android.arch.lifecycle.LiveData;
-import android.os.AsyncTask;
+import android.arch.paging.LivePagedListBuilder;
+import android.arch.paging.PagedList;
 
-import java.security.PublicKey;
 import java.util.List;
 
+import duo.labs.webauthn.models.CredentialListItem;
 import duo.labs.webauthn.models.PublicKeyCredentialSource;
 
 public class CredentialListViewModel extends AndroidViewModel {
+    private static final int PAGE_SIZE = 50;
     private final LiveData<List<PublicKeyCredentialSource>> credentialList;
-    private CredentialDatabase credentialDatabase;
+    private final LiveData<PagedList<CredentialListItem>> pagedCredentialList;
+    private final CredentialDatabase credentialDatabase;
 
     public CredentialListViewModel(Application application) {
         super(application);
         credentialDatabase = CredentialDatabase.getDatabase(this.getApplication());
         credentialList = credentialDatabase.credentialDao().getAllLive();
+        PagedList.Config config = new PagedList.Config.Builder()
+                .setPageSize(PAGE_SIZE)
+                .setEnablePlaceholders(true)
+                .build();
+        pagedCredentialList = new LivePagedListBuilder<>(credentialDatabase.credentialDao().getListItemsPaged(), config)
+                .setFetchExecutor(CredentialDatabase.getQueryExecutor())
+                .build();
     }
 
+    /**
+     * @return Every credential, with all of its columns. This is re-queried in full whenever the
+     * table changes; prefer getPagedCredentialList for displaying the credentials.
+     */
     public LiveData<List<PublicKeyCredentialSource>> getCredentialList() {
         return credentialList;
     }
 
-    public void deleteItem(PublicKeyCredentialSource credential) {
-        new deleteAsyncTask(credentialDatabase).execute(credential);
+    /**
+     * @return The credentials ordered by RP and display name, loaded a page at a time as the
+     * list is scrolled. Only the columns a list shows are read.
+     */
+    public LiveData<PagedList<CredentialListItem>> getPagedCredentialList() {
+        return pagedCredentialList;
     }
 
-    private static class deleteAsyncTask extends AsyncTask<PublicKeyCredentialSource, Void, Void> {
-        private CredentialDatabase db;
-
-        deleteAsyncTask(CredentialDatabase credentialDatabase) {
-            db = credentialDatabase;
-        }
+    public void deleteItem(final PublicKeyCredentialSource credential) {
+        CredentialDatabase.getQueryExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                credentialDatabase.credentialDao().delete(credential);
+            }
+        });
+    }
 
-        @Override
-        protected Void doInBackground(final PublicKeyCredentialSource... params) {
-            db.credentialDao().delete(params[0]);
-            return null;
-        }
+    public void deleteItem(final CredentialListItem credential) {
+        CredentialDatabase.getQueryExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                credentialDatabase.credentialDao().deleteByUid(credential.roomUid);
+            }
+        });
     }
 }